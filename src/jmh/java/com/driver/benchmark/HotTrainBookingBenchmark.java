@@ -0,0 +1,76 @@
+package com.driver.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many callers booking the same train at once, with every booking taking the train's lock
+ * (locked) against queueing to the train's single writer (sequenced).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class HotTrainBookingBenchmark {
+
+    @Param({"locked", "sequenced"})
+    String mode;
+
+    @Param({"8"})
+    int routeLength;
+
+    //simulated database commit, bookings in a sequenced batch share one
+    @Param({"0", "200"})
+    long commitLatencyMicros;
+
+    ServiceFixture fixture;
+
+    int trainId;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        fixture = new ServiceFixture(1, 1000, routeLength, mode, 20_000);
+        trainId = fixture.trainIds.get(0);
+        fixture.transactionManager.commitLatencyMicros = commitLatencyMicros;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        fixture.bookingSequencer.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class Bookings {
+
+        final Random random = new Random(ThreadLocalRandom.current().nextLong());
+    }
+
+    //once the train is full the bookings are turned down, which is part of what gets measured
+    @Benchmark
+    public Integer bookTicket(Bookings bookings) {
+        try {
+            return fixture.ticketService.bookTicket(fixture.randomBooking(bookings.random, trainId));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.driver.benchmark;
+
+import com.driver.model.Passenger;
+import com.driver.repository.PassengerRepository;
+
+class InMemoryPassengerRepository extends InMemoryRepository<Passenger> implements PassengerRepository {
+
+    InMemoryPassengerRepository() {
+        super(Passenger::getPassengerId, Passenger::setPassengerId);
+    }
+}
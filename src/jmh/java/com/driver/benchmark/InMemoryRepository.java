@@ -0,0 +1,172 @@
+package com.driver.benchmark;
+
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Map backed stand-in for a Spring Data repository so the services can be benchmarked
+ * without a database. Only the operations the services use are implemented.
+ */
+abstract class InMemoryRepository<T> implements JpaRepository<T, Integer> {
+
+    final ConcurrentNavigableMap<Integer, T> rows = new ConcurrentSkipListMap<>();
+
+    private final AtomicInteger ids = new AtomicInteger();
+
+    private final ToIntFunction<T> idOf;
+
+    private final ObjIntConsumer<T> assignId;
+
+    InMemoryRepository(ToIntFunction<T> idOf, ObjIntConsumer<T> assignId) {
+        this.idOf = idOf;
+        this.assignId = assignId;
+    }
+
+    @Override
+    public <S extends T> S save(S entity) {
+        if (idOf.applyAsInt(entity) == 0) {
+            assignId.accept(entity, ids.incrementAndGet());
+        }
+        rows.put(idOf.applyAsInt(entity), entity);
+        return entity;
+    }
+
+    @Override
+    public <S extends T> List<S> saveAll(Iterable<S> entities) {
+        List<S> saved = new ArrayList<>();
+        for (S entity : entities) {
+            saved.add(save(entity));
+        }
+        return saved;
+    }
+
+    @Override
+    public Optional<T> findById(Integer id) {
+        return Optional.ofNullable(rows.get(id));
+    }
+
+    @Override
+    public T getOne(Integer id) {
+        return rows.get(id);
+    }
+
+    @Override
+    public boolean existsById(Integer id) {
+        return rows.containsKey(id);
+    }
+
+    @Override
+    public List<T> findAll() {
+        return new ArrayList<>(rows.values());
+    }
+
+    @Override
+    public List<T> findAllById(Iterable<Integer> ids) {
+        List<T> found = new ArrayList<>();
+        for (Integer id : ids) {
+            T row = rows.get(id);
+            if (row != null) {
+                found.add(row);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public long count() {
+        return rows.size();
+    }
+
+    @Override
+    public void deleteById(Integer id) {
+        rows.remove(id);
+    }
+
+    @Override
+    public void delete(T entity) {
+        rows.remove(idOf.applyAsInt(entity));
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends T> entities) {
+        for (T entity : entities) {
+            delete(entity);
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        rows.clear();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public <S extends T> S saveAndFlush(S entity) {
+        return save(entity);
+    }
+
+    @Override
+    public void deleteInBatch(Iterable<T> entities) {
+        deleteAll(entities);
+    }
+
+    @Override
+    public void deleteAllInBatch() {
+        deleteAll();
+    }
+
+    @Override
+    public List<T> findAll(Sort sort) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Page<T> findAll(Pageable pageable) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends T> Optional<S> findOne(Example<S> example) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends T> List<S> findAll(Example<S> example) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends T> List<S> findAll(Example<S> example, Sort sort) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends T> Page<S> findAll(Example<S> example, Pageable pageable) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends T> long count(Example<S> example) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends T> boolean exists(Example<S> example) {
+        throw new UnsupportedOperationException();
+    }
+}
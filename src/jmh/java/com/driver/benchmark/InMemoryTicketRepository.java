@@ -0,0 +1,137 @@
+package com.driver.benchmark;
+
+import com.driver.model.Passenger;
+import com.driver.model.Route;
+import com.driver.model.Station;
+import com.driver.model.Ticket;
+import com.driver.repository.BoardingAgeCount;
+import com.driver.repository.ManifestRow;
+import com.driver.repository.SeatAssignment;
+import com.driver.repository.TicketRepository;
+import com.driver.repository.TicketTotals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+//Answers the aggregate queries by scanning the stored tickets, like the database would
+class InMemoryTicketRepository extends InMemoryRepository<Ticket> implements TicketRepository {
+
+    //tickets of each train, what the train_train_id index gives the real queries
+    private final Map<Integer, List<Ticket>> byTrain = new ConcurrentHashMap<>();
+
+    InMemoryTicketRepository() {
+        super(Ticket::getTicketId, Ticket::setTicketId);
+    }
+
+    @Override
+    public <S extends Ticket> S save(S ticket) {
+        boolean isNew = ticket.getTicketId() == 0;
+        super.save(ticket);
+        if (isNew && ticket.getTrain() != null) {
+            byTrain.computeIfAbsent(ticket.getTrain().getTrainId(), id -> new CopyOnWriteArrayList<>()).add(ticket);
+        }
+        return ticket;
+    }
+
+    @Override
+    public Stream<ManifestRow> streamManifest(int trainId) {
+        return ticketsOf(trainId).stream().flatMap(ticket -> ticket.getPassengersList().stream().map(passenger ->
+                new ManifestRow(ticket.getTicketId(), ticket.getFromStation(), ticket.getToStation(), ticket.getSeatNumbers(),
+                        passenger.getPassengerId(), passenger.getName(), passenger.getAge())));
+    }
+
+    private List<Ticket> ticketsOf(int trainId) {
+        return byTrain.getOrDefault(trainId, Collections.emptyList());
+    }
+
+    @Override
+    public void delete(Ticket ticket) {
+        super.delete(ticket);
+        if (ticket.getTrain() != null) {
+            byTrain.getOrDefault(ticket.getTrain().getTrainId(), Collections.emptyList()).remove(ticket);
+        }
+    }
+
+    @Override
+    public Integer findTrainIdByTicketId(int ticketId) {
+        Ticket ticket = rows.get(ticketId);
+        return ticket == null ? null : ticket.getTrain().getTrainId();
+    }
+
+    @Override
+    public List<SeatAssignment> findSeatAssignments(int trainId) {
+        return seatAssignments(ticketsOf(trainId));
+    }
+
+    @Override
+    public List<SeatAssignment> findAllSeatAssignments() {
+        return seatAssignments(rows.values());
+    }
+
+    private static List<SeatAssignment> seatAssignments(Iterable<Ticket> tickets) {
+        List<SeatAssignment> assignments = new ArrayList<>();
+        for (Ticket ticket : tickets) {
+            int passengers = ticket.getPassengersList().size();
+            assignments.add(new SeatAssignment() {
+                public int getTrainId() { return ticket.getTrain().getTrainId(); }
+                public Route getRoute() { return ticket.getTrain().getRoute(); }
+                public Station getFromStation() { return ticket.getFromStation(); }
+                public Station getToStation() { return ticket.getToStation(); }
+                public int[] getSeatNumbers() { return ticket.getSeatNumbers(); }
+                public int getPassengers() { return passengers; }
+            });
+        }
+        return assignments;
+    }
+
+    @Override
+    public TicketTotals findTotals() {
+        long tickets = rows.size();
+        long ticketIdSum = 0;
+        for (int ticketId : rows.keySet()) {
+            ticketIdSum += ticketId;
+        }
+        Long sum = tickets == 0 ? null : ticketIdSum;
+        return new TicketTotals() {
+            public long getTickets() { return tickets; }
+            public Long getTicketIdSum() { return sum; }
+        };
+    }
+
+    @Override
+    public List<BoardingAgeCount> countPassengersByBoardingAndAge(int trainId) {
+        List<BoardingAgeCount> counts = new ArrayList<>();
+        for (Ticket ticket : ticketsOf(trainId)) {
+            for (Passenger passenger : ticket.getPassengersList()) {
+                counts.add(new BoardingAgeCount() {
+                    public Station getFromStation() { return ticket.getFromStation(); }
+                    public int getAge() { return passenger.getAge(); }
+                    public long getPassengers() { return 1; }
+                });
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public List<BoardingAgeCount> countPassengersByAge(int ticketId) {
+        List<BoardingAgeCount> counts = new ArrayList<>();
+        Ticket ticket = rows.get(ticketId);
+        if (ticket == null) {
+            return counts;
+        }
+        for (Passenger passenger : ticket.getPassengersList()) {
+            counts.add(new BoardingAgeCount() {
+                public Station getFromStation() { return ticket.getFromStation(); }
+                public int getAge() { return passenger.getAge(); }
+                public long getPassengers() { return 1; }
+            });
+        }
+        return counts;
+    }
+}
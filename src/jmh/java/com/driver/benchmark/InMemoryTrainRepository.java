@@ -0,0 +1,30 @@
+package com.driver.benchmark;
+
+import com.driver.model.Route;
+import com.driver.model.Train;
+import com.driver.repository.TrainRepository;
+import com.driver.repository.TrainSummary;
+
+import java.time.LocalTime;
+import java.util.Optional;
+
+class InMemoryTrainRepository extends InMemoryRepository<Train> implements TrainRepository {
+
+    InMemoryTrainRepository() {
+        super(Train::getTrainId, Train::setTrainId);
+    }
+
+    @Override
+    public Optional<TrainSummary> findSummaryById(int trainId) {
+        Train train = rows.get(trainId);
+        if (train == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new TrainSummary() {
+            public int getTrainId() { return train.getTrainId(); }
+            public Route getRoute() { return train.getRoute(); }
+            public LocalTime getDepartureTime() { return train.getDepartureTime(); }
+            public int getNoOfSeats() { return train.getNoOfSeats(); }
+        });
+    }
+}
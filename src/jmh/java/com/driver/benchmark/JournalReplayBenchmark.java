@@ -0,0 +1,84 @@
+package com.driver.benchmark;
+
+import com.driver.model.Station;
+import com.driver.services.BookingJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to open the booking journal on startup, replaying every booking from the segments
+ * or reading a snapshot that covers them all.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalReplayBenchmark {
+
+    @Param({"100", "1000"})
+    int trains;
+
+    @Param({"100", "1000"})
+    int ticketsPerTrain;
+
+    @Param({"false", "true"})
+    boolean snapshot;
+
+    Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal-benchmark");
+        BookingJournal journal = new BookingJournal(true, directory.toString(), 65536, 300);
+        journal.open(0, 0);
+        Random random = new Random(42);
+        Station[] stations = Station.values();
+        int ticketId = 1;
+        for (int i = 0; i < ticketsPerTrain; i++) {
+            for (int trainId = 1; trainId <= trains; trainId++) {
+                int from = random.nextInt(stations.length - 1);
+                int to = from + 1 + random.nextInt(stations.length - from - 1);
+                journal.append(trainId, stations[from], stations[to], from, to, new int[]{2 * i + 1, 2 * i + 2},
+                        ticketId++, Arrays.asList(ticketId, ticketId + 1));
+            }
+        }
+        if (snapshot) {
+            journal.snapshot();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public BookingJournal replay() throws IOException {
+        BookingJournal journal = new BookingJournal(true, directory.toString(), 65536, 300);
+        //the tickets were numbered from 1
+        long tickets = (long) trains * ticketsPerTrain;
+        journal.open(tickets, tickets * (tickets + 1) / 2);
+        return journal;
+    }
+}
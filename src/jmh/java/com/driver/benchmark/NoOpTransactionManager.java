@@ -0,0 +1,35 @@
+package com.driver.benchmark;
+
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+//The in-memory repositories have nothing to commit or roll back. A commit can be made to
+//wait, standing in for the round trip and log flush of a real database.
+class NoOpTransactionManager extends AbstractPlatformTransactionManager {
+
+    volatile long commitLatencyMicros;
+
+    @Override
+    protected Object doGetTransaction() {
+        return new Object();
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+    }
+
+    @Override
+    protected void doCommit(DefaultTransactionStatus status) {
+        if (commitLatencyMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(commitLatencyMicros));
+        }
+    }
+
+    @Override
+    protected void doRollback(DefaultTransactionStatus status) {
+    }
+}
@@ -0,0 +1,157 @@
+package com.driver.benchmark;
+
+import com.driver.EntryDto.AddTrainEntryDto;
+import com.driver.EntryDto.BookTicketEntryDto;
+import com.driver.model.Passenger;
+import com.driver.model.Station;
+import com.driver.services.BookingJournal;
+import com.driver.services.BookingLocks;
+import com.driver.services.BookingMetrics;
+import com.driver.services.BookingSequencer;
+import com.driver.services.ConnectionIndex;
+import com.driver.services.FareRules;
+import com.driver.services.FareTables;
+import com.driver.services.JourneyService;
+import com.driver.services.PassengerStatistics;
+import com.driver.services.SeatInventory;
+import com.driver.services.StationArrivalIndex;
+import com.driver.services.TicketService;
+import com.driver.services.TrainCache;
+import com.driver.services.TrainService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The services wired by hand against the in-memory repositories, filled with a
+ * reproducible set of trains, passengers and tickets.
+ */
+class ServiceFixture {
+
+    //seats per train, every seat costs a long in the seat map
+    static final int CAPACITY = 5_000;
+
+    static final int PASSENGERS = 1000;
+
+    final InMemoryTrainRepository trainRepository = new InMemoryTrainRepository();
+
+    final InMemoryTicketRepository ticketRepository = new InMemoryTicketRepository();
+
+    final InMemoryPassengerRepository passengerRepository = new InMemoryPassengerRepository();
+
+    final TrainService trainService = new TrainService();
+
+    final TicketService ticketService = new TicketService();
+
+    final JourneyService journeyService = new JourneyService();
+
+    final List<Integer> trainIds = new ArrayList<>();
+
+    final List<Integer> passengerIds = new ArrayList<>();
+
+    final int routeLength;
+
+    private final Random random = new Random(42);
+
+    final NoOpTransactionManager transactionManager = new NoOpTransactionManager();
+
+    final BookingSequencer bookingSequencer;
+
+    ServiceFixture(int trains, int ticketsPerTrain, int routeLength) throws Exception {
+        this(trains, ticketsPerTrain, routeLength, "locked", CAPACITY);
+    }
+
+    //mode is irctc.booking.mode, locked or sequenced
+    ServiceFixture(int trains, int ticketsPerTrain, int routeLength, String mode, int capacity) throws Exception {
+        this.routeLength = routeLength;
+
+        TrainCache trainCache = new TrainCache(true, 10_000);
+        ReflectionTestUtils.setField(trainCache, "trainRepository", trainRepository);
+        SeatInventory seatInventory = new SeatInventory();
+        ReflectionTestUtils.setField(seatInventory, "trainCache", trainCache);
+        ReflectionTestUtils.setField(seatInventory, "ticketRepository", ticketRepository);
+        BookingJournal bookingJournal = new BookingJournal(false, "journal", 65536, 300);
+        ReflectionTestUtils.setField(seatInventory, "bookingJournal", bookingJournal);
+        PassengerStatistics passengerStatistics = new PassengerStatistics();
+        ReflectionTestUtils.setField(passengerStatistics, "ticketRepository", ticketRepository);
+
+        ReflectionTestUtils.setField(trainService, "trainRepository", trainRepository);
+        ReflectionTestUtils.setField(trainService, "seatInventory", seatInventory);
+        ReflectionTestUtils.setField(trainService, "stationArrivalIndex", new StationArrivalIndex());
+        ConnectionIndex connectionIndex = new ConnectionIndex();
+        ReflectionTestUtils.setField(trainService, "connectionIndex", connectionIndex);
+        ReflectionTestUtils.setField(trainService, "trainCache", trainCache);
+        ReflectionTestUtils.setField(trainService, "passengerStatistics", passengerStatistics);
+
+        ReflectionTestUtils.setField(journeyService, "connectionIndex", connectionIndex);
+        ReflectionTestUtils.setField(journeyService, "trainRepository", trainRepository);
+        ReflectionTestUtils.setField(journeyService, "trainCache", trainCache);
+        ReflectionTestUtils.setField(journeyService, "seatInventory", seatInventory);
+        //one set of locks, the reads and the bookings of a train have to share it
+        BookingLocks bookingLocks = new BookingLocks();
+        ReflectionTestUtils.setField(trainService, "bookingLocks", bookingLocks);
+        ReflectionTestUtils.setField(journeyService, "bookingLocks", bookingLocks);
+
+        ReflectionTestUtils.setField(ticketService, "ticketRepository", ticketRepository);
+        ReflectionTestUtils.setField(ticketService, "trainRepository", trainRepository);
+        ReflectionTestUtils.setField(ticketService, "passengerRepository", passengerRepository);
+        ReflectionTestUtils.setField(ticketService, "seatInventory", seatInventory);
+        ReflectionTestUtils.setField(ticketService, "trainCache", trainCache);
+        ReflectionTestUtils.setField(ticketService, "passengerStatistics", passengerStatistics);
+        ReflectionTestUtils.setField(ticketService, "bookingLocks", bookingLocks);
+        ReflectionTestUtils.setField(ticketService, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(ticketService, "bookingMetrics", new BookingMetrics(new SimpleMeterRegistry()));
+        bookingSequencer = new BookingSequencer(mode, 8, 1024, 64);
+        ReflectionTestUtils.setField(ticketService, "bookingSequencer", bookingSequencer);
+        ReflectionTestUtils.setField(ticketService, "bookingJournal", bookingJournal);
+        FareTables fareTables = new FareTables();
+        ReflectionTestUtils.setField(fareTables, "fareRules", FareRules.flat(300));
+        ReflectionTestUtils.setField(fareTables, "trainCache", trainCache);
+        ReflectionTestUtils.setField(ticketService, "fareEngine", fareTables);
+        ticketService.startSequencer();
+
+        for (int i = 0; i < PASSENGERS; i++) {
+            passengerIds.add(passengerRepository.save(new Passenger(0, "P" + i, 1 + random.nextInt(90), new ArrayList<>())).getPassengerId());
+        }
+        Station[] stations = Station.values();
+        for (int i = 0; i < trains; i++) {
+            List<Station> route = new ArrayList<>();
+            for (int j = 0; j < routeLength; j++) {
+                route.add(stations[(i + j) % stations.length]);
+            }
+            //the train reaches its last station the same day
+            LocalTime departureTime = LocalTime.of(random.nextInt(24 - routeLength + 1), random.nextInt(60));
+            trainIds.add(trainService.addTrain(new AddTrainEntryDto(route, departureTime, capacity)));
+        }
+        for (int trainId : trainIds) {
+            for (int i = 0; i < ticketsPerTrain; i++) {
+                ticketService.bookTicket(randomBooking(random, trainId));
+            }
+        }
+    }
+
+    int randomTrain(Random random) {
+        return trainIds.get(random.nextInt(trainIds.size()));
+    }
+
+    //from a random station of the train's route to a later one, for one to three passengers
+    BookTicketEntryDto randomBooking(Random random, int trainId) {
+        int from = random.nextInt(routeLength - 1);
+        int to = from + 1 + random.nextInt(routeLength - from - 1);
+        List<Integer> ids = new ArrayList<>();
+        int seats = 1 + random.nextInt(3);
+        int first = random.nextInt(passengerIds.size() - seats);
+        for (int i = 0; i < seats; i++) {
+            ids.add(passengerIds.get(first + i));
+        }
+        return new BookTicketEntryDto(ids, trainId, stationOf(trainId, from), stationOf(trainId, to), seats, ids.get(0));
+    }
+
+    Station stationOf(int trainId, int position) {
+        return trainRepository.getOne(trainId).getRoute().stationAt(position);
+    }
+}
@@ -0,0 +1,63 @@
+package com.driver.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TicketService.bookTicket on a fixture rebuilt every iteration, every booking adds a
+ * ticket so the stores would otherwise keep growing over the run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TicketServiceBenchmark {
+
+    @Param({"10", "1000"})
+    int trains;
+
+    @Param({"10", "1000"})
+    int ticketsPerTrain;
+
+    @Param({"4", "12"})
+    int routeLength;
+
+    ServiceFixture fixture;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        fixture = new ServiceFixture(trains, ticketsPerTrain, routeLength);
+    }
+
+    @State(Scope.Thread)
+    public static class Bookings {
+
+        final Random random = new Random(11);
+    }
+
+    //once a train is full its bookings are turned down, which is part of what gets measured
+    @Benchmark
+    public Integer bookTicket(Bookings bookings) {
+        int trainId = fixture.randomTrain(bookings.random);
+        try {
+            return fixture.ticketService.bookTicket(fixture.randomBooking(bookings.random, trainId));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.driver.benchmark;
+
+import com.driver.EntryDto.SeatAvailabilityEntryDto;
+import com.driver.ResponseDto.JourneyDto;
+import com.driver.model.Station;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read side of TrainService on a fixture built once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TrainServiceBenchmark {
+
+    @Param({"10", "1000"})
+    int trains;
+
+    @Param({"10", "1000"})
+    int ticketsPerTrain;
+
+    @Param({"4", "12"})
+    int routeLength;
+
+    ServiceFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new ServiceFixture(trains, ticketsPerTrain, routeLength);
+    }
+
+    @State(Scope.Thread)
+    public static class Queries {
+
+        final Random random = new Random(7);
+    }
+
+    @Benchmark
+    public Integer calculateAvailableSeats(Queries queries) {
+        int trainId = fixture.randomTrain(queries.random);
+        int from = queries.random.nextInt(routeLength - 1);
+        int to = from + 1 + queries.random.nextInt(routeLength - from - 1);
+        return fixture.trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(trainId,
+                fixture.stationOf(trainId, from), fixture.stationOf(trainId, to)));
+    }
+
+    @Benchmark
+    public Integer calculatePeopleBoardingAtAStation(Queries queries) throws Exception {
+        int trainId = fixture.randomTrain(queries.random);
+        return fixture.trainService.calculatePeopleBoardingAtAStation(trainId,
+                fixture.stationOf(trainId, queries.random.nextInt(routeLength)));
+    }
+
+    @Benchmark
+    public Integer calculateOldestPersonTravelling(Queries queries) {
+        return fixture.trainService.calculateOldestPersonTravelling(fixture.randomTrain(queries.random));
+    }
+
+    @Benchmark
+    public List<Integer> trainsBetweenAGivenTime(Queries queries) {
+        Station station = Station.values()[queries.random.nextInt(Station.values().length)];
+        LocalTime start = LocalTime.of(queries.random.nextInt(22), 0);
+        return fixture.trainService.trainsBetweenAGivenTime(station, start, start.plusHours(2));
+    }
+
+    @Benchmark
+    public List<JourneyDto> earliestJourneys(Queries queries) {
+        Station[] stations = Station.values();
+        return fixture.journeyService.earliestJourneys(stations[queries.random.nextInt(stations.length)],
+                stations[queries.random.nextInt(stations.length)], LocalTime.of(queries.random.nextInt(12), 0), 1);
+    }
+}
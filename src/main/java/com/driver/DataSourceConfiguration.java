@@ -0,0 +1,107 @@
+package com.driver;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.schema.spi.SchemaManagementToolCoordinator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//With irctc.datasource.replica.urls set, read-only transactions are served by the replicas
+//and the primary pool is left to the writes. With irctc.shard.urls set, the trains and their
+//tickets are spread over those databases instead. Every replica and every shard gets its own pool.
+@Configuration
+public class DataSourceConfiguration {
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(prefix = "irctc.datasource.replica", name = "urls")
+    public ReplicaRoutingDataSource dataSource(DataSourceProperties properties, Environment environment,
+                                               @Value("${irctc.datasource.replica.urls}") List<String> urls,
+                                               @Value("${irctc.datasource.replica.username:}") String username,
+                                               @Value("${irctc.datasource.replica.password:}") String password,
+                                               @Value("${irctc.datasource.replica.maximum-pool-size:10}") int maximumPoolSize,
+                                               @Value("${irctc.datasource.replica.max-lag-millis:2000}") long maxLagMillis,
+                                               @Value("${irctc.datasource.replica.heartbeat-millis:500}") long heartbeatMillis) {
+        if (!environment.getProperty("irctc.shard.urls", "").isEmpty()) {
+            throw new IllegalStateException("Replicas can't be combined with irctc.shard.urls");
+        }
+        //the primary pool is set up the way Spring Boot would, spring.datasource.hikari.* included
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+        primary.setPoolName("primary");
+
+        List<DataSource> replicas = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource replica = pool("replica-" + i, urls.get(i), username, password, maximumPoolSize, properties);
+            replica.setReadOnly(true);
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primary, replicas, maxLagMillis, heartbeatMillis);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(prefix = "irctc.shard", name = "urls")
+    public ShardedDataSource shardedDataSource(DataSourceProperties properties,
+                                               @Value("${irctc.shard.urls}") List<String> urls,
+                                               @Value("${irctc.shard.username:}") String username,
+                                               @Value("${irctc.shard.password:}") String password,
+                                               @Value("${irctc.shard.maximum-pool-size:10}") int maximumPoolSize) {
+        List<DataSource> shards = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            shards.add(pool("shard-" + i, urls.get(i), username, password, maximumPoolSize, properties));
+        }
+        return new ShardedDataSource(shards);
+    }
+
+    //Hibernate creates or updates the schema of the database it connects to first, shard 0,
+    //this does the same on the other shards
+    @Bean
+    @ConditionalOnProperty(prefix = "irctc.shard", name = "urls")
+    public HibernatePropertiesCustomizer shardSchemas() {
+        Integrator integrator = new Integrator() {
+            @Override
+            public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+                for (int shard = 1; shard < ShardedDataSource.shards(); shard++) {
+                    ShardedDataSource.on(shard, () -> {
+                        //dropping them on shutdown too is left to create-drop on shard 0
+                        SchemaManagementToolCoordinator.process(metadata, serviceRegistry, sessionFactory.getProperties(), action -> { });
+                        return null;
+                    });
+                }
+            }
+
+            @Override
+            public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+            }
+        };
+        return properties -> properties.put("hibernate.integrator_provider",
+                (IntegratorProvider) () -> Collections.singletonList(integrator));
+    }
+
+    //A pool of its own, with the primary's credentials unless it has its own
+    private static HikariDataSource pool(String name, String url, String username, String password,
+                                         int maximumPoolSize, DataSourceProperties properties) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setPoolName(name);
+        pool.setJdbcUrl(url);
+        pool.setUsername(username.isEmpty() ? properties.determineUsername() : username);
+        pool.setPassword(username.isEmpty() ? properties.determinePassword() : password);
+        pool.setMaximumPoolSize(maximumPoolSize);
+        return pool;
+    }
+}
@@ -1,7 +1,10 @@
 package com.driver.EntryDto;
 
 
+import com.driver.model.Quota;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.driver.model.Station;
+import com.driver.model.TravelClass;
 
 import java.util.List;
 
@@ -21,6 +24,15 @@ public class BookTicketEntryDto {
 
     private int noOfSeats;
 
+    //GENERAL when left out
+    private TravelClass travelClass;
+
+    private Quota quota;
+
+    //From the Idempotency-Key header of /ticket/book, never read from the body
+    @JsonIgnore
+    private String idempotencyKey;
+
     public BookTicketEntryDto(List<Integer> passengerIds, Integer trainId, Station fromStation, Station toStation,int noOfSeats,Integer bookingPersonId) {
         this.passengerIds = passengerIds;
         this.trainId = trainId;
@@ -80,4 +92,28 @@ public class BookTicketEntryDto {
     public void setBookingPersonId(Integer bookingPersonId) {
         this.bookingPersonId = bookingPersonId;
     }
+
+    public TravelClass getTravelClass() {
+        return travelClass;
+    }
+
+    public void setTravelClass(TravelClass travelClass) {
+        this.travelClass = travelClass;
+    }
+
+    public Quota getQuota() {
+        return quota;
+    }
+
+    public void setQuota(Quota quota) {
+        this.quota = quota;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
 }
@@ -0,0 +1,96 @@
+package com.driver.EntryDto;
+
+import com.driver.model.Quota;
+import com.driver.model.Station;
+import com.driver.model.TravelClass;
+
+import java.util.List;
+
+public class FareQuoteEntryDto {
+
+    private Integer trainId;
+
+    private Station fromStation;
+
+    private Station toStation;
+
+    //One seat per age; without ages, noOfSeats adult seats
+    private List<Integer> ages;
+
+    private int noOfSeats;
+
+    //GENERAL when left out, like a booking
+    private TravelClass travelClass;
+
+    private Quota quota;
+
+    public FareQuoteEntryDto() {
+    }
+
+    public FareQuoteEntryDto(Integer trainId, Station fromStation, Station toStation, List<Integer> ages, int noOfSeats,
+                             TravelClass travelClass, Quota quota) {
+        this.trainId = trainId;
+        this.fromStation = fromStation;
+        this.toStation = toStation;
+        this.ages = ages;
+        this.noOfSeats = noOfSeats;
+        this.travelClass = travelClass;
+        this.quota = quota;
+    }
+
+    public Integer getTrainId() {
+        return trainId;
+    }
+
+    public void setTrainId(Integer trainId) {
+        this.trainId = trainId;
+    }
+
+    public Station getFromStation() {
+        return fromStation;
+    }
+
+    public void setFromStation(Station fromStation) {
+        this.fromStation = fromStation;
+    }
+
+    public Station getToStation() {
+        return toStation;
+    }
+
+    public void setToStation(Station toStation) {
+        this.toStation = toStation;
+    }
+
+    public List<Integer> getAges() {
+        return ages;
+    }
+
+    public void setAges(List<Integer> ages) {
+        this.ages = ages;
+    }
+
+    public int getNoOfSeats() {
+        return noOfSeats;
+    }
+
+    public void setNoOfSeats(int noOfSeats) {
+        this.noOfSeats = noOfSeats;
+    }
+
+    public TravelClass getTravelClass() {
+        return travelClass;
+    }
+
+    public void setTravelClass(TravelClass travelClass) {
+        this.travelClass = travelClass;
+    }
+
+    public Quota getQuota() {
+        return quota;
+    }
+
+    public void setQuota(Quota quota) {
+        this.quota = quota;
+    }
+}
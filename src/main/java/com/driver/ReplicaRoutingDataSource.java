@@ -0,0 +1,175 @@
+package com.driver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Sends the connections of read-only transactions to the replicas, round robin, and
+ * everything else to the primary. A replica is only used while it is at most maxLagMillis
+ * behind: the primary writes the time into a heartbeat row every heartbeatMillis and a
+ * replica's lag is how old the row it has is. Reads go to the primary when no replica is
+ * close enough, or none can be reached.
+ *
+ * Connections are lazy proxies, the real one is picked when the first statement runs and
+ * the transaction is already known to be read-only. The data source owns the pools and
+ * closes them on stop.
+ */
+public class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private static final String PRIMARY = "primary";
+
+    private static final ThreadLocal<Boolean> PINNED = new ThreadLocal<>();
+
+    private final DataSource primary;
+
+    private final List<DataSource> replicas;
+
+    private final long maxLagMillis;
+
+    private final long heartbeatMillis;
+
+    //indexes of the replicas close enough to the primary, replaced as a whole by every check
+    private volatile int[] usable = new int[0];
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private ScheduledExecutorService heartbeat;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, long maxLagMillis, long heartbeatMillis) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.maxLagMillis = maxLagMillis;
+        this.heartbeatMillis = heartbeatMillis;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            targets.put(i, replicas.get(i));
+        }
+        AbstractRoutingDataSource router = new AbstractRoutingDataSource() {
+            @Override
+            protected Object determineCurrentLookupKey() {
+                return route();
+            }
+        };
+        router.setTargetDataSources(targets);
+        router.setDefaultTargetDataSource(primary);
+        router.afterPropertiesSet();
+        setTargetDataSource(router);
+    }
+
+    //Runs the reads on the primary whatever the transaction, for the in-memory state that is
+    //loaded once and then kept up to date by the bookings: started from a replica that is
+    //behind, it would stay wrong. It has to come before the transaction's first statement,
+    //a transaction keeps the connection it started with.
+    public static <T> T onPrimary(Supplier<T> reads) {
+        if (Boolean.TRUE.equals(PINNED.get())) {
+            return reads.get();
+        }
+        PINNED.set(true);
+        try {
+            return reads.get();
+        } finally {
+            PINNED.remove();
+        }
+    }
+
+    private Object route() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || Boolean.TRUE.equals(PINNED.get())) {
+            return PRIMARY;
+        }
+        int[] usable = this.usable;
+        if (usable.length == 0) {
+            return PRIMARY;
+        }
+        return usable[Math.floorMod(next.getAndIncrement(), usable.length)];
+    }
+
+    public synchronized void start() {
+        new JdbcTemplate(primary).execute("create table if not exists replica_heartbeat (id int primary key, beat bigint not null)");
+        if (heartbeat != null) {
+            return;
+        }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(() -> {
+            beat();
+            checkReplicas();
+        }, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+        List<DataSource> pools = new ArrayList<>(replicas);
+        pools.add(primary);
+        for (DataSource pool : pools) {
+            if (pool instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) pool).close();
+                } catch (Exception e) {
+                    log.warn("Could not close a connection pool", e);
+                }
+            }
+        }
+    }
+
+    public int usableReplicas() {
+        return usable.length;
+    }
+
+    private void beat() {
+        JdbcTemplate jdbc = new JdbcTemplate(primary);
+        long now = System.currentTimeMillis();
+        try {
+            if (jdbc.update("update replica_heartbeat set beat = ? where id = 1", now) == 0) {
+                jdbc.update("insert into replica_heartbeat (id, beat) values (1, ?)", now);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Could not write the replica heartbeat", e);
+        }
+    }
+
+    //Works out which replicas are close enough to the primary to read from
+    public void checkReplicas() {
+        List<Integer> close = new ArrayList<>();
+        for (int i = 0; i < replicas.size(); i++) {
+            try {
+                Long beat = new JdbcTemplate(replicas.get(i)).queryForObject("select beat from replica_heartbeat where id = 1", Long.class);
+                if (beat != null && System.currentTimeMillis() - beat <= maxLagMillis) {
+                    close.add(i);
+                }
+            } catch (DataAccessException e) {
+                //not replicated yet or not reachable, either way not one to read from
+            }
+        }
+        int[] checked = close.stream().mapToInt(Integer::intValue).toArray();
+        if (!Arrays.equals(checked, usable)) {
+            log.info("Reading from {} of {} replicas", checked.length, replicas.size());
+        }
+        usable = checked;
+    }
+}
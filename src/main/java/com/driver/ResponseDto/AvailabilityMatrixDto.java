@@ -0,0 +1,67 @@
+package com.driver.ResponseDto;
+
+import com.driver.model.Station;
+
+import java.util.List;
+
+public class AvailabilityMatrixDto {
+
+    private int trainId;
+
+    //Changes with every booking, cancellation or hold on the train
+    private long version;
+
+    private List<Station> stations;
+
+    //Seats available from stations[i] to stations[j] for every i<j, the upper triangle row by
+    //row: the pair (i,j) is at i*(2*n-i-1)/2 + j-i-1 where n is the number of stations
+    private int[] available;
+
+    public AvailabilityMatrixDto() {
+    }
+
+    public AvailabilityMatrixDto(int trainId, long version, List<Station> stations, int[] available) {
+        this.trainId = trainId;
+        this.version = version;
+        this.stations = stations;
+        this.available = available;
+    }
+
+    public int getTrainId() {
+        return trainId;
+    }
+
+    public void setTrainId(int trainId) {
+        this.trainId = trainId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public List<Station> getStations() {
+        return stations;
+    }
+
+    public void setStations(List<Station> stations) {
+        this.stations = stations;
+    }
+
+    public int[] getAvailable() {
+        return available;
+    }
+
+    public void setAvailable(int[] available) {
+        this.available = available;
+    }
+
+    //Seats available from the station at position from to the one at position to
+    public int availableBetween(int from, int to) {
+        int n = stations.size();
+        return available[from * (2 * n - from - 1) / 2 + to - from - 1];
+    }
+}
@@ -0,0 +1,59 @@
+package com.driver.ResponseDto;
+
+public class BookingResultDto {
+
+    //Set when the booking went through
+    private Integer ticketId;
+
+    //Set when it didn't, eg. "Less tickets are available" or "Invalid stations"
+    private String failureReason;
+
+    //Set when it was put on the train's waitlist instead
+    private Integer waitlistId;
+
+    public BookingResultDto() {
+    }
+
+    public BookingResultDto(Integer ticketId, String failureReason) {
+        this.ticketId = ticketId;
+        this.failureReason = failureReason;
+    }
+
+    public static BookingResultDto booked(Integer ticketId) {
+        return new BookingResultDto(ticketId, null);
+    }
+
+    public static BookingResultDto failed(String failureReason) {
+        return new BookingResultDto(null, failureReason);
+    }
+
+    public static BookingResultDto waitlisted(Integer waitlistId) {
+        BookingResultDto result = new BookingResultDto();
+        result.setWaitlistId(waitlistId);
+        return result;
+    }
+
+    public Integer getTicketId() {
+        return ticketId;
+    }
+
+    public void setTicketId(Integer ticketId) {
+        this.ticketId = ticketId;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    public void setFailureReason(String failureReason) {
+        this.failureReason = failureReason;
+    }
+
+    public Integer getWaitlistId() {
+        return waitlistId;
+    }
+
+    public void setWaitlistId(Integer waitlistId) {
+        this.waitlistId = waitlistId;
+    }
+}
@@ -0,0 +1,41 @@
+package com.driver.ResponseDto;
+
+public class FareQuoteDto {
+
+    //Set when the journey could be priced
+    private Integer fare;
+
+    //Set when it couldn't, eg. "Invalid stations"
+    private String failureReason;
+
+    public FareQuoteDto() {
+    }
+
+    public static FareQuoteDto quoted(int fare) {
+        FareQuoteDto quote = new FareQuoteDto();
+        quote.setFare(fare);
+        return quote;
+    }
+
+    public static FareQuoteDto failed(String failureReason) {
+        FareQuoteDto quote = new FareQuoteDto();
+        quote.setFailureReason(failureReason);
+        return quote;
+    }
+
+    public Integer getFare() {
+        return fare;
+    }
+
+    public void setFare(Integer fare) {
+        this.fare = fare;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    public void setFailureReason(String failureReason) {
+        this.failureReason = failureReason;
+    }
+}
@@ -0,0 +1,73 @@
+package com.driver.ResponseDto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ImportResultDto {
+
+    private long imported;
+
+    private long rejected;
+
+    //Rows saved on shard 0 but missing on some other shard, tickets there can't refer to them yet
+    private long notCopied;
+
+    //Why rows were rejected, by line number, and which copies to other shards failed,
+    //only the first ones are kept
+    private List<String> errors = new ArrayList<>();
+
+    private double seconds;
+
+    private double rowsPerSecond;
+
+    public ImportResultDto() {
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public void setImported(long imported) {
+        this.imported = imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+    public long getNotCopied() {
+        return notCopied;
+    }
+
+    public void setNotCopied(long notCopied) {
+        this.notCopied = notCopied;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+
+    public double getSeconds() {
+        return seconds;
+    }
+
+    public void setSeconds(double seconds) {
+        this.seconds = seconds;
+    }
+
+    public double getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    public void setRowsPerSecond(double rowsPerSecond) {
+        this.rowsPerSecond = rowsPerSecond;
+    }
+}
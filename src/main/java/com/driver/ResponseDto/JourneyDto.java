@@ -0,0 +1,58 @@
+package com.driver.ResponseDto;
+
+import java.time.LocalTime;
+import java.util.List;
+
+public class JourneyDto {
+
+    private LocalTime departureTime;
+
+    private LocalTime arrivalTime;
+
+    //0 for a direct train, 1 when it takes two trains
+    private int transfers;
+
+    private List<JourneyLegDto> legs;
+
+    public JourneyDto() {
+    }
+
+    public JourneyDto(List<JourneyLegDto> legs) {
+        this.legs = legs;
+        this.transfers = legs.size() - 1;
+        this.departureTime = legs.get(0).getDepartureTime();
+        this.arrivalTime = legs.get(legs.size() - 1).getArrivalTime();
+    }
+
+    public LocalTime getDepartureTime() {
+        return departureTime;
+    }
+
+    public void setDepartureTime(LocalTime departureTime) {
+        this.departureTime = departureTime;
+    }
+
+    public LocalTime getArrivalTime() {
+        return arrivalTime;
+    }
+
+    public void setArrivalTime(LocalTime arrivalTime) {
+        this.arrivalTime = arrivalTime;
+    }
+
+    public int getTransfers() {
+        return transfers;
+    }
+
+    public void setTransfers(int transfers) {
+        this.transfers = transfers;
+    }
+
+    public List<JourneyLegDto> getLegs() {
+        return legs;
+    }
+
+    public void setLegs(List<JourneyLegDto> legs) {
+        this.legs = legs;
+    }
+}
@@ -0,0 +1,69 @@
+package com.driver.ResponseDto;
+
+import com.driver.model.Station;
+
+import java.time.LocalTime;
+
+public class JourneyLegDto {
+
+    private int trainId;
+
+    private Station fromStation;
+
+    private Station toStation;
+
+    private LocalTime departureTime;
+
+    private LocalTime arrivalTime;
+
+    public JourneyLegDto() {
+    }
+
+    public JourneyLegDto(int trainId, Station fromStation, Station toStation, LocalTime departureTime, LocalTime arrivalTime) {
+        this.trainId = trainId;
+        this.fromStation = fromStation;
+        this.toStation = toStation;
+        this.departureTime = departureTime;
+        this.arrivalTime = arrivalTime;
+    }
+
+    public int getTrainId() {
+        return trainId;
+    }
+
+    public void setTrainId(int trainId) {
+        this.trainId = trainId;
+    }
+
+    public Station getFromStation() {
+        return fromStation;
+    }
+
+    public void setFromStation(Station fromStation) {
+        this.fromStation = fromStation;
+    }
+
+    public Station getToStation() {
+        return toStation;
+    }
+
+    public void setToStation(Station toStation) {
+        this.toStation = toStation;
+    }
+
+    public LocalTime getDepartureTime() {
+        return departureTime;
+    }
+
+    public void setDepartureTime(LocalTime departureTime) {
+        this.departureTime = departureTime;
+    }
+
+    public LocalTime getArrivalTime() {
+        return arrivalTime;
+    }
+
+    public void setArrivalTime(LocalTime arrivalTime) {
+        this.arrivalTime = arrivalTime;
+    }
+}
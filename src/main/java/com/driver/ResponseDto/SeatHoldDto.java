@@ -0,0 +1,64 @@
+package com.driver.ResponseDto;
+
+public class SeatHoldDto {
+
+    //Set when the seats are held, to confirm or release them with
+    private Long holdId;
+
+    private int[] seatNumbers;
+
+    //Epoch millis after which the seats are given back
+    private Long expiresAt;
+
+    //Set when they couldn't be held, eg. "Less tickets are available"
+    private String failureReason;
+
+    public SeatHoldDto() {
+    }
+
+    public static SeatHoldDto held(long holdId, int[] seatNumbers, long expiresAt) {
+        SeatHoldDto hold = new SeatHoldDto();
+        hold.setHoldId(holdId);
+        hold.setSeatNumbers(seatNumbers);
+        hold.setExpiresAt(expiresAt);
+        return hold;
+    }
+
+    public static SeatHoldDto failed(String failureReason) {
+        SeatHoldDto hold = new SeatHoldDto();
+        hold.setFailureReason(failureReason);
+        return hold;
+    }
+
+    public Long getHoldId() {
+        return holdId;
+    }
+
+    public void setHoldId(Long holdId) {
+        this.holdId = holdId;
+    }
+
+    public int[] getSeatNumbers() {
+        return seatNumbers;
+    }
+
+    public void setSeatNumbers(int[] seatNumbers) {
+        this.seatNumbers = seatNumbers;
+    }
+
+    public Long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    public void setFailureReason(String failureReason) {
+        this.failureReason = failureReason;
+    }
+}
@@ -0,0 +1,172 @@
+package com.driver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Spreads the trains over several databases. A train, its tickets, its waitlist and the
+ * idempotency keys of its bookings all live on shard trainId mod shards. Ids are minted
+ * by {@link com.driver.model.ShardedSequenceGenerator} so that they fall on the shard they
+ * were created on, which makes a ticket's or a waitlist entry's shard follow from its id
+ * too, without a directory. Passengers are on every shard, the tickets of any train can
+ * refer to them.
+ *
+ * The shard is a thread's to choose with {@link #on}, shard 0 when it hasn't. Connections
+ * are lazy like in {@link ReplicaRoutingDataSource}, so a transaction runs on the shard that
+ * was chosen when its first statement ran and stays there. Without sharding configured
+ * there is one shard and all of this reduces to running the work as it is.
+ */
+public class ShardedDataSource extends LazyConnectionDataSourceProxy {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedDataSource.class);
+
+    private static final ThreadLocal<Integer> SHARD = new ThreadLocal<>();
+
+    private static volatile int shards = 1;
+
+    private static volatile ExecutorService fanOut;
+
+    private static final AtomicInteger nextShard = new AtomicInteger();
+
+    private final List<DataSource> targets;
+
+    public ShardedDataSource(List<DataSource> targets) {
+        this.targets = targets;
+        Map<Object, Object> byShard = new HashMap<>();
+        for (int i = 0; i < targets.size(); i++) {
+            byShard.put(i, targets.get(i));
+        }
+        AbstractRoutingDataSource router = new AbstractRoutingDataSource() {
+            @Override
+            protected Object determineCurrentLookupKey() {
+                return currentShard();
+            }
+        };
+        router.setTargetDataSources(byShard);
+        router.setDefaultTargetDataSource(targets.get(0));
+        router.afterPropertiesSet();
+        setTargetDataSource(router);
+        shards = targets.size();
+    }
+
+    public static int shards() {
+        return shards;
+    }
+
+    //The shard of a train, or of a ticket or waitlist entry by its own id
+    public static int shardOf(int id) {
+        return Math.floorMod(id, shards);
+    }
+
+    public static int currentShard() {
+        Integer shard = SHARD.get();
+        return shard == null ? 0 : shard;
+    }
+
+    //Where the next new train goes, trains are dealt out to the shards in turn
+    public static int nextShard() {
+        return Math.floorMod(nextShard.getAndIncrement(), shards);
+    }
+
+    //Runs the work on the shard. A transaction that has already run a statement stays on its
+    //shard, so work for another shard needs a transaction of its own.
+    public static <T> T on(int shard, Supplier<T> work) {
+        Integer previous = SHARD.get();
+        if (previous != null && previous == shard) {
+            return work.get();
+        }
+        SHARD.set(shard);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                SHARD.remove();
+            } else {
+                SHARD.set(previous);
+            }
+        }
+    }
+
+    //Runs the reads on every shard at once, the results come in shard order
+    public static <T> List<T> fanOut(Supplier<T> reads) {
+        ExecutorService executor = fanOut;
+        if (shards == 1 || executor == null) {
+            List<T> results = new ArrayList<>();
+            for (int shard = 0; shard < shards; shard++) {
+                results.add(on(shard, reads));
+            }
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            int on = shard;
+            futures.add(executor.submit(() -> on(on, reads)));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted reading the shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    //The rows of every shard together
+    public static <T> List<T> fanOutAndMerge(Supplier<? extends Collection<? extends T>> reads) {
+        List<T> merged = new ArrayList<>();
+        for (Collection<? extends T> rows : fanOut(reads)) {
+            merged.addAll(rows);
+        }
+        return merged;
+    }
+
+    public synchronized void start() {
+        if (fanOut == null && targets.size() > 1) {
+            fanOut = Executors.newFixedThreadPool(targets.size(), runnable -> {
+                Thread thread = new Thread(runnable, "shard-fan-out");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public synchronized void stop() {
+        if (fanOut != null) {
+            fanOut.shutdownNow();
+            fanOut = null;
+        }
+        for (DataSource target : targets) {
+            if (target instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) target).close();
+                } catch (Exception e) {
+                    log.warn("Could not close a shard's connection pool", e);
+                }
+            }
+        }
+        shards = 1;
+    }
+}
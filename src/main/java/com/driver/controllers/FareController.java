@@ -0,0 +1,27 @@
+package com.driver.controllers;
+
+import com.driver.EntryDto.FareQuoteEntryDto;
+import com.driver.ResponseDto.FareQuoteDto;
+import com.driver.services.FareService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/fare")
+public class FareController {
+
+    @Autowired
+    FareService fareService;
+
+    @PostMapping("/quote-batch")
+    public List<FareQuoteDto> quoteBatch(@RequestBody List<FareQuoteEntryDto> fareQuoteEntryDtos){
+
+        //Every journey gets its own quote, or why it couldn't be priced
+        return fareService.quoteBatch(fareQuoteEntryDtos);
+    }
+}
@@ -0,0 +1,34 @@
+package com.driver.controllers;
+
+import com.driver.ResponseDto.ImportResultDto;
+import com.driver.services.BulkImportService;
+import com.driver.services.DataFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/import")
+public class ImportController {
+
+    @Autowired
+    BulkImportService bulkImportService;
+
+    //The request body is read as it arrives, send it as is rather than as a form upload
+    @PostMapping("/trains")
+    public ImportResultDto importTrains(InputStream body,
+                                       @RequestParam(value = "format", defaultValue = "CSV") DataFormat format) throws IOException {
+        return bulkImportService.importTrains(body, format);
+    }
+
+    @PostMapping("/passengers")
+    public ImportResultDto importPassengers(InputStream body,
+                                           @RequestParam(value = "format", defaultValue = "CSV") DataFormat format) throws IOException {
+        return bulkImportService.importPassengers(body, format);
+    }
+}
@@ -0,0 +1,31 @@
+package com.driver.controllers;
+
+import com.driver.ResponseDto.JourneyDto;
+import com.driver.model.Station;
+import com.driver.services.JourneyService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalTime;
+import java.util.List;
+
+@RestController
+@RequestMapping("/journey")
+public class JourneyController {
+
+    @Autowired
+    JourneyService journeyService;
+
+    @GetMapping("/search")
+    public List<JourneyDto> searchJourneys(@RequestParam("fromStation") Station fromStation,
+                                           @RequestParam("toStation") Station toStation,
+                                           @RequestParam("after") LocalTime after,
+                                           @RequestParam(value = "seats", defaultValue = "0") int seats){
+
+        //Direct trains first unless changing once gets there earlier, seats=0 ignores availability
+        return journeyService.earliestJourneys(fromStation, toStation, after, seats);
+    }
+}
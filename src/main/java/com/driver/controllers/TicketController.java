@@ -2,13 +2,27 @@ package com.driver.controllers;
 
 
 import com.driver.EntryDto.BookTicketEntryDto;
+import com.driver.ResponseDto.BookingResultDto;
+import com.driver.ResponseDto.SeatHoldDto;
+import com.driver.services.AdmissionControl;
 import com.driver.services.TicketService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @RestController
 @RequestMapping("/ticket")
 public class TicketController {
@@ -16,15 +30,122 @@ public class TicketController {
     @Autowired
     TicketService ticketService;
 
+    @Autowired
+    AdmissionControl admissionControl;
+
+    @Value("${irctc.booking.max-batch-size:200}")
+    int maxBatchSize = 200;
+
     @PostMapping("/book")
-    public Integer bookTicket(@RequestBody BookTicketEntryDto bookTicketEntryDto){
+    public ResponseEntity<Integer> bookTicket(@RequestBody BookTicketEntryDto bookTicketEntryDto,
+                                              @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey){
 
+        //Retrying with the same Idempotency-Key returns the ticketId of the first attempt
+        bookTicketEntryDto.setIdempotencyKey(idempotencyKey);
+        //Over the train's or the global limit the request is turned away at once with a 429
+        AdmissionControl.Permit permit = admissionControl.admit(bookTicketEntryDto.getTrainId());
+        if(permit==null){
+            return tooManyRequests();
+        }
         try {
             Integer ticketId = ticketService.bookTicket(bookTicketEntryDto);
-            return ticketId;
+            return ResponseEntity.ok(ticketId);
+        }catch (Exception e) {
+            return ResponseEntity.ok(null);
+        }finally {
+            permit.release();
+        }
+    }
+
+    @PostMapping("/book-batch")
+    public ResponseEntity<List<BookingResultDto>> bookTickets(@RequestBody List<BookTicketEntryDto> bookTicketEntryDtos){
+
+        //Unlike /book, every item reports its own outcome: the ticketId or why it failed.
+        //The batch counts once per item against the limits and needs room on all of its trains,
+        //one bigger than irctc.booking.max-batch-size is turned away with a 413.
+        if(bookTicketEntryDtos.size()>maxBatchSize){
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        List<Integer> trainIds = new ArrayList<>(bookTicketEntryDtos.size());
+        for(BookTicketEntryDto bookTicketEntryDto : bookTicketEntryDtos){
+            trainIds.add(bookTicketEntryDto.getTrainId());
+        }
+        AdmissionControl.Permit permit = admissionControl.admit(trainIds);
+        if(permit==null){
+            return tooManyRequests();
+        }
+        try {
+            return ResponseEntity.ok(ticketService.bookTickets(bookTicketEntryDtos));
+        }finally {
+            permit.release();
+        }
+    }
+
+    @PostMapping("/waitlist")
+    public ResponseEntity<BookingResultDto> waitlistTicket(@RequestBody BookTicketEntryDto bookTicketEntryDto){
+
+        //Books the ticket, or returns a waitlistId if the train is full for the journey
+        AdmissionControl.Permit permit = admissionControl.admit(bookTicketEntryDto.getTrainId());
+        if(permit==null){
+            return tooManyRequests();
+        }
+        try {
+            return ResponseEntity.ok(ticketService.waitlistTicket(bookTicketEntryDto));
+        }catch (RuntimeException e) {
+            return ResponseEntity.ok(BookingResultDto.failed("Booking could not be saved"));
+        }finally {
+            permit.release();
+        }
+    }
+
+    @GetMapping("/waitlist/{waitlistId}")
+    public BookingResultDto waitlistStatus(@PathVariable int waitlistId){
+
+        return ticketService.waitlistStatus(waitlistId);
+    }
+
+    @DeleteMapping("/{ticketId}")
+    public List<Integer> cancelTicket(@PathVariable int ticketId){
+
+        //The ticketIds of the waitlisted bookings that got the freed seats
+        try {
+            return ticketService.cancelTicket(ticketId);
         }catch (Exception e) {
             return null;
         }
     }
 
+    @PostMapping("/hold")
+    public ResponseEntity<SeatHoldDto> holdSeats(@RequestBody BookTicketEntryDto bookTicketEntryDto){
+
+        //Holds the seats for a while without booking them, confirm or release them with the holdId
+        AdmissionControl.Permit permit = admissionControl.admit(bookTicketEntryDto.getTrainId());
+        if(permit==null){
+            return tooManyRequests();
+        }
+        try {
+            return ResponseEntity.ok(ticketService.holdSeats(bookTicketEntryDto));
+        }finally {
+            permit.release();
+        }
+    }
+
+    @PostMapping("/hold/{holdId}/confirm")
+    public BookingResultDto confirmHold(@PathVariable long holdId){
+
+        return ticketService.confirmHold(holdId);
+    }
+
+    @DeleteMapping("/hold/{holdId}")
+    public boolean releaseHold(@PathVariable long holdId){
+
+        return ticketService.releaseHold(holdId);
+    }
+
+    private <T> ResponseEntity<T> tooManyRequests(){
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Integer.toString(admissionControl.getRetryAfterSeconds()))
+                .build();
+    }
+
 }
@@ -2,10 +2,17 @@ package com.driver.controllers;
 
 import com.driver.EntryDto.AddTrainEntryDto;
 import com.driver.EntryDto.SeatAvailabilityEntryDto;
+import com.driver.ResponseDto.AvailabilityMatrixDto;
+import com.driver.ResponseDto.TrainCacheStatsDto;
 import com.driver.model.Station;
+import com.driver.services.DataFormat;
+import com.driver.services.ManifestService;
 import com.driver.services.TrainService;
 import io.swagger.models.auth.In;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -13,9 +20,12 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalTime;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 @RestController
 @RequestMapping("/train")
@@ -24,6 +34,9 @@ public class TrainController {
     @Autowired
     TrainService trainService;
 
+    @Autowired
+    ManifestService manifestService;
+
     @PostMapping("/add")
     public Integer addTrain(@RequestBody AddTrainEntryDto train){
 
@@ -39,6 +52,37 @@ public class TrainController {
         return count;
     }
 
+    @GetMapping("/{trainId}/availability-matrix")
+    public ResponseEntity<AvailabilityMatrixDto> availabilityMatrix(@PathVariable("trainId") int trainId, WebRequest request){
+
+        //The ETag is the inventory version, so a client can keep the matrix until the next
+        //booking on the train and revalidate it with If-None-Match for a 304
+        AvailabilityMatrixDto matrix;
+        try{
+            matrix = trainService.availabilityMatrix(trainId);
+        }catch (NoSuchElementException e){
+            return ResponseEntity.notFound().build();
+        }
+        String eTag = "\"" + matrix.getVersion() + "\"";
+        if(request.checkNotModified(eTag)){
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        return ResponseEntity.ok().eTag(eTag).body(matrix);
+    }
+
+    @GetMapping("/{trainId}/manifest")
+    public ResponseEntity<StreamingResponseBody> manifest(@PathVariable("trainId") int trainId,
+                                                          @RequestParam(value = "format", defaultValue = "CSV") DataFormat format){
+
+        //Streamed off a database cursor as it is written, a train of any size is never held in memory
+        if(!manifestService.trainExists(trainId)){
+            return ResponseEntity.notFound().build();
+        }
+        MediaType type = format==DataFormat.CSV ? new MediaType("text", "csv") : new MediaType("application", "x-ndjson");
+        StreamingResponseBody body = out -> manifestService.writeManifest(trainId, format, out);
+        return ResponseEntity.ok().contentType(type).body(body);
+    }
+
     @GetMapping("/calculate-people-onboarding")
     public Integer calculatePeopleOnBoarding(@RequestParam("trainId")Integer trainId,@RequestParam("station") Station station){
 
@@ -70,4 +114,9 @@ public class TrainController {
 
         return trainService.trainsBetweenAGivenTime(station,startTime,endTime);
     }
+
+    @GetMapping("/cache-stats")
+    public TrainCacheStatsDto getTrainCacheStats(){
+        return trainService.getTrainCacheStats();
+    }
 }
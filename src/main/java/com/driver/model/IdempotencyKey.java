@@ -0,0 +1,65 @@
+package com.driver.model;
+
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+//The ticket a booking sent with an Idempotency-Key header got, written along with the ticket.
+//Rows are only ever inserted, so they tell Spring Data they are new and save doesn't select first.
+//The id is the key scoped to the train, see of.
+@Entity
+@Table(name = "idempotency_key")
+public class IdempotencyKey implements Persistable<String> {
+
+    public static final int MAX_LENGTH = 64;
+
+    //the trainId, a colon and the key
+    @Id
+    @Column(length = MAX_LENGTH + 11)
+    private String idempotencyKey;
+
+    private int ticketId;
+
+    public IdempotencyKey() {
+    }
+
+    public IdempotencyKey(String idempotencyKey, int ticketId) {
+        this.idempotencyKey = idempotencyKey;
+        this.ticketId = ticketId;
+    }
+
+    //A key is the client's for one train: the row lives on that train's shard, where another
+    //shard couldn't see it, and the same key sent for another train is another booking
+    public static String of(int trainId, String key) {
+        return trainId + ":" + key;
+    }
+
+    @Override
+    public String getId() {
+        return idempotencyKey;
+    }
+
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public int getTicketId() {
+        return ticketId;
+    }
+
+    public void setTicketId(int ticketId) {
+        this.ticketId = ticketId;
+    }
+}
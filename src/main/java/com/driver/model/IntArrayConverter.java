@@ -0,0 +1,40 @@
+package com.driver.model;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+//Stores an int array comma separated, eg. the seat numbers of a ticket as "12,13,14"
+@Converter
+public class IntArrayConverter implements AttributeConverter<int[], String> {
+
+    @Override
+    public String convertToDatabaseColumn(int[] values) {
+        if (values == null) {
+            return null;
+        }
+        StringBuilder column = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                column.append(',');
+            }
+            column.append(values[i]);
+        }
+        return column.toString();
+    }
+
+    @Override
+    public int[] convertToEntityAttribute(String column) {
+        if (column == null) {
+            return null;
+        }
+        if (column.isEmpty()) {
+            return new int[0];
+        }
+        String[] parts = column.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
@@ -5,8 +5,8 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
-import javax.persistence.JoinColumn;
 import javax.persistence.ManyToMany;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import java.util.List;
 
@@ -16,7 +16,8 @@ public class Passenger {
 
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "passenger_seq")
+    @SequenceGenerator(name = "passenger_seq", sequenceName = "passenger_seq", allocationSize = 50)
     private int passengerId;
 
     private String name;
@@ -28,8 +29,8 @@ public class Passenger {
     public Passenger() {
     }
 
-    @ManyToMany
-    @JoinColumn
+    //mapped by Ticket.passengersList, so adding a ticket here is never written
+    @ManyToMany(mappedBy = "passengersList")
     private List<Ticket> bookedTickets;
 
     public Passenger(int passengerId, String name, int age, List<Ticket> bookedTickets) {
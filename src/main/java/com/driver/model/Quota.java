@@ -0,0 +1,6 @@
+package com.driver.model;
+
+//Stored by ordinal like Station, new quotas go at the end
+public enum Quota {
+    GENERAL, TATKAL, PREMIUM_TATKAL
+}
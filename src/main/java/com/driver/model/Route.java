@@ -0,0 +1,113 @@
+package com.driver.model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ordered list of stations a train passes through, stored as station ordinals
+ * together with a position lookup indexed by Station.ordinal(), so finding a station
+ * on the route is a single array read instead of parsing the route string.
+ * Instances are immutable.
+ */
+public final class Route implements Serializable {
+
+    private static final Station[] STATIONS = Station.values();
+
+    //the seat map keeps the legs of a seat in one long, so a new route has at most 64 legs
+    public static final int MAX_LEGS = Long.SIZE;
+
+    private final byte[] stations;
+
+    //position of every station on the route indexed by Station.ordinal(), -1 if the train doesn't pass through it
+    private final short[] positions;
+
+    private Route(byte[] stations) {
+        this.stations = stations;
+        this.positions = new short[STATIONS.length];
+        Arrays.fill(positions, (short) -1);
+        for (int i = 0; i < stations.length; i++) {
+            //keep the first occurrence if a station repeats
+            if (positions[stations[i]] == -1) {
+                positions[stations[i]] = (short) i;
+            }
+        }
+    }
+
+    //Throws IllegalArgumentException if the route has more than MAX_LEGS legs
+    public static Route of(List<Station> stationRoute) {
+        if (stationRoute.size() - 1 > MAX_LEGS) {
+            throw new IllegalArgumentException("Route is too long, at most " + MAX_LEGS + " legs");
+        }
+        byte[] stations = new byte[stationRoute.size()];
+        for (int i = 0; i < stations.length; i++) {
+            stations[i] = (byte) stationRoute.get(i).ordinal();
+        }
+        return new Route(stations);
+    }
+
+    //Parses the comma separated form stored in the trains table, eg. "DELHI,AGRA,GWALIOR".
+    //Rows saved before routes were capped can be longer than MAX_LEGS, they still load
+    //so the train can be read, see isBookable()
+    public static Route parse(String route) {
+        if (route == null || route.isEmpty()) {
+            return new Route(new byte[0]);
+        }
+        String[] names = route.split(",");
+        byte[] stations = new byte[names.length];
+        for (int i = 0; i < names.length; i++) {
+            stations[i] = (byte) Station.valueOf(names[i].trim()).ordinal();
+        }
+        return new Route(stations);
+    }
+
+    public int size() {
+        return stations.length;
+    }
+
+    public int legs() {
+        return Math.max(stations.length - 1, 0);
+    }
+
+    //Whether the seat map can hold the route, false only for long routes saved before the cap
+    public boolean isBookable() {
+        return legs() <= MAX_LEGS;
+    }
+
+    public Station stationAt(int position) {
+        return STATIONS[stations[position]];
+    }
+
+    public int positionOf(Station station) {
+        return positions[station.ordinal()];
+    }
+
+    public boolean contains(Station station) {
+        return positions[station.ordinal()] != -1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Route)) return false;
+        return Arrays.equals(stations, ((Route) o).stations);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(stations);
+    }
+
+    //Same comma separated format the route has always been stored in
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < stations.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(STATIONS[stations[i]].name());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,19 @@
+package com.driver.model;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+//Keeps the route column in its existing comma separated form, so no data migration is needed
+@Converter
+public class RouteConverter implements AttributeConverter<Route, String> {
+
+    @Override
+    public String convertToDatabaseColumn(Route route) {
+        return route == null ? null : route.toString();
+    }
+
+    @Override
+    public Route convertToEntityAttribute(String column) {
+        return column == null ? null : Route.parse(column);
+    }
+}
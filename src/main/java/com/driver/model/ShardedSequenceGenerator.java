@@ -0,0 +1,60 @@
+package com.driver.model;
+
+import com.driver.ShardedDataSource;
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.boot.model.relational.Database;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Properties;
+
+//A pooled sequence per shard, the value from the current shard's sequence times the number
+//of shards plus the shard, so ids never clash across shards and id mod shards is where the
+//row is. With a single shard the ids are the sequence's values, as with a plain @SequenceGenerator.
+public class ShardedSequenceGenerator extends SequenceStyleGenerator {
+
+    //the generators of shards 1 and up, shard 0 is this one
+    private SequenceStyleGenerator[] others = new SequenceStyleGenerator[0];
+
+    private int shards = 1;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        super.configure(type, params, serviceRegistry);
+        shards = ShardedDataSource.shards();
+        others = new SequenceStyleGenerator[shards - 1];
+        for (int i = 0; i < others.length; i++) {
+            //same sequence, its own allocation blocks
+            others[i] = new SequenceStyleGenerator();
+            others[i].configure(type, params, serviceRegistry);
+        }
+    }
+
+    @Override
+    public void registerExportables(Database database) {
+        super.registerExportables(database);
+        for (SequenceStyleGenerator other : others) {
+            other.registerExportables(database);
+        }
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) throws HibernateException {
+        int shard = ShardedDataSource.currentShard();
+        Serializable value = shard == 0 ? super.generate(session, object) : others[shard - 1].generate(session, object);
+        if (shards == 1) {
+            return value;
+        }
+        return ((Number) value).intValue() * shards + shard;
+    }
+
+    //inserts selecting from the sequence directly would skip the shard
+    @Override
+    public boolean supportsBulkInsertionIdentifierGeneration() {
+        return false;
+    }
+}
@@ -1,37 +1,59 @@
 package com.driver.model;
 
-import javax.persistence.CascadeType;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.Convert;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
+import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import java.util.List;
 
 @Entity
-@Table(name="ticket")
+@Table(name="ticket", indexes = @Index(name = "idx_ticket_train_from_station", columnList = "train_train_id, fromStation"))
 public class Ticket {
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    //pooled sequence ids so inserts can be JDBC batched, IDENTITY needs a round trip per row
+    @GeneratedValue(generator = "ticket_seq")
+    @GenericGenerator(name = "ticket_seq", strategy = "com.driver.model.ShardedSequenceGenerator", parameters = {
+            @Parameter(name = "sequence_name", value = "ticket_seq"), @Parameter(name = "increment_size", value = "50")})
     private int ticketId;
 
-    //This is also parent wrt to ticketEntity
-    @ManyToMany(mappedBy = "bookedTickets",cascade = CascadeType.ALL)
+    //The ticket owns the passenger-ticket join table: its rows are written with the ticket and
+    //removed with it, a passenger's other tickets are never loaded or rewritten
+    @ManyToMany
+    @JoinTable(name = "passenger_booked_tickets",
+            joinColumns = @JoinColumn(name = "booked_tickets_ticket_id"),
+            inverseJoinColumns = @JoinColumn(name = "passenger_passenger_id"),
+            indexes = @Index(name = "idx_booked_tickets_ticket", columnList = "booked_tickets_ticket_id"))
     private List<Passenger> passengersList;
 
     @ManyToOne
-    @JoinColumn
+    @JoinColumn(name = "train_train_id")
     private Train train;
 
+    //who booked the ticket, who may not be travelling on it. Not loaded unless asked for.
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "booking_person_passenger_id")
+    private Passenger bookingPerson;
+
     private Station fromStation;
 
     private int totalFare;
 
     private Station toStation;
 
+    //one seat per passenger travelling, null for tickets booked before seats were assigned
+    @Convert(converter = IntArrayConverter.class)
+    private int[] seatNumbers;
+
     public Ticket(int ticketId, List<Passenger> passengersList, Train train, Station fromStation, Station toStation,int totalFare) {
         this.ticketId = ticketId;
         this.passengersList = passengersList;
@@ -68,6 +90,14 @@ public class Ticket {
     public Ticket() {
     }
 
+    public int[] getSeatNumbers() {
+        return seatNumbers;
+    }
+
+    public void setSeatNumbers(int[] seatNumbers) {
+        this.seatNumbers = seatNumbers;
+    }
+
     public int getTicketId() {
         return ticketId;
     }
@@ -84,6 +114,14 @@ public class Ticket {
         this.passengersList = passengersList;
     }
 
+    public Passenger getBookingPerson() {
+        return bookingPerson;
+    }
+
+    public void setBookingPerson(Passenger bookingPerson) {
+        this.bookingPerson = bookingPerson;
+    }
+
     public Train getTrain() {
         return train;
     }
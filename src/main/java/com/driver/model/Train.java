@@ -1,10 +1,13 @@
 package com.driver.model;
 
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.CascadeType;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
@@ -17,10 +20,13 @@ import java.util.List;
 public class Train {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "train_seq")
+    @GenericGenerator(name = "train_seq", strategy = "com.driver.model.ShardedSequenceGenerator", parameters = {
+            @Parameter(name = "sequence_name", value = "train_seq"), @Parameter(name = "increment_size", value = "50")})
     private int trainId;
 
-    private String route;
+    @Convert(converter = RouteConverter.class)
+    private Route route;
 
     //Mapping with tickets Entity : parent Entity
     @OneToMany(mappedBy = "train", cascade = CascadeType.ALL)
@@ -34,7 +40,7 @@ public class Train {
     public Train() {
     }
 
-    public Train(int trainId, String route, List<Ticket> bookedTickets, LocalTime departureTime, int noOfSeats) {
+    public Train(int trainId, Route route, List<Ticket> bookedTickets, LocalTime departureTime, int noOfSeats) {
         this.trainId = trainId;
         this.route = route;
         this.bookedTickets = bookedTickets;
@@ -50,11 +56,11 @@ public class Train {
         this.trainId = trainId;
     }
 
-    public String getRoute() {
+    public Route getRoute() {
         return route;
     }
 
-    public void setRoute(String route) {
+    public void setRoute(Route route) {
         this.route = route;
     }
 
@@ -0,0 +1,6 @@
+package com.driver.model;
+
+//Stored by ordinal like Station, new classes go at the end
+public enum TravelClass {
+    GENERAL, SLEEPER, AC_3_TIER, AC_2_TIER, AC_FIRST
+}
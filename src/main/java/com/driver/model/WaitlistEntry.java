@@ -0,0 +1,141 @@
+package com.driver.model;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+//A booking that didn't fit when it was made, waiting for a cancellation to free seats
+@Entity
+@Table(name = "waitlist", indexes = @Index(name = "idx_waitlist_train_ticket", columnList = "train_train_id, ticketId"))
+public class WaitlistEntry {
+
+    //ids are handed out in increasing order, which is the order the waitlist is served in
+    @Id
+    @GeneratedValue(generator = "waitlist_seq")
+    @GenericGenerator(name = "waitlist_seq", strategy = "com.driver.model.ShardedSequenceGenerator", parameters = {
+            @Parameter(name = "sequence_name", value = "waitlist_seq"), @Parameter(name = "increment_size", value = "50")})
+    private int waitlistId;
+
+    @ManyToOne
+    @JoinColumn(name = "train_train_id")
+    private Train train;
+
+    private Station fromStation;
+
+    private Station toStation;
+
+    private int noOfSeats;
+
+    @Convert(converter = IntArrayConverter.class)
+    private int[] passengerIds;
+
+    private int bookingPersonId;
+
+    //what the booking asked for, so the promotion is charged what it was quoted
+    private TravelClass travelClass;
+
+    private Quota quota;
+
+    //the ticket it was promoted to, null while it is still waiting
+    private Integer ticketId;
+
+    public WaitlistEntry() {
+    }
+
+    public WaitlistEntry(Train train, Station fromStation, Station toStation, int noOfSeats, int[] passengerIds, int bookingPersonId) {
+        this.train = train;
+        this.fromStation = fromStation;
+        this.toStation = toStation;
+        this.noOfSeats = noOfSeats;
+        this.passengerIds = passengerIds;
+        this.bookingPersonId = bookingPersonId;
+    }
+
+    public int getWaitlistId() {
+        return waitlistId;
+    }
+
+    public void setWaitlistId(int waitlistId) {
+        this.waitlistId = waitlistId;
+    }
+
+    public Train getTrain() {
+        return train;
+    }
+
+    public void setTrain(Train train) {
+        this.train = train;
+    }
+
+    public Station getFromStation() {
+        return fromStation;
+    }
+
+    public void setFromStation(Station fromStation) {
+        this.fromStation = fromStation;
+    }
+
+    public Station getToStation() {
+        return toStation;
+    }
+
+    public void setToStation(Station toStation) {
+        this.toStation = toStation;
+    }
+
+    public int getNoOfSeats() {
+        return noOfSeats;
+    }
+
+    public void setNoOfSeats(int noOfSeats) {
+        this.noOfSeats = noOfSeats;
+    }
+
+    public int[] getPassengerIds() {
+        return passengerIds;
+    }
+
+    public void setPassengerIds(int[] passengerIds) {
+        this.passengerIds = passengerIds;
+    }
+
+    public int getBookingPersonId() {
+        return bookingPersonId;
+    }
+
+    public void setBookingPersonId(int bookingPersonId) {
+        this.bookingPersonId = bookingPersonId;
+    }
+
+    public Integer getTicketId() {
+        return ticketId;
+    }
+
+    public void setTicketId(Integer ticketId) {
+        this.ticketId = ticketId;
+    }
+
+    public TravelClass getTravelClass() {
+        return travelClass;
+    }
+
+    public void setTravelClass(TravelClass travelClass) {
+        this.travelClass = travelClass;
+    }
+
+    public Quota getQuota() {
+        return quota;
+    }
+
+    public void setQuota(Quota quota) {
+        this.quota = quota;
+    }
+}
@@ -0,0 +1,13 @@
+package com.driver.repository;
+
+import com.driver.model.Station;
+
+//Passengers of a train boarding at one station with one age
+public interface BoardingAgeCount {
+
+    Station getFromStation();
+
+    int getAge();
+
+    long getPassengers();
+}
@@ -0,0 +1,7 @@
+package com.driver.repository;
+
+import com.driver.model.IdempotencyKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey,String> {
+}
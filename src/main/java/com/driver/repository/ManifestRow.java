@@ -0,0 +1,60 @@
+package com.driver.repository;
+
+import com.driver.model.Station;
+
+//One passenger on one ticket of a train, a line of its manifest. A class rather than an
+//interface projection: a million of them are created per manifest and a proxy each is slow.
+public class ManifestRow {
+
+    private final int ticketId;
+
+    private final Station fromStation;
+
+    private final Station toStation;
+
+    private final int[] seatNumbers;
+
+    private final int passengerId;
+
+    private final String name;
+
+    private final int age;
+
+    public ManifestRow(int ticketId, Station fromStation, Station toStation, int[] seatNumbers, int passengerId, String name, int age) {
+        this.ticketId = ticketId;
+        this.fromStation = fromStation;
+        this.toStation = toStation;
+        this.seatNumbers = seatNumbers;
+        this.passengerId = passengerId;
+        this.name = name;
+        this.age = age;
+    }
+
+    public int getTicketId() {
+        return ticketId;
+    }
+
+    public Station getFromStation() {
+        return fromStation;
+    }
+
+    public Station getToStation() {
+        return toStation;
+    }
+
+    public int[] getSeatNumbers() {
+        return seatNumbers;
+    }
+
+    public int getPassengerId() {
+        return passengerId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAge() {
+        return age;
+    }
+}
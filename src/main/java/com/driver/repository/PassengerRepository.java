@@ -4,6 +4,4 @@ import com.driver.model.Passenger;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 public interface PassengerRepository extends JpaRepository<Passenger,Integer> {
-
-    Passenger findByPassenger(int passengerId);
 }
@@ -0,0 +1,22 @@
+package com.driver.repository;
+
+import com.driver.model.Route;
+import com.driver.model.Station;
+
+//The journey and seats of one ticket, enough to put it back on the seat map of its train
+public interface SeatAssignment {
+
+    int getTrainId();
+
+    Route getRoute();
+
+    Station getFromStation();
+
+    Station getToStation();
+
+    //null for tickets booked before seats were assigned
+    int[] getSeatNumbers();
+
+    //used as the seat count of the tickets without seat numbers
+    int getPassengers();
+}
@@ -1,14 +1,53 @@
 package com.driver.repository;
 
-import com.driver.model.Station;
 import com.driver.model.Ticket;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface TicketRepository extends JpaRepository<Ticket,Integer> {
 
-    List<Ticket> findByTrainIdAndFromStation(int trainId, Station fromStation);
+    @Query("select t.train.trainId from Ticket t where t.ticketId = :ticketId")
+    Integer findTrainIdByTicketId(@Param("ticketId") int ticketId);
 
-    List<Ticket> findByTrainId(int trainId);
+    //Journey and seats of every ticket of a train, enough to rebuild its seat map
+    @Query("select t.train.trainId as trainId, t.train.route as route, t.fromStation as fromStation, " +
+            "t.toStation as toStation, t.seatNumbers as seatNumbers, size(t.passengersList) as passengers " +
+            "from Ticket t where t.train.trainId = :trainId")
+    List<SeatAssignment> findSeatAssignments(@Param("trainId") int trainId);
+
+    //The same for every train at once, used to rebase the booking journal
+    @Query("select t.train.trainId as trainId, t.train.route as route, t.fromStation as fromStation, " +
+            "t.toStation as toStation, t.seatNumbers as seatNumbers, size(t.passengersList) as passengers " +
+            "from Ticket t")
+    List<SeatAssignment> findAllSeatAssignments();
+
+    //What the booking journal is checked against on startup
+    @Query("select count(t) as tickets, sum(t.ticketId) as ticketIdSum from Ticket t")
+    TicketTotals findTotals();
+
+    //Enough to rebuild both the boarding counts and the age histogram of a train
+    @Query("select t.fromStation as fromStation, p.age as age, count(p) as passengers " +
+            "from Ticket t join t.passengersList p where t.train.trainId = :trainId " +
+            "group by t.fromStation, p.age")
+    List<BoardingAgeCount> countPassengersByBoardingAndAge(@Param("trainId") int trainId);
+
+    //The same grouping for a single ticket, what cancelling it takes off the train's aggregates
+    @Query("select t.fromStation as fromStation, p.age as age, count(p) as passengers " +
+            "from Ticket t join t.passengersList p where t.ticketId = :ticketId " +
+            "group by t.fromStation, p.age")
+    List<BoardingAgeCount> countPassengersByAge(@Param("ticketId") int ticketId);
+
+    //The manifest of a train read through a cursor, fetch size rows at a time and without
+    //managed entities, so memory doesn't grow with it. Has to be consumed and closed inside a transaction.
+    @QueryHints({@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")})
+    @Query("select new com.driver.repository.ManifestRow(t.ticketId, t.fromStation, t.toStation, t.seatNumbers, " +
+            "p.passengerId, p.name, p.age) from Ticket t join t.passengersList p where t.train.trainId = :trainId order by t.ticketId")
+    Stream<ManifestRow> streamManifest(@Param("trainId") int trainId);
 }
@@ -0,0 +1,9 @@
+package com.driver.repository;
+
+//Number of tickets and the sum of their ids, null when there are no tickets
+public interface TicketTotals {
+
+    long getTickets();
+
+    Long getTicketIdSum();
+}
@@ -1,15 +1,18 @@
 package com.driver.repository;
 
-import com.driver.model.Ticket;
 import com.driver.model.Train;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
+import java.util.Optional;
 
 
 @Repository
 public interface TrainRepository extends JpaRepository<Train,Integer> {
 
-    List<Ticket> findByTrain(int id);
+    @Query("select t.trainId as trainId, t.route as route, t.departureTime as departureTime, t.noOfSeats as noOfSeats " +
+            "from Train t where t.trainId = :trainId")
+    Optional<TrainSummary> findSummaryById(@Param("trainId") int trainId);
 }
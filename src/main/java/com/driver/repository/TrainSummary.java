@@ -0,0 +1,17 @@
+package com.driver.repository;
+
+import com.driver.model.Route;
+
+import java.time.LocalTime;
+
+//The columns of a train that never change after it is added, without loading the entity
+public interface TrainSummary {
+
+    int getTrainId();
+
+    Route getRoute();
+
+    LocalTime getDepartureTime();
+
+    int getNoOfSeats();
+}
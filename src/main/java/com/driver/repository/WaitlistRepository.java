@@ -0,0 +1,15 @@
+package com.driver.repository;
+
+import com.driver.model.WaitlistEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface WaitlistRepository extends JpaRepository<WaitlistEntry,Integer> {
+
+    //Entries of a train still waiting for seats, in the order they were waitlisted
+    @Query("select w from WaitlistEntry w where w.train.trainId = :trainId and w.ticketId is null order by w.waitlistId")
+    List<WaitlistEntry> findWaitingByTrainId(@Param("trainId") int trainId);
+}
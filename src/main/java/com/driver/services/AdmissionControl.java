@@ -0,0 +1,223 @@
+package com.driver.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether a booking request may run now or is turned away, so a rush on one train
+ * can't take every database connection. Two limits on requests in flight apply:
+ * irctc.admission.per-train-limit for each train, and a global limit that adapts to the
+ * observed latency (AIMD). The global limit creeps up by about one for every limit's worth
+ * of requests that finish within irctc.admission.target-latency-millis while it is being
+ * used, and is cut by a tenth when one takes longer, at most once per target latency.
+ * A batch counts once for every item it holds, on the item's train and globally: it is let
+ * in only if all of its items fit under each limit, or if nothing else is in flight there, so
+ * a batch larger than a limit still runs on its own instead of being turned away for good.
+ *
+ * Nothing queues: a request over either limit is rejected at once, and counted in
+ * irctc.admission.requests by outcome, so the rejection rate can be read off the metrics.
+ */
+@Component
+public class AdmissionControl {
+
+    private static final double BACKOFF = 0.9;
+
+    private final MeterRegistry registry;
+
+    private final int perTrainLimit;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long targetLatencyNanos;
+
+    private final int retryAfterSeconds;
+
+    private final ConcurrentMap<Integer, Integer> inFlightByTrain = new ConcurrentHashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    //written under the lock only
+    private volatile double limit;
+
+    private long lastDecreaseNanos;
+
+    private final Counter admitted;
+
+    private final Counter rejectedForTrain;
+
+    private final Counter rejectedGlobally;
+
+    @Autowired
+    public AdmissionControl(MeterRegistry registry,
+                            @Value("${irctc.admission.per-train-limit:16}") int perTrainLimit,
+                            @Value("${irctc.admission.initial-limit:20}") int initialLimit,
+                            @Value("${irctc.admission.min-limit:4}") int minLimit,
+                            @Value("${irctc.admission.max-limit:200}") int maxLimit,
+                            @Value("${irctc.admission.target-latency-millis:250}") long targetLatencyMillis,
+                            @Value("${irctc.admission.retry-after-seconds:1}") int retryAfterSeconds) {
+        this.registry = registry;
+        this.perTrainLimit = perTrainLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.lastDecreaseNanos = System.nanoTime() - targetLatencyNanos;
+        this.admitted = requests("admitted", "none");
+        this.rejectedForTrain = requests("rejected", "train");
+        this.rejectedGlobally = requests("rejected", "global");
+        Gauge.builder("irctc.admission.limit", this, AdmissionControl::getLimit)
+                .description("Booking requests allowed in flight at once, adapted to the latency")
+                .register(registry);
+        Gauge.builder("irctc.admission.in-flight", inFlight, AtomicInteger::get)
+                .description("Booking requests in flight, a batch counted once per item")
+                .register(registry);
+    }
+
+    //A permit to release once the request is done, or null if it is over a limit.
+    //A null trainId is only held to the global limit.
+    public Permit admit(Integer trainId) {
+        return admit(Collections.singletonList(trainId));
+    }
+
+    //The trainId of every item of a batch, repeats and nulls included: the batch weighs one
+    //per item and needs room on every one of its trains
+    public Permit admit(List<Integer> trainIds) {
+        int weight = Math.max(1, trainIds.size());
+        Map<Integer, Integer> byTrain = new HashMap<>();
+        for (Integer trainId : trainIds) {
+            if (trainId != null) {
+                byTrain.merge(trainId, 1, Integer::sum);
+            }
+        }
+        int current;
+        do {
+            current = inFlight.get();
+            if (current > 0 && current + weight > (int) limit) {
+                rejectedGlobally.increment();
+                return null;
+            }
+        } while (!inFlight.compareAndSet(current, current + weight));
+
+        Map<Integer, Integer> taken = new HashMap<>();
+        for (Map.Entry<Integer, Integer> train : byTrain.entrySet()) {
+            boolean[] fits = new boolean[1];
+            inFlightByTrain.compute(train.getKey(), (id, n) -> {
+                int count = n == null ? 0 : n;
+                if (count > 0 && count + train.getValue() > perTrainLimit) {
+                    return n;
+                }
+                fits[0] = true;
+                return count + train.getValue();
+            });
+            if (!fits[0]) {
+                leaveTrains(taken);
+                inFlight.addAndGet(-weight);
+                rejectedForTrain.increment();
+                return null;
+            }
+            taken.put(train.getKey(), train.getValue());
+        }
+        admitted.increment();
+        return new Permit(taken, weight, System.nanoTime());
+    }
+
+    //How long a rejected client should wait before trying again, for the Retry-After header
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public double getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public double admittedCount() {
+        return admitted.count();
+    }
+
+    public double rejectedCount() {
+        return rejectedForTrain.count() + rejectedGlobally.count();
+    }
+
+    private void leaveTrains(Map<Integer, Integer> taken) {
+        for (Map.Entry<Integer, Integer> train : taken.entrySet()) {
+            inFlightByTrain.computeIfPresent(train.getKey(), (id, n) -> n.equals(train.getValue()) ? null : n - train.getValue());
+        }
+    }
+
+    //One request done: its latency moves the global limit, inFlight is counted with it still in
+    private synchronized void sample(long latencyNanos, int inFlight, long nowNanos) {
+        if (latencyNanos > targetLatencyNanos) {
+            if (nowNanos - lastDecreaseNanos >= targetLatencyNanos) {
+                limit = Math.max(minLimit, limit * BACKOFF);
+                lastDecreaseNanos = nowNanos;
+            }
+        } else if (inFlight * 2 >= limit) {
+            //only grows while it is being used, an idle limit says nothing about the load
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    private Counter requests(String outcome, String limit) {
+        return Counter.builder("irctc.admission.requests")
+                .description("Booking requests admitted, and the rejected ones by the limit they were over")
+                .tag("outcome", outcome)
+                .tag("limit", limit)
+                .register(registry);
+    }
+
+    public final class Permit {
+
+        //items held on each train
+        private final Map<Integer, Integer> taken;
+
+        private final int weight;
+
+        private final long admittedNanos;
+
+        private boolean released;
+
+        private Permit(Map<Integer, Integer> taken, int weight, long admittedNanos) {
+            this.taken = taken;
+            this.weight = weight;
+            this.admittedNanos = admittedNanos;
+        }
+
+        public long getAdmittedNanos() {
+            return admittedNanos;
+        }
+
+        public void release() {
+            release(System.nanoTime());
+        }
+
+        //nowNanos is a System.nanoTime() value, passed in by tests to control the latency seen
+        public synchronized void release(long nowNanos) {
+            if (released) {
+                return;
+            }
+            released = true;
+            leaveTrains(taken);
+            sample(nowNanos - admittedNanos, inFlight.getAndAdd(-weight), nowNanos);
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package com.driver.services;
+
+import com.driver.ReplicaRoutingDataSource;
+import com.driver.ShardedDataSource;
+import com.driver.model.Station;
+import com.driver.repository.SeatAssignment;
+import com.driver.repository.TicketRepository;
+import com.driver.repository.TicketTotals;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of the successful bookings and cancellations, enabled with
+ * irctc.journal.enabled=true. Every one of them is written as fixed-size records to
+ * memory-mapped segment files holding irctc.journal.segment-records records each, a new
+ * segment is started when one is full.
+ * On startup the latest snapshot is read and the segments after it are replayed in order,
+ * which gives the legs every seat of every train is taken on without querying the tickets,
+ * and SeatInventory builds the train inventories from that. Snapshots are written every
+ * irctc.journal.snapshot-interval-seconds so a replay only covers the recent bookings.
+ *
+ * The ticket table stays the source of truth. If the journal doesn't hold the same tickets
+ * as the database (eg. the process died between a commit and its append) it is rebased on
+ * a single query over all the tickets. Both the number of tickets and the sum of their ids
+ * are compared, since a lost cancellation and a lost booking cancel out in the count alone.
+ * If an append fails the journal is switched off until the next start.
+ */
+@Component
+public class BookingJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(BookingJournal.class);
+
+    //type, from, to, ids in this record, trainId, ticketId, seats, from and to positions
+    //on the route, then passenger ids or seat numbers
+    static final int RECORD_SIZE = 64;
+
+    private static final int HEADER_SIZE = 20;
+
+    static final int IDS_PER_RECORD = (RECORD_SIZE - HEADER_SIZE) / 4;
+
+    //a slot that was never written, segments are zero filled
+    private static final byte FREE = 0;
+
+    private static final byte BOOKING = 1;
+
+    //more passenger ids of the booking before it
+    private static final byte CONTINUATION = 2;
+
+    //seat numbers of the booking after it
+    private static final byte SEATS = 3;
+
+    //seat numbers given back by the cancellation after it
+    private static final byte RELEASED_SEATS = 4;
+
+    //a cancelled ticket, its seats are in the records before it
+    private static final byte CANCELLATION = 5;
+
+    private static final int SNAPSHOT_MAGIC = 0x4A524E4C;
+
+    private static final int SNAPSHOT_VERSION = 3;
+
+    @Autowired
+    TicketRepository ticketRepository;
+
+    private final boolean enabled;
+
+    private final Path directory;
+
+    private final int segmentRecords;
+
+    private final long snapshotIntervalSeconds;
+
+    //legs each seat of a train is taken on, indexed by seat number - 1
+    private final Map<Integer, long[]> seats = new HashMap<>();
+
+    //booking records in the journal, one per ticket
+    private long tickets;
+
+    //sum of the ids of those tickets, checked against the database along with the count
+    private long ticketIdSum;
+
+    //number of the next record to be written, records are numbered from 0 across segments
+    private long sequence;
+
+    //records covered by the latest snapshot
+    private long snapshotSequence;
+
+    private MappedByteBuffer segment;
+
+    private long segmentStart;
+
+    private volatile boolean ready;
+
+    private long replayNanos;
+
+    private ScheduledExecutorService snapshots;
+
+    @Autowired
+    public BookingJournal(@Value("${irctc.journal.enabled:false}") boolean enabled,
+                          @Value("${irctc.journal.directory:journal}") String directory,
+                          @Value("${irctc.journal.segment-records:65536}") int segmentRecords,
+                          @Value("${irctc.journal.snapshot-interval-seconds:300}") long snapshotIntervalSeconds) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.segmentRecords = segmentRecords;
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //true once the journal has been replayed and can stand in for the ticket table
+    public boolean isReady() {
+        return ready;
+    }
+
+    public long getReplayNanos() {
+        return replayNanos;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        long tickets = 0;
+        long ticketIdSum = 0;
+        for (TicketTotals totals : ShardedDataSource.fanOut(() -> ReplicaRoutingDataSource.onPrimary(ticketRepository::findTotals))) {
+            tickets += totals.getTickets();
+            ticketIdSum += totals.getTicketIdSum() == null ? 0 : totals.getTicketIdSum();
+        }
+        open(tickets, ticketIdSum);
+        snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "booking-journal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshots.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (snapshots != null) {
+            snapshots.shutdown();
+        }
+        if (ready) {
+            snapshotQuietly();
+        }
+    }
+
+    //Replays the snapshot and segments in the directory, the tickets in the database and the
+    //sum of their ids are checked against the result
+    public synchronized void open(long ticketsInDatabase, long ticketIdSumInDatabase) throws IOException {
+        long begin = System.nanoTime();
+        Files.createDirectories(directory);
+        readLatestSnapshot();
+        long replayed = replaySegments();
+        if (tickets != ticketsInDatabase || ticketIdSum != ticketIdSumInDatabase) {
+            log.warn("Booking journal has {} tickets with ids summing to {} but the database has {} summing to {}, rebasing it",
+                    tickets, ticketIdSum, ticketsInDatabase, ticketIdSumInDatabase);
+            rebase(ticketsInDatabase, ticketIdSumInDatabase);
+        }
+        ready = true;
+        replayNanos = System.nanoTime() - begin;
+        log.info("Booking journal replayed in {} ms: {} tickets of {} trains, {} records after the snapshot",
+                TimeUnit.NANOSECONDS.toMillis(replayNanos), tickets, seats.size(), replayed);
+    }
+
+    //Called after the booking has been committed, in booking order for any given train.
+    //from and to are the positions of the stations on the train's route.
+    public synchronized void append(int trainId, Station fromStation, Station toStation, int from, int to,
+                                    int[] seatNumbers, int ticketId, List<Integer> passengerIds) {
+        if (!ready) {
+            return;
+        }
+        try {
+            Header header = new Header(trainId, fromStation, toStation, from, to, seatNumbers.length, ticketId);
+            //the seats go first: the booking record is what counts the ticket, so a crash in
+            //between leaves the journal a ticket short and it gets rebased on the next start
+            writeSeats(header, seatNumbers, SEATS);
+            int written = 0;
+            byte type = BOOKING;
+            do {
+                int count = Math.min(IDS_PER_RECORD, passengerIds.size() - written);
+                write(header, count);
+                for (int i = 0; i < count; i++) {
+                    segment.putInt(at() + HEADER_SIZE + i * 4, passengerIds.get(written + i));
+                }
+                commit(type);
+                written += count;
+                type = CONTINUATION;
+            } while (written < passengerIds.size());
+            long legs = SeatMap.mask(from, to);
+            for (int seat : seatNumbers) {
+                take(trainId, seat, legs);
+            }
+            tickets++;
+            ticketIdSum += ticketId;
+        } catch (IOException | RuntimeException e) {
+            //the inventories already built are still right, new ones are rebuilt from the database
+            ready = false;
+            log.error("Could not append to the booking journal, switching it off", e);
+        }
+    }
+
+    //Called after a cancellation has been committed, from and to are positions as for append
+    public synchronized void cancel(int trainId, Station fromStation, Station toStation, int from, int to,
+                                    int[] seatNumbers, int ticketId) {
+        if (!ready) {
+            return;
+        }
+        try {
+            //as with bookings, a crash before the cancellation record leaves the counts apart
+            Header header = new Header(trainId, fromStation, toStation, from, to, seatNumbers.length, ticketId);
+            writeSeats(header, seatNumbers, RELEASED_SEATS);
+            write(header, 0);
+            commit(CANCELLATION);
+            long legs = SeatMap.mask(from, to);
+            for (int seat : seatNumbers) {
+                release(trainId, seat, legs);
+            }
+            tickets--;
+            ticketIdSum -= ticketId;
+        } catch (IOException | RuntimeException e) {
+            ready = false;
+            log.error("Could not append to the booking journal, switching it off", e);
+        }
+    }
+
+    //Switches the journal off until the next start, for changes it has no record for (eg. the
+    //cancellation of a ticket booked before seats were assigned). Its ticket count is then
+    //behind the database's, so it gets rebased.
+    public synchronized void suspend() {
+        if (ready) {
+            ready = false;
+            log.warn("Booking journal switched off until the next start");
+        }
+    }
+
+    //Legs every seat of the train is taken on, indexed by seat number - 1
+    public synchronized long[] seatLegs(int trainId) {
+        long[] legs = seats.get(trainId);
+        return legs == null ? new long[0] : legs.clone();
+    }
+
+    //Writes the current state as a snapshot and deletes the segments it fully covers
+    public void snapshot() throws IOException {
+        Map<Integer, long[]> copy = new HashMap<>();
+        long snapshotTickets;
+        long snapshotTicketIdSum;
+        long covered;
+        synchronized (this) {
+            if (!ready || sequence == snapshotSequence) {
+                return;
+            }
+            for (Map.Entry<Integer, long[]> entry : seats.entrySet()) {
+                copy.put(entry.getKey(), entry.getValue().clone());
+            }
+            snapshotTickets = tickets;
+            snapshotTicketIdSum = ticketIdSum;
+            covered = sequence;
+        }
+        writeSnapshot(copy, snapshotTickets, snapshotTicketIdSum, covered);
+        synchronized (this) {
+            snapshotSequence = covered;
+            deleteCoveredFiles(covered);
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not write a booking journal snapshot", e);
+        }
+    }
+
+    private void take(int trainId, int seat, long legs) {
+        long[] seatLegs = seats.get(trainId);
+        if (seatLegs == null || seatLegs.length < seat) {
+            seatLegs = Arrays.copyOf(seatLegs == null ? new long[0] : seatLegs,
+                    Math.max(seat, seatLegs == null ? 0 : seatLegs.length * 2));
+            seats.put(trainId, seatLegs);
+        }
+        seatLegs[seat - 1] |= legs;
+    }
+
+    private void release(int trainId, int seat, long legs) {
+        long[] seatLegs = seats.get(trainId);
+        if (seatLegs != null && seat <= seatLegs.length) {
+            seatLegs[seat - 1] &= ~legs;
+        }
+    }
+
+    private void writeSeats(Header header, int[] seatNumbers, byte type) throws IOException {
+        for (int written = 0; written < seatNumbers.length; written += IDS_PER_RECORD) {
+            int count = Math.min(IDS_PER_RECORD, seatNumbers.length - written);
+            write(header, count);
+            for (int i = 0; i < count; i++) {
+                segment.putInt(at() + HEADER_SIZE + i * 4, seatNumbers[written + i]);
+            }
+            commit(type);
+        }
+    }
+
+    private int at() {
+        return (int) (sequence - segmentStart) * RECORD_SIZE;
+    }
+
+    //Writes the header of the next record, rolling to a new segment if needed
+    private void write(Header header, int count) throws IOException {
+        if (segment == null || sequence - segmentStart == segmentRecords) {
+            roll();
+        }
+        int at = at();
+        segment.put(at + 1, (byte) header.fromStation.ordinal());
+        segment.put(at + 2, (byte) header.toStation.ordinal());
+        segment.put(at + 3, (byte) count);
+        segment.putInt(at + 4, header.trainId);
+        segment.putInt(at + 8, header.ticketId);
+        segment.putInt(at + 12, header.noOfSeats);
+        segment.put(at + 16, (byte) header.from);
+        segment.put(at + 17, (byte) header.to);
+    }
+
+    //The type goes in last, a record cut short by a crash still reads as free
+    private void commit(byte type) {
+        segment.put(at(), type);
+        sequence++;
+    }
+
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        segmentStart = sequence;
+        segment = map(segmentPath(sequence));
+    }
+
+    private MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //a mapping stays valid after its channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRecords * RECORD_SIZE);
+        }
+    }
+
+    //Returns the number of records replayed and leaves the last segment mapped for appending
+    private long replaySegments() throws IOException {
+        long replayed = 0;
+        for (Map.Entry<Long, Path> entry : listFiles("segment-", ".log").entrySet()) {
+            long start = entry.getKey();
+            if (start + segmentRecords <= snapshotSequence) {
+                continue;
+            }
+            segment = map(entry.getValue());
+            segmentStart = start;
+            int slot = (int) Math.max(0, snapshotSequence - start);
+            for (; slot < segmentRecords; slot++) {
+                int at = slot * RECORD_SIZE;
+                byte type = segment.get(at);
+                if (type == FREE) {
+                    break;
+                }
+                if (type == BOOKING) {
+                    tickets++;
+                    ticketIdSum += segment.getInt(at + 8);
+                } else if (type == CANCELLATION) {
+                    tickets--;
+                    ticketIdSum -= segment.getInt(at + 8);
+                } else if (type == SEATS || type == RELEASED_SEATS) {
+                    int trainId = segment.getInt(at + 4);
+                    long legs = SeatMap.mask(segment.get(at + 16), segment.get(at + 17));
+                    int count = segment.get(at + 3);
+                    for (int i = 0; i < count; i++) {
+                        int seat = segment.getInt(at + HEADER_SIZE + i * 4);
+                        if (type == SEATS) {
+                            take(trainId, seat, legs);
+                        } else {
+                            release(trainId, seat, legs);
+                        }
+                    }
+                }
+                replayed++;
+            }
+            sequence = start + slot;
+        }
+        return replayed;
+    }
+
+    private void readLatestSnapshot() throws IOException {
+        seats.clear();
+        tickets = 0;
+        ticketIdSum = 0;
+        sequence = 0;
+        snapshotSequence = 0;
+        TreeMap<Long, Path> found = listFiles("snapshot-", ".bin");
+        for (Path path : found.descendingMap().values()) {
+            try (InputStream file = Files.newInputStream(path);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+                if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                    throw new IOException("Not a booking journal snapshot");
+                }
+                long covered = in.readLong();
+                long snapshotTickets = in.readLong();
+                long snapshotTicketIdSum = in.readLong();
+                int trains = in.readInt();
+                for (int t = 0; t < trains; t++) {
+                    int trainId = in.readInt();
+                    long[] seatLegs = new long[in.readInt()];
+                    for (int i = 0; i < seatLegs.length; i++) {
+                        seatLegs[i] = in.readLong();
+                    }
+                    seats.put(trainId, seatLegs);
+                }
+                tickets = snapshotTickets;
+                ticketIdSum = snapshotTicketIdSum;
+                sequence = covered;
+                snapshotSequence = covered;
+                return;
+            } catch (IOException e) {
+                //a snapshot cut short by a crash, fall back to the one before
+                log.warn("Skipping unreadable booking journal snapshot {}", path, e);
+                seats.clear();
+            }
+        }
+    }
+
+    //Replaces the journal with the seats booked in the database
+    private void rebase(long ticketsInDatabase, long ticketIdSumInDatabase) throws IOException {
+        seats.clear();
+        Map<Integer, List<SeatAssignment>> byTrain = new HashMap<>();
+        for (SeatAssignment ticket : ShardedDataSource.<SeatAssignment>fanOutAndMerge(() ->
+                ReplicaRoutingDataSource.onPrimary(ticketRepository::findAllSeatAssignments))) {
+            byTrain.computeIfAbsent(ticket.getTrainId(), id -> new ArrayList<>()).add(ticket);
+        }
+        for (List<SeatAssignment> tickets : byTrain.values()) {
+            SeatAssignment first = tickets.get(0);
+            //a legacy route too long for the seat map has no inventory to replay into
+            if (!first.getRoute().isBookable()) {
+                continue;
+            }
+            seats.put(first.getTrainId(), SeatInventory.seatLegs(tickets, first.getRoute()));
+        }
+        tickets = ticketsInDatabase;
+        ticketIdSum = ticketIdSumInDatabase;
+        writeSnapshot(seats, tickets, ticketIdSum, sequence);
+        snapshotSequence = sequence;
+        segment = null;
+        deleteCoveredFiles(sequence);
+    }
+
+    private void writeSnapshot(Map<Integer, long[]> state, long snapshotTickets, long snapshotTicketIdSum, long covered) throws IOException {
+        Path target = directory.resolve(String.format("snapshot-%019d.bin", covered));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(covered);
+            out.writeLong(snapshotTickets);
+            out.writeLong(snapshotTicketIdSum);
+            out.writeInt(state.size());
+            for (Map.Entry<Integer, long[]> entry : state.entrySet()) {
+                long[] seatLegs = entry.getValue();
+                //the arrays grow by doubling, the free seats at the end aren't worth writing
+                int length = seatLegs.length;
+                while (length > 0 && seatLegs[length - 1] == 0) {
+                    length--;
+                }
+                out.writeInt(entry.getKey());
+                out.writeInt(length);
+                for (int i = 0; i < length; i++) {
+                    out.writeLong(seatLegs[i]);
+                }
+            }
+            out.flush();
+            file.getChannel().force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Older snapshots, and the segments whose records all come before the covered sequence
+    private void deleteCoveredFiles(long covered) throws IOException {
+        for (Map.Entry<Long, Path> entry : listFiles("snapshot-", ".bin").entrySet()) {
+            if (entry.getKey() < covered) {
+                Files.deleteIfExists(entry.getValue());
+            }
+        }
+        for (Map.Entry<Long, Path> entry : listFiles("segment-", ".log").entrySet()) {
+            boolean current = segment != null && entry.getKey() == segmentStart;
+            if (!current && entry.getKey() + segmentRecords <= covered) {
+                Files.deleteIfExists(entry.getValue());
+            }
+        }
+    }
+
+    //Files named prefix + first record number + suffix, by record number
+    private TreeMap<Long, Path> listFiles(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), path);
+            }
+        }
+        return files;
+    }
+
+    private Path segmentPath(long start) {
+        return directory.resolve(String.format("segment-%019d.log", start));
+    }
+
+    //The fields shared by all the records of a booking
+    private static final class Header {
+
+        private final int trainId;
+
+        private final Station fromStation;
+
+        private final Station toStation;
+
+        private final int from;
+
+        private final int to;
+
+        private final int noOfSeats;
+
+        private final int ticketId;
+
+        Header(int trainId, Station fromStation, Station toStation, int from, int to, int noOfSeats, int ticketId) {
+            this.trainId = trainId;
+            this.fromStation = fromStation;
+            this.toStation = toStation;
+            this.from = from;
+            this.to = to;
+            this.noOfSeats = noOfSeats;
+            this.ticketId = ticketId;
+        }
+    }
+}
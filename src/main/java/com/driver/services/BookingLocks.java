@@ -0,0 +1,65 @@
+package com.driver.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks keyed by trainId. Bookings on the same train are serialized so the
+ * availability check and the seat update happen atomically, while bookings on
+ * different trains almost always land on different stripes and run in parallel.
+ */
+@Component
+public class BookingLocks {
+
+    private final ReentrantLock[] stripes;
+
+    private final int mask;
+
+    public BookingLocks() {
+        this(64);
+    }
+
+    @Autowired
+    public BookingLocks(@Value("${irctc.booking.lock-stripes:64}") int stripeCount) {
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    public ReentrantLock forTrain(int trainId) {
+        return stripes[stripeOf(trainId)];
+    }
+
+    //The distinct stripes covering all the trains, in stripe order. Taking them in this
+    //order means two batches touching the same trains can never deadlock each other.
+    public List<ReentrantLock> forTrains(Collection<Integer> trainIds) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for (Integer trainId : trainIds) {
+            indexes.add(stripeOf(trainId));
+        }
+        List<ReentrantLock> locks = new ArrayList<>(indexes.size());
+        for (Integer index : indexes) {
+            locks.add(stripes[index]);
+        }
+        return locks;
+    }
+
+    private int stripeOf(int trainId) {
+        //spread the bits so consecutive ids don't cluster on neighbouring stripes
+        int h = trainId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
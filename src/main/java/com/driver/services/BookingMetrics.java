@@ -0,0 +1,95 @@
+package com.driver.services;
+
+import com.driver.ResponseDto.BookingResultDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers for the phases of a booking (irctc.booking.phase) and a count of the booked and
+ * failed tickets by failure reason (irctc.booking.results). Meters are registered once and
+ * kept here, so recording is a clock read and an update of the meter, no registry lookup.
+ */
+@Component
+public class BookingMetrics {
+
+    //waiting for the trains' booking locks
+    public static final String LOCK = "lock";
+
+    //loading the passengers of the batch
+    public static final String LOAD = "load";
+
+    //checking the journeys and claiming the seats
+    public static final String ALLOCATE = "allocate";
+
+    //handing the tickets to the repository
+    public static final String SAVE = "save";
+
+    //the whole transaction, including the commit
+    public static final String TRANSACTION = "transaction";
+
+    private final MeterRegistry registry;
+
+    private final Map<String, Timer> phases = new HashMap<>();
+
+    private final Counter booked;
+
+    private final ConcurrentMap<String, Counter> failed = new ConcurrentHashMap<>();
+
+    @Autowired
+    public BookingMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (String phase : new String[]{LOCK, LOAD, ALLOCATE, SAVE, TRANSACTION}) {
+            phases.put(phase, Timer.builder("irctc.booking.phase")
+                    .description("Time spent in each phase of a booking")
+                    .tag("phase", phase)
+                    .register(registry));
+        }
+        this.booked = results("booked", "none");
+    }
+
+    //Records the time since startNanos, taken from System.nanoTime(), against the phase
+    public void record(String phase, long startNanos) {
+        phases.get(phase).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void count(List<BookingResultDto> results) {
+        for (BookingResultDto result : results) {
+            if (result.getFailureReason() == null) {
+                booked.increment();
+            } else {
+                failed.computeIfAbsent(result.getFailureReason(), reason -> results("failed", reason)).increment();
+            }
+        }
+    }
+
+    public long phaseCount(String phase) {
+        return phases.get(phase).count();
+    }
+
+    public double bookedCount() {
+        return booked.count();
+    }
+
+    public double failedCount(String reason) {
+        Counter counter = failed.get(reason);
+        return counter == null ? 0 : counter.count();
+    }
+
+    private Counter results(String outcome, String reason) {
+        return Counter.builder("irctc.booking.results")
+                .description("Tickets booked, and the failed ones by reason")
+                .tag("outcome", outcome)
+                .tag("reason", reason)
+                .register(registry);
+    }
+}
@@ -0,0 +1,169 @@
+package com.driver.services;
+
+import com.driver.EntryDto.BookTicketEntryDto;
+import com.driver.ResponseDto.BookingResultDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Optional single-writer execution of bookings, enabled with irctc.booking.mode=sequenced.
+ * Every train is owned by one lane: a bounded mailbox drained by a single thread, which
+ * takes whatever has queued up (up to max-batch) and books it as one batch, so a hot train
+ * costs one transaction per batch instead of one per booking and its callers never fight
+ * over the same lock. Callers get a CompletableFuture completed with the booking's result.
+ * A full mailbox fails the booking right away rather than letting the backlog grow.
+ *
+ * A lane serves every train that hashes to it, so a batch can mix trains. The booker reports
+ * each booking's own failure in its result, only an error of the booker itself fails the
+ * whole batch.
+ */
+@Component
+public class BookingSequencer {
+
+    public static final String QUEUE_FULL = "Too many bookings for this train, try again";
+
+    private final boolean enabled;
+
+    private final int maxBatch;
+
+    private final Lane[] lanes;
+
+    private volatile boolean running;
+
+    @Autowired
+    public BookingSequencer(@Value("${irctc.booking.mode:locked}") String mode,
+                            @Value("${irctc.booking.sequencer.lanes:8}") int laneCount,
+                            @Value("${irctc.booking.sequencer.mailbox-size:1024}") int mailboxSize,
+                            @Value("${irctc.booking.sequencer.max-batch:64}") int maxBatch) {
+        this.enabled = "sequenced".equalsIgnoreCase(mode);
+        this.maxBatch = maxBatch;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, mailboxSize);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //Starts a thread per lane, each booking its batches with the given function
+    public synchronized void start(Function<List<BookTicketEntryDto>, List<BookingResultDto>> booker) {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Lane lane : lanes) {
+            lane.start(booker);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        for (Lane lane : lanes) {
+            lane.stop();
+        }
+    }
+
+    public CompletableFuture<BookingResultDto> submit(BookTicketEntryDto bookTicketEntryDto) {
+        Request request = new Request(bookTicketEntryDto);
+        if (!running) {
+            request.result.completeExceptionally(new IllegalStateException("Booking sequencer is not running"));
+        } else if (!laneOf(bookTicketEntryDto.getTrainId()).mailbox.offer(request)) {
+            request.result.complete(BookingResultDto.failed(QUEUE_FULL));
+        }
+        return request.result;
+    }
+
+    private Lane laneOf(Integer trainId) {
+        if (trainId == null) {
+            return lanes[0];
+        }
+        int h = trainId * 0x9E3779B9;
+        return lanes[Math.floorMod(h ^ (h >>> 16), lanes.length)];
+    }
+
+    private final class Lane implements Runnable {
+
+        private final int index;
+
+        private final BlockingQueue<Request> mailbox;
+
+        private Function<List<BookTicketEntryDto>, List<BookingResultDto>> booker;
+
+        private Thread thread;
+
+        Lane(int index, int mailboxSize) {
+            this.index = index;
+            this.mailbox = new ArrayBlockingQueue<>(mailboxSize);
+        }
+
+        void start(Function<List<BookTicketEntryDto>, List<BookingResultDto>> booker) {
+            this.booker = booker;
+            this.thread = new Thread(this, "booking-sequencer-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Request> batch = new ArrayList<>(maxBatch);
+            List<BookTicketEntryDto> dtos = new ArrayList<>(maxBatch);
+            while (running) {
+                try {
+                    batch.add(mailbox.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                mailbox.drainTo(batch, maxBatch - 1);
+                for (Request request : batch) {
+                    dtos.add(request.dto);
+                }
+                try {
+                    List<BookingResultDto> results = booker.apply(dtos);
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).result.complete(results.get(i));
+                    }
+                } catch (RuntimeException e) {
+                    //not a booking's fault, those come back as results: nothing in the batch was booked
+                    for (Request request : batch) {
+                        request.result.completeExceptionally(e);
+                    }
+                }
+                batch.clear();
+                dtos.clear();
+            }
+            //whatever is still queued won't be booked
+            for (Request request; (request = mailbox.poll()) != null; ) {
+                request.result.completeExceptionally(new IllegalStateException("Booking sequencer stopped"));
+            }
+        }
+    }
+
+    private static final class Request {
+
+        private final BookTicketEntryDto dto;
+
+        private final CompletableFuture<BookingResultDto> result = new CompletableFuture<>();
+
+        Request(BookTicketEntryDto dto) {
+            this.dto = dto;
+        }
+    }
+}
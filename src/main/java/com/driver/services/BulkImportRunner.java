@@ -0,0 +1,83 @@
+package com.driver.services;
+
+import com.driver.ResponseDto.ImportResultDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+/**
+ * Runs the bulk import from the command line instead of serving requests:
+ *
+ *   java -jar irctc.jar --import-trains=trains.csv --import-passengers=passengers.ndjson
+ *
+ * Files ending in .ndjson or .jsonl are read as NDJSON, anything else as CSV. Trains are
+ * imported before passengers, then the application exits, with status 1 if a file could
+ * not be read or a chunk could not be saved.
+ */
+@Component
+public class BulkImportRunner implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkImportRunner.class);
+
+    @Autowired
+    BulkImportService bulkImportService;
+
+    @Autowired
+    ConfigurableApplicationContext context;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!args.containsOption("import-trains") && !args.containsOption("import-passengers")) {
+            return;
+        }
+        int status = 0;
+        try {
+            for (String file : optionValues(args, "import-trains")) {
+                try (InputStream in = Files.newInputStream(Paths.get(file))) {
+                    report(file, bulkImportService.importTrains(in, formatOf(file)));
+                }
+            }
+            for (String file : optionValues(args, "import-passengers")) {
+                try (InputStream in = Files.newInputStream(Paths.get(file))) {
+                    report(file, bulkImportService.importPassengers(in, formatOf(file)));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Import failed", e);
+            status = 1;
+        }
+        int exitCode = status;
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+
+    private static Iterable<String> optionValues(ApplicationArguments args, String option) {
+        return args.containsOption(option) ? args.getOptionValues(option) : Collections.emptyList();
+    }
+
+    static DataFormat formatOf(String file) {
+        String name = file.toLowerCase();
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl") ? DataFormat.NDJSON : DataFormat.CSV;
+    }
+
+    private static void report(String file, ImportResultDto result) {
+        log.info("{}: {} rows imported, {} rejected in {} s, {} rows/s", file, result.getImported(), result.getRejected(),
+                String.format("%.1f", result.getSeconds()), String.format("%.0f", result.getRowsPerSecond()));
+        if (result.getNotCopied() > 0) {
+            log.warn("{}: {} rows are missing on some shards", file, result.getNotCopied());
+        }
+        for (String error : result.getErrors()) {
+            log.warn("{}: {}", file, error);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.driver.services;
+
+import com.driver.EntryDto.AddTrainEntryDto;
+import com.driver.ShardedDataSource;
+import com.driver.ResponseDto.ImportResultDto;
+import com.driver.model.Passenger;
+import com.driver.model.Station;
+import com.driver.model.Train;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Loads trains and passengers in bulk. The input is read a line at a time and every
+ * irctc.import.chunk-size rows are persisted in one transaction, then flushed and cleared,
+ * so inserts go out in JDBC batches, ids come from the sequences' allocation blocks and
+ * memory is bounded by the chunk whatever the size of the input. Rows that can't be parsed
+ * are counted and skipped. A chunk that fails to save stops the import, the chunks before
+ * it stay committed. With several shards each chunk of trains goes to the next shard in turn
+ * and passengers are saved on shard 0 and then copied to the others. A chunk whose copy still
+ * fails after the retries stays imported and is reported in notCopied, with the passenger ids.
+ */
+@Service
+public class BulkImportService {
+
+    private static final int MAX_ERRORS = 100;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    StationArrivalIndex stationArrivalIndex;
+
+    @Autowired
+    ConnectionIndex connectionIndex;
+
+    @Autowired
+    PassengerService passengerService;
+
+    @Value("${irctc.import.chunk-size:1000}")
+    int chunkSize = 1000;
+
+    //CSV columns: stationRoute,departureTime,noOfSeats with the stations separated by spaces,
+    //or by commas in a quoted field. NDJSON objects are shaped like the body of /train/add.
+    @Timed("irctc.service")
+    public ImportResultDto importTrains(InputStream in, DataFormat format) throws IOException {
+        ObjectReader reader = objectMapper.readerFor(AddTrainEntryDto.class);
+        return run(in, format, line -> {
+            AddTrainEntryDto dto;
+            if(format==DataFormat.NDJSON){
+                dto = reader.readValue(line);
+            }else{
+                List<String> fields = csvFields(line, 3);
+                List<Station> stations = new ArrayList<>();
+                for(String station : fields.get(0).trim().split("[,\\s]+")){
+                    stations.add(Station.valueOf(station));
+                }
+                dto = new AddTrainEntryDto(stations, LocalTime.parse(fields.get(1).trim()), Integer.parseInt(fields.get(2).trim()));
+            }
+            if(dto.getStationRoute()==null||dto.getStationRoute().isEmpty()||dto.getDepartureTime()==null||dto.getNoOfSeats()<0){
+                throw new IllegalArgumentException("stationRoute, departureTime and a noOfSeats of 0 or more are required");
+            }
+            Train train = new Train();
+            //the same limit as /train/add, a route longer than the seat map is a rejected row
+            train.setRoute(TrainService.routeOf(dto.getStationRoute()));
+            train.setDepartureTime(dto.getDepartureTime());
+            train.setNoOfSeats(dto.getNoOfSeats());
+            return train;
+        }, ShardedDataSource::nextShard, (trains, result) -> {
+            //indexes that haven't been loaded yet skip them and read them from the database
+            for(Train train : trains){
+                stationArrivalIndex.add(train);
+                connectionIndex.add(train);
+            }
+        });
+    }
+
+    //CSV columns: name,age. NDJSON objects have a name and an age.
+    @Timed("irctc.service")
+    public ImportResultDto importPassengers(InputStream in, DataFormat format) throws IOException {
+        return run(in, format, line -> {
+            String name;
+            int age;
+            if(format==DataFormat.NDJSON){
+                JsonNode passenger = objectMapper.readTree(line);
+                if(!passenger.hasNonNull("name")||!passenger.hasNonNull("age")){
+                    throw new IllegalArgumentException("name and age are required");
+                }
+                name = passenger.get("name").asText();
+                age = passenger.get("age").asInt();
+            }else{
+                List<String> fields = csvFields(line, 2);
+                name = fields.get(0);
+                age = Integer.parseInt(fields.get(1).trim());
+            }
+            return new Passenger(0, name, age, new ArrayList<>());
+        }, () -> 0, (passengers, result) -> {
+            List<Integer> missing = passengerService.copyToOtherShards(passengers);
+            if(!missing.isEmpty()){
+                result.setNotCopied(result.getNotCopied()+passengers.size());
+                error(result, "passengers "+passengers.get(0).getPassengerId()+" to "+passengers.get(passengers.size()-1).getPassengerId()
+                        +": not copied to shards "+missing);
+            }
+        });
+    }
+
+    private <T> ImportResultDto run(InputStream in, DataFormat format, RowParser<T> parser, IntSupplier shards, BiConsumer<List<T>, ImportResultDto> saved) throws IOException {
+        long start = System.nanoTime();
+        ImportResultDto result = new ImportResultDto();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        List<T> chunk = new ArrayList<>(chunkSize);
+        long lineNumber = 0;
+        String line;
+        while((line = reader.readLine())!=null){
+            lineNumber++;
+            if(line.trim().isEmpty()||(lineNumber==1&&format==DataFormat.CSV)){
+                continue;
+            }
+            try{
+                chunk.add(parser.parse(line));
+            }catch (IOException|RuntimeException e){
+                result.setRejected(result.getRejected()+1);
+                error(result, "line "+lineNumber+": "+e.getMessage());
+                continue;
+            }
+            if(chunk.size()==chunkSize){
+                save(chunk, shards.getAsInt(), result, saved);
+            }
+        }
+        save(chunk, shards.getAsInt(), result, saved);
+        result.setSeconds((System.nanoTime()-start)/1e9);
+        result.setRowsPerSecond(result.getSeconds()==0 ? 0 : result.getImported()/result.getSeconds());
+        return result;
+    }
+
+    private <T> void save(List<T> chunk, int shard, ImportResultDto result, BiConsumer<List<T>, ImportResultDto> saved){
+        if(chunk.isEmpty()){
+            return;
+        }
+        ShardedDataSource.on(shard, () -> new TransactionTemplate(transactionManager).execute(status -> {
+            for(T row : chunk){
+                entityManager.persist(row);
+            }
+            //flushed as batched inserts, then nothing stays in the persistence context
+            entityManager.flush();
+            entityManager.clear();
+            return null;
+        }));
+        saved.accept(chunk, result);
+        result.setImported(result.getImported()+chunk.size());
+        chunk.clear();
+    }
+
+    private static void error(ImportResultDto result, String error){
+        if(result.getErrors().size()<MAX_ERRORS){
+            result.getErrors().add(error);
+        }
+    }
+
+    //The fields of a CSV line, a field in double quotes may hold commas and "" for a quote
+    static List<String> csvFields(String line, int expected){
+        List<String> fields = new ArrayList<>(expected);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for(int i=0;i<line.length();i++){
+            char c = line.charAt(i);
+            if(quoted){
+                if(c=='"'&&i+1<line.length()&&line.charAt(i+1)=='"'){
+                    field.append('"');
+                    i++;
+                }else if(c=='"'){
+                    quoted = false;
+                }else{
+                    field.append(c);
+                }
+            }else if(c=='"'){
+                quoted = true;
+            }else if(c==','){
+                fields.add(field.toString());
+                field.setLength(0);
+            }else{
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        if(fields.size()!=expected){
+            throw new IllegalArgumentException("Expected "+expected+" fields but got "+fields.size());
+        }
+        return fields;
+    }
+
+    private interface RowParser<T> {
+
+        T parse(String line) throws IOException;
+    }
+}
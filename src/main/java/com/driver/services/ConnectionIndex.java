@@ -0,0 +1,170 @@
+package com.driver.services;
+
+import com.driver.model.Route;
+import com.driver.model.Station;
+import com.driver.model.Train;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Every leg of every train as one connection, sorted by departure, for the Connection Scan
+ * journey search. A connection is packed into a long, highest bits first:
+ * departure minute (13) | train slot (31) | position on the route (7) | from station (6) | to station (6),
+ * so sorting the longs sorts by departure. A train reaches the i-th station of its route
+ * i hours after its departure, so every connection arrives 60 minutes after it leaves and
+ * the array is sorted by arrival too. Trains get dense slots so a search can keep its
+ * per-train state in arrays.
+ *
+ * Copy-on-write like {@link StationArrivalIndex}: adding a train merges its connections
+ * into a new array, readers never lock.
+ */
+@Component
+public class ConnectionIndex {
+
+    public static final int LEG_MINUTES = 60;
+
+    private static final int STATION_BITS = 6;
+
+    private static final int POSITION_BITS = 7;
+
+    private static final int SLOT_BITS = 31;
+
+    private static final int SLOT_SHIFT = POSITION_BITS + 2 * STATION_BITS;
+
+    private static final int DEPARTURE_SHIFT = SLOT_SHIFT + SLOT_BITS;
+
+    private volatile Snapshot snapshot = new Snapshot(new long[0], new int[0]);
+
+    private volatile boolean loaded;
+
+    //written under the lock only
+    private final Map<Integer, Integer> slots = new HashMap<>();
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    //Reads the trains and indexes them, once. The read happens under the lock add takes, so a
+    //train saved meanwhile is either read or added once the load is done, never missed.
+    public synchronized void load(Supplier<? extends Iterable<Train>> trains) {
+        if (loaded) {
+            return;
+        }
+        for (Train train : trains.get()) {
+            merge(train);
+        }
+        loaded = true;
+    }
+
+    //Trains added before the index is loaded are left to the load, which reads them with the
+    //rest, so a bulk import doesn't build an index nobody has searched yet. The train has to
+    //be saved already.
+    public synchronized void add(Train train) {
+        if (loaded) {
+            merge(train);
+        }
+    }
+
+    private void merge(Train train) {
+        if (slots.containsKey(train.getTrainId())) {
+            return;
+        }
+        Snapshot current = snapshot;
+        int slot = current.trainIds.length;
+        slots.put(train.getTrainId(), slot);
+
+        Route route = train.getRoute();
+        LocalTime departureTime = train.getDepartureTime();
+        int departureTimeInMin = departureTime.getHour() * 60 + departureTime.getMinute();
+        //the legs of one train already leave in order, one merge pass adds them all
+        long[] added = new long[route.legs()];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = pack(departureTimeInMin + i * LEG_MINUTES, slot, i, route.stationAt(i), route.stationAt(i + 1));
+        }
+        long[] connections = new long[current.connections.length + added.length];
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < connections.length; i++) {
+            if (b == added.length || (a < current.connections.length && current.connections[a] < added[b])) {
+                connections[i] = current.connections[a++];
+            } else {
+                connections[i] = added[b++];
+            }
+        }
+        int[] trainIds = Arrays.copyOf(current.trainIds, slot + 1);
+        trainIds[slot] = train.getTrainId();
+        snapshot = new Snapshot(connections, trainIds);
+    }
+
+    static long pack(int departureInMin, int slot, int position, Station from, Station to) {
+        return ((long) departureInMin << DEPARTURE_SHIFT) | ((long) slot << SLOT_SHIFT)
+                | ((long) position << 2 * STATION_BITS) | ((long) from.ordinal() << STATION_BITS) | to.ordinal();
+    }
+
+    public static int departureOf(long connection) {
+        return (int) (connection >>> DEPARTURE_SHIFT);
+    }
+
+    public static int slotOf(long connection) {
+        return (int) ((connection >>> SLOT_SHIFT) & ((1L << SLOT_BITS) - 1));
+    }
+
+    //Position of the station the connection leaves from on the train's route
+    public static int positionOf(long connection) {
+        return (int) ((connection >>> 2 * STATION_BITS) & ((1 << POSITION_BITS) - 1));
+    }
+
+    public static int fromOf(long connection) {
+        return (int) ((connection >>> STATION_BITS) & ((1 << STATION_BITS) - 1));
+    }
+
+    public static int toOf(long connection) {
+        return (int) (connection & ((1 << STATION_BITS) - 1));
+    }
+
+    //The connections sorted by departure and the trainId of every slot, never modified once published
+    public static final class Snapshot {
+
+        private final long[] connections;
+
+        private final int[] trainIds;
+
+        Snapshot(long[] connections, int[] trainIds) {
+            this.connections = connections;
+            this.trainIds = trainIds;
+        }
+
+        public long[] getConnections() {
+            return connections;
+        }
+
+        public int[] getTrainIds() {
+            return trainIds;
+        }
+
+        //Index of the first connection leaving at or after the minute
+        public int firstDepartingAt(int minute) {
+            long key = (long) minute << DEPARTURE_SHIFT;
+            int lo = 0;
+            int hi = connections.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (connections[mid] < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package com.driver.services;
+
+//Line based formats for exports and imports: CSV with a header row, or one JSON object per line
+public enum DataFormat {
+    CSV, NDJSON
+}
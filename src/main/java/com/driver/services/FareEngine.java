@@ -0,0 +1,23 @@
+package com.driver.services;
+
+import com.driver.model.Quota;
+import com.driver.model.TravelClass;
+
+/**
+ * Prices journeys. Booking and quoting both go through it so a quoted fare is the fare
+ * that gets charged. from and to are positions on the train's route.
+ */
+public interface FareEngine {
+
+    //Fare of one seat for a passenger of the given age, in rupees
+    int seatFare(int trainId, int from, int to, TravelClass travelClass, Quota quota, int age);
+
+    //Fare of one seat per age
+    default int fare(int trainId, int from, int to, TravelClass travelClass, Quota quota, int[] ages) {
+        int fare = 0;
+        for (int age : ages) {
+            fare += seatFare(trainId, from, to, travelClass, quota, age);
+        }
+        return fare;
+    }
+}
@@ -0,0 +1,107 @@
+package com.driver.services;
+
+import com.driver.model.Quota;
+import com.driver.model.TravelClass;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+
+/**
+ * The fare rules from irctc.fare.*: a fare per leg, optionally tapered after a number of
+ * legs, scaled by the travel class and the passenger's age band and raised by the quota's
+ * surcharge. Percentages are given as NAME:percent lists, classes and quotas left out
+ * are charged 100% and 0% extra. An adult in GENERAL class and quota pays per-leg for
+ * every leg.
+ */
+@Component
+public class FareRules {
+
+    public static final int CHILD = 0;
+
+    public static final int ADULT = 1;
+
+    public static final int SENIOR = 2;
+
+    public static final int AGE_BANDS = 3;
+
+    private final int perLeg;
+
+    private final int taperAfterLegs;
+
+    private final int taperPercent;
+
+    private final int[] classPercents;
+
+    private final int[] quotaSurcharges;
+
+    private final int childBelowAge;
+
+    private final int seniorFromAge;
+
+    private final int[] agePercents;
+
+    @Autowired
+    public FareRules(@Value("${irctc.fare.per-leg:300}") int perLeg,
+                     @Value("${irctc.fare.taper-after-legs:64}") int taperAfterLegs,
+                     @Value("${irctc.fare.taper-percent:100}") int taperPercent,
+                     @Value("${irctc.fare.class-percents:}") String classPercents,
+                     @Value("${irctc.fare.quota-surcharge-percents:}") String quotaSurcharges,
+                     @Value("${irctc.fare.child-below-age:0}") int childBelowAge,
+                     @Value("${irctc.fare.child-percent:100}") int childPercent,
+                     @Value("${irctc.fare.senior-from-age:200}") int seniorFromAge,
+                     @Value("${irctc.fare.senior-percent:100}") int seniorPercent) {
+        this.perLeg = perLeg;
+        this.taperAfterLegs = taperAfterLegs;
+        this.taperPercent = taperPercent;
+        this.classPercents = percents(TravelClass.values(), classPercents, 100);
+        this.quotaSurcharges = percents(Quota.values(), quotaSurcharges, 0);
+        this.childBelowAge = childBelowAge;
+        this.seniorFromAge = seniorFromAge;
+        this.agePercents = new int[AGE_BANDS];
+        agePercents[CHILD] = childPercent;
+        agePercents[ADULT] = 100;
+        agePercents[SENIOR] = seniorPercent;
+    }
+
+    //The rules as they were before fares were configurable: per-leg for every leg and seat
+    public static FareRules flat(int perLeg) {
+        return new FareRules(perLeg, 64, 100, "", "", 0, 100, 200, 100);
+    }
+
+    public int ageBand(int age) {
+        if (age < childBelowAge) {
+            return CHILD;
+        }
+        return age >= seniorFromAge ? SENIOR : ADULT;
+    }
+
+    //Fare of one seat over the given number of legs, rounded to the rupee
+    public int seatFare(int legs, TravelClass travelClass, Quota quota, int ageBand) {
+        //every percentage scales it by 100, it is divided once at the end so only the result is rounded
+        long fare = (long) perLeg * 100 * Math.min(legs, taperAfterLegs)
+                + (long) perLeg * taperPercent * Math.max(0, legs - taperAfterLegs);
+        fare *= (long) classPercents[travelClass.ordinal()] * agePercents[ageBand] * (100 + quotaSurcharges[quota.ordinal()]);
+        long scale = 100L * 100 * 100 * 100;
+        return (int) ((fare + scale / 2) / scale);
+    }
+
+    private static <E extends Enum<E>> int[] percents(E[] values, String spec, int fallback) {
+        int[] percents = new int[values.length];
+        Arrays.fill(percents, fallback);
+        for (String entry : spec.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] nameAndPercent = entry.split(":");
+            if (nameAndPercent.length != 2) {
+                throw new IllegalArgumentException("Expected NAME:percent but got " + entry);
+            }
+            //valueOf rejects names that aren't a class or quota, a typo shouldn't silently price at 100%
+            E value = Enum.valueOf(values[0].getDeclaringClass(), nameAndPercent[0].trim());
+            percents[value.ordinal()] = Integer.parseInt(nameAndPercent[1].trim());
+        }
+        return percents;
+    }
+}
@@ -0,0 +1,100 @@
+package com.driver.services;
+
+import com.driver.EntryDto.FareQuoteEntryDto;
+import com.driver.ResponseDto.FareQuoteDto;
+import com.driver.model.Quota;
+import com.driver.model.TravelClass;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@Service
+public class FareService {
+
+    //the age an unnamed seat is priced at
+    static final int ADULT_AGE = 30;
+
+    @Autowired
+    FareEngine fareEngine;
+
+    @Autowired
+    TrainCache trainCache;
+
+    @Timed("irctc.service")
+    public List<FareQuoteDto> quoteBatch(List<FareQuoteEntryDto> fareQuoteEntryDtos){
+
+        //Prices every journey with the engine bookTicket charges with, so a quote is what the
+        //booking will cost. Only the cached trains and the fare tables are read, not the database.
+        List<FareQuoteDto> quotes=new ArrayList<>(fareQuoteEntryDtos.size());
+        for(FareQuoteEntryDto dto: fareQuoteEntryDtos){
+            quotes.add(quote(dto));
+        }
+        return quotes;
+    }
+
+    private FareQuoteDto quote(FareQuoteEntryDto dto){
+        //a malformed item fails on its own, the rest of the batch is still quoted
+        String invalid=invalid(dto);
+        if(invalid!=null){
+            return FareQuoteDto.failed(invalid);
+        }
+        TrainMetadata train=trainCache.get(dto.getTrainId());
+        if(train==null){
+            return FareQuoteDto.failed("Train not found");
+        }
+        int x=train.getRoute().positionOf(dto.getFromStation());
+        int y=train.getRoute().positionOf(dto.getToStation());
+        if(x==-1||y==-1||y<x){
+            return FareQuoteDto.failed("Invalid stations");
+        }
+        boolean unnamed=dto.getAges()==null||dto.getAges().isEmpty();
+        //no more seats than the train has, nor an array sized by whatever the client sent
+        if((unnamed?dto.getNoOfSeats():dto.getAges().size())>train.getNoOfSeats()){
+            return FareQuoteDto.failed(TicketService.INVALID_SEATS);
+        }
+        int[] ages;
+        if(unnamed){
+            ages=new int[dto.getNoOfSeats()];
+            Arrays.fill(ages,ADULT_AGE);
+        }else{
+            ages=new int[dto.getAges().size()];
+            for(int i=0;i<ages.length;i++){
+                ages[i]=dto.getAges().get(i);
+            }
+        }
+        return FareQuoteDto.quoted(fareEngine.fare(dto.getTrainId(),x,y,travelClassOf(dto.getTravelClass()),
+                quotaOf(dto.getQuota()),ages));
+    }
+
+    //The reason a quote can't be priced whatever the train, null if it can be
+    static String invalid(FareQuoteEntryDto dto){
+        if(dto.getTrainId()==null){
+            return "Train not found";
+        }
+        if(dto.getFromStation()==null||dto.getToStation()==null){
+            return "Invalid stations";
+        }
+        if(dto.getAges()==null||dto.getAges().isEmpty()){
+            return dto.getNoOfSeats()<1?TicketService.INVALID_SEATS:null;
+        }
+        for(Integer age: dto.getAges()){
+            if(age==null||age<0){
+                return "Invalid ages";
+            }
+        }
+        return null;
+    }
+
+    //Bookings and quotes that leave out the class or quota are GENERAL
+    static TravelClass travelClassOf(TravelClass travelClass){
+        return travelClass==null?TravelClass.GENERAL:travelClass;
+    }
+
+    static Quota quotaOf(Quota quota){
+        return quota==null?Quota.GENERAL:quota;
+    }
+}
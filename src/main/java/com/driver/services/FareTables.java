@@ -0,0 +1,82 @@
+package com.driver.services;
+
+import com.driver.model.Quota;
+import com.driver.model.TravelClass;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link FareEngine} that compiles the {@link FareRules} into a fare table per train the
+ * first time the train is priced: for every (from,to) pair of its route one int array
+ * holding the seat fare of every class, quota and age band. Pricing is then two array
+ * lookups, without the rules or the database. Pairs of the same length share their array
+ * since the rules only depend on the number of legs.
+ */
+@Component
+public class FareTables implements FareEngine {
+
+    private static final int CLASSES = TravelClass.values().length;
+
+    private static final int QUOTAS = Quota.values().length;
+
+    @Autowired
+    FareRules fareRules;
+
+    @Autowired
+    TrainCache trainCache;
+
+    private final ConcurrentMap<Integer, Table> tables = new ConcurrentHashMap<>();
+
+    //Throws NoSuchElementException if there is no such train
+    @Override
+    public int seatFare(int trainId, int from, int to, TravelClass travelClass, Quota quota, int age) {
+        Table table = tables.computeIfAbsent(trainId, this::compile);
+        int[] fares = table.fares[from * table.stations + to];
+        return fares[(travelClass.ordinal() * QUOTAS + quota.ordinal()) * FareRules.AGE_BANDS + fareRules.ageBand(age)];
+    }
+
+    private Table compile(int trainId) {
+        TrainMetadata train = trainCache.get(trainId);
+        if (train == null) {
+            throw new NoSuchElementException("Train not found");
+        }
+        int stations = train.getRoute().size();
+        int[][] byLegs = new int[stations][];
+        for (int legs = 0; legs < stations; legs++) {
+            int[] fares = new int[CLASSES * QUOTAS * FareRules.AGE_BANDS];
+            for (TravelClass travelClass : TravelClass.values()) {
+                for (Quota quota : Quota.values()) {
+                    for (int ageBand = 0; ageBand < FareRules.AGE_BANDS; ageBand++) {
+                        fares[(travelClass.ordinal() * QUOTAS + quota.ordinal()) * FareRules.AGE_BANDS + ageBand]
+                                = fareRules.seatFare(legs, travelClass, quota, ageBand);
+                    }
+                }
+            }
+            byLegs[legs] = fares;
+        }
+        int[][] table = new int[stations * stations][];
+        for (int from = 0; from < stations; from++) {
+            for (int to = from; to < stations; to++) {
+                table[from * stations + to] = byLegs[to - from];
+            }
+        }
+        return new Table(stations, table);
+    }
+
+    //fares is indexed by from*stations+to, only pairs with from<=to are filled
+    private static final class Table {
+
+        private final int stations;
+
+        private final int[][] fares;
+
+        private Table(int stations, int[][] fares) {
+            this.stations = stations;
+            this.fares = fares;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.driver.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of recent bookings made with an Idempotency-Key, by key, bounded by
+ * irctc.idempotency.maximum-size and dropped irctc.idempotency.expire-after-seconds after
+ * they were made. An entry is put before the booking runs, so a duplicate arriving while
+ * it is in flight finds the same future and waits for it instead of booking again.
+ * A booking in flight weighs nothing, so only finished ones count towards the maximum
+ * size and can be evicted: an evicted in-flight entry would let a duplicate book again
+ * before the first one's key row has committed.
+ * Keys that fell out of here are still found in the idempotency_key table.
+ */
+@Component
+public class IdempotencyCache {
+
+    private final Cache<String, CompletableFuture<Integer>> cache;
+
+    private final ConcurrentMap<String, CompletableFuture<Integer>> bookings;
+
+    @Autowired
+    public IdempotencyCache(@Value("${irctc.idempotency.maximum-size:100000}") long maximumSize,
+                            @Value("${irctc.idempotency.expire-after-seconds:86400}") long expireAfterSeconds) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumSize)
+                .<String, CompletableFuture<Integer>>weigher((key, booking) -> booking.isDone() ? 1 : 0)
+                .expireAfterWrite(expireAfterSeconds, TimeUnit.SECONDS)
+                .build();
+        this.bookings = cache.asMap();
+    }
+
+    //Claims the key with the caller's future in one probe: null if the caller now owns it,
+    //otherwise the future of the booking that got there first
+    public CompletableFuture<Integer> claim(String key, CompletableFuture<Integer> booking) {
+        CompletableFuture<Integer> earlier = bookings.putIfAbsent(key, booking);
+        if (earlier == null) {
+            //put again once done so it is weighed again, a failed one has been forgotten by then
+            booking.whenComplete((ticketId, failure) -> bookings.replace(key, booking, booking));
+        }
+        return earlier;
+    }
+
+    //Lets the next request with the key book again, for bookings that failed
+    public void forget(String key, CompletableFuture<Integer> booking) {
+        bookings.remove(key, booking);
+    }
+
+    //Entries left once the evictions still pending, which run asynchronously, are done
+    public long size() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+}
@@ -0,0 +1,145 @@
+package com.driver.services;
+
+import com.driver.ReplicaRoutingDataSource;
+import com.driver.ShardedDataSource;
+import com.driver.ResponseDto.JourneyDto;
+import com.driver.ResponseDto.JourneyLegDto;
+import com.driver.model.Route;
+import com.driver.model.Station;
+import com.driver.repository.TrainRepository;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.driver.services.ConnectionIndex.LEG_MINUTES;
+
+@Service
+public class JourneyService {
+
+    @Autowired
+    ConnectionIndex connectionIndex;
+
+    @Autowired
+    TrainRepository trainRepository;
+
+    @Autowired
+    TrainCache trainCache;
+
+    @Autowired
+    SeatInventory seatInventory;
+
+    @Autowired
+    BookingLocks bookingLocks;
+
+    @Timed("irctc.service")
+    public List<JourneyDto> earliestJourneys(Station fromStation, Station toStation, LocalTime after, int seats){
+
+        //The earliest arriving direct journey and, if it arrives earlier still, the earliest
+        //one changing trains once, leaving fromStation at or after the given time. With seats
+        //above 0 only trains with that many seats free for the part ridden are used.
+        //Times are minutes of the departure day, like trainsBetweenAGivenTime assumes.
+        if(!connectionIndex.isLoaded()){
+            connectionIndex.load(() -> ShardedDataSource.fanOutAndMerge(() -> ReplicaRoutingDataSource.onPrimary(trainRepository::findAll)));
+        }
+        List<JourneyDto> journeys = new ArrayList<>();
+        if(fromStation==toStation){
+            return journeys;
+        }
+        ConnectionIndex.Snapshot snapshot = connectionIndex.snapshot();
+        long[] connections = snapshot.getConnections();
+        int[] trainIds = snapshot.getTrainIds();
+        int source = fromStation.ordinal();
+        int target = toStation.ordinal();
+
+        //Connection Scan in two rounds: direct[s] is the earliest arrival at s on one train,
+        //directBy[s] the connection that got there and directBoard[s] where that train was boarded
+        int stations = Station.values().length;
+        int[] direct = new int[stations];
+        Arrays.fill(direct, Integer.MAX_VALUE);
+        long[] directBy = new long[stations];
+        int[] directBoard = new int[stations];
+        //per train, the latest position it can be boarded at: at the source, or after a first train.
+        //Boarding as late as possible leaves the most seats free for the rest of the ride.
+        int[] boardAtSource = new int[trainIds.length];
+        int[] boardAfterChange = new int[trainIds.length];
+        Arrays.fill(boardAtSource, -1);
+        Arrays.fill(boardAfterChange, -1);
+        //a second train only matters for reaching the target
+        int changed = Integer.MAX_VALUE;
+        long changedBy = 0;
+        int changedBoard = 0;
+
+        for(int i=snapshot.firstDepartingAt(after.getHour()*60+after.getMinute());i<connections.length;i++){
+            long connection = connections[i];
+            int departure = ConnectionIndex.departureOf(connection);
+            int arrival = departure + LEG_MINUTES;
+            //connections are sorted by arrival too, nothing later beats a direct train that is already there
+            if(arrival >= direct[target]){
+                break;
+            }
+            int slot = ConnectionIndex.slotOf(connection);
+            int position = ConnectionIndex.positionOf(connection);
+            int from = ConnectionIndex.fromOf(connection);
+            int to = ConnectionIndex.toOf(connection);
+            if(from==source){
+                boardAtSource[slot] = position;
+            }else if(direct[from] <= departure && ConnectionIndex.slotOf(directBy[from]) != slot){
+                boardAfterChange[slot] = position;
+            }
+            if(boardAtSource[slot] != -1 && arrival < direct[to] && fits(trainIds[slot], boardAtSource[slot], position + 1, seats)){
+                direct[to] = arrival;
+                directBy[to] = connection;
+                directBoard[to] = boardAtSource[slot];
+            }
+            if(to==target && boardAfterChange[slot] != -1 && arrival < changed && arrival < direct[target]
+                    && fits(trainIds[slot], boardAfterChange[slot], position + 1, seats)){
+                changed = arrival;
+                changedBy = connection;
+                changedBoard = boardAfterChange[slot];
+            }
+        }
+
+        if(direct[target] != Integer.MAX_VALUE){
+            journeys.add(new JourneyDto(Collections.singletonList(leg(trainIds, directBy[target], directBoard[target]))));
+        }
+        if(changed < direct[target]){
+            JourneyLegDto second = leg(trainIds, changedBy, changedBoard);
+            int transfer = second.getFromStation().ordinal();
+            JourneyLegDto first = leg(trainIds, directBy[transfer], directBoard[transfer]);
+            //the earliest arrival first
+            journeys.add(0, new JourneyDto(Arrays.asList(first, second)));
+        }
+        return journeys;
+    }
+
+    private boolean fits(int trainId, int from, int to, int seats){
+        if(seats <= 0){
+            return true;
+        }
+        ReentrantLock lock = bookingLocks.forTrain(trainId);
+        lock.lock();
+        try{
+            return seatInventory.forTrain(trainId).availableSeats(from, to) >= seats;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    //The ride on the connection's train from the board position to the end of the connection
+    private JourneyLegDto leg(int[] trainIds, long connection, int board){
+        int trainId = trainIds[ConnectionIndex.slotOf(connection)];
+        Route route = trainCache.get(trainId).getRoute();
+        int position = ConnectionIndex.positionOf(connection);
+        int arrival = ConnectionIndex.departureOf(connection) + LEG_MINUTES;
+        int departure = arrival - (position + 1 - board) * LEG_MINUTES;
+        return new JourneyLegDto(trainId, route.stationAt(board), route.stationAt(position + 1),
+                LocalTime.MIN.plusMinutes(departure), LocalTime.MIN.plusMinutes(arrival));
+    }
+}
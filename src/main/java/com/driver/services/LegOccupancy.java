@@ -0,0 +1,113 @@
+package com.driver.services;
+
+/**
+ * Segment tree over the legs of a route (leg i runs from station i to station i+1).
+ * Supports adding seats over a range of legs and asking for the maximum occupancy
+ * over a range of legs, both in O(log legs). Ranges are half open: [from,to).
+ */
+public class LegOccupancy {
+
+    private final int legs;
+
+    private final int[] max;
+
+    private final int[] pending;
+
+    public LegOccupancy(int legs) {
+        this(new int[legs]);
+    }
+
+    public LegOccupancy(int[] occupancyPerLeg) {
+        this.legs = occupancyPerLeg.length;
+        int size = 1;
+        while (size < Math.max(legs, 1)) {
+            size <<= 1;
+        }
+        this.max = new int[2 * size];
+        this.pending = new int[2 * size];
+        if (legs > 0) {
+            build(1, 0, legs, occupancyPerLeg);
+        }
+    }
+
+    public int getLegs() {
+        return legs;
+    }
+
+    //Maximum number of seats occupied on any leg in [from,to), 0 for an empty range
+    public int max(int from, int to) {
+        if (from >= to) {
+            return 0;
+        }
+        return max(1, 0, legs, from, to);
+    }
+
+    //Occupy (or release, for negative seats) the given number of seats on every leg in [from,to)
+    public void add(int from, int to, int seats) {
+        if (from >= to) {
+            return;
+        }
+        add(1, 0, legs, from, to, seats);
+    }
+
+    //Occupancy of every leg, in O(legs)
+    public int[] perLeg() {
+        int[] occupancy = new int[legs];
+        if (legs > 0) {
+            collect(1, 0, legs, 0, occupancy);
+        }
+        return occupancy;
+    }
+
+    private void collect(int node, int lo, int hi, int above, int[] occupancy) {
+        if (hi - lo == 1) {
+            occupancy[lo] = max[node] + above;
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        collect(2 * node, lo, mid, above + pending[node], occupancy);
+        collect(2 * node + 1, mid, hi, above + pending[node], occupancy);
+    }
+
+    private void build(int node, int lo, int hi, int[] values) {
+        if (hi - lo == 1) {
+            max[node] = values[lo];
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        build(2 * node, lo, mid, values);
+        build(2 * node + 1, mid, hi, values);
+        max[node] = Math.max(max[2 * node], max[2 * node + 1]);
+    }
+
+    private int max(int node, int lo, int hi, int from, int to) {
+        if (from <= lo && hi <= to) {
+            return max[node];
+        }
+        int mid = (lo + hi) >>> 1;
+        int best = Integer.MIN_VALUE;
+        if (from < mid) {
+            best = Math.max(best, max(2 * node, lo, mid, from, to));
+        }
+        if (to > mid) {
+            best = Math.max(best, max(2 * node + 1, mid, hi, from, to));
+        }
+        return best + pending[node];
+    }
+
+    private void add(int node, int lo, int hi, int from, int to, int seats) {
+        if (from <= lo && hi <= to) {
+            max[node] += seats;
+            pending[node] += seats;
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (from < mid) {
+            add(2 * node, lo, mid, from, to, seats);
+        }
+        if (to > mid) {
+            add(2 * node + 1, mid, hi, from, to, seats);
+        }
+        max[node] = Math.max(max[2 * node], max[2 * node + 1]) + pending[node];
+    }
+}
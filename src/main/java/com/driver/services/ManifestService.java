@@ -0,0 +1,131 @@
+package com.driver.services;
+
+import com.driver.ShardedDataSource;
+import com.driver.repository.ManifestRow;
+import com.driver.repository.TicketRepository;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+@Service
+public class ManifestService {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @Autowired
+    TicketRepository ticketRepository;
+
+    @Autowired
+    TrainCache trainCache;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    public boolean trainExists(int trainId){
+        return trainCache.get(trainId)!=null;
+    }
+
+    @Timed("irctc.service")
+    public long writeManifest(int trainId, DataFormat format, OutputStream out){
+
+        //Every passenger of every ticket of the train, one line each, written as the rows come
+        //off the cursor: nothing is kept per row, so memory stays flat however big the train.
+        //The transaction, and its connection, lasts as long as the writing does.
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        Long rows = ShardedDataSource.on(ShardedDataSource.shardOf(trainId), () -> transaction.execute(status -> {
+            try(Stream<ManifestRow> manifest = ticketRepository.streamManifest(trainId)){
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+                long written = format==DataFormat.CSV ? writeCsv(manifest, writer) : writeNdjson(manifest, writer);
+                writer.flush();
+                return written;
+            }catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }));
+        return rows==null ? 0 : rows;
+    }
+
+    private long writeCsv(Stream<ManifestRow> manifest, Writer writer) throws IOException {
+        writer.write("ticketId,fromStation,toStation,seatNumbers,passengerId,name,age\n");
+        long written = 0;
+        for(ManifestRow row : (Iterable<ManifestRow>) manifest::iterator){
+            writer.write(Integer.toString(row.getTicketId()));
+            writer.write(',');
+            writer.write(row.getFromStation().name());
+            writer.write(',');
+            writer.write(row.getToStation().name());
+            writer.write(',');
+            //seats are space separated so the column needs no quoting
+            int[] seats = row.getSeatNumbers();
+            for(int i=0;seats!=null&&i<seats.length;i++){
+                if(i>0){
+                    writer.write(' ');
+                }
+                writer.write(Integer.toString(seats[i]));
+            }
+            writer.write(',');
+            writer.write(Integer.toString(row.getPassengerId()));
+            writer.write(',');
+            writeCsvField(writer, row.getName());
+            writer.write(',');
+            writer.write(Integer.toString(row.getAge()));
+            writer.write('\n');
+            written++;
+        }
+        return written;
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if(value==null){
+            return;
+        }
+        if(value.indexOf(',')==-1&&value.indexOf('"')==-1&&value.indexOf('\n')==-1&&value.indexOf('\r')==-1){
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private long writeNdjson(Stream<ManifestRow> manifest, Writer writer) throws IOException {
+        //objects are separated by the newlines written below, not by the default space
+        JsonGenerator json = JSON.createGenerator(writer).setRootValueSeparator(null);
+        long written = 0;
+        for(ManifestRow row : (Iterable<ManifestRow>) manifest::iterator){
+            json.writeStartObject();
+            json.writeNumberField("ticketId", row.getTicketId());
+            json.writeStringField("fromStation", row.getFromStation().name());
+            json.writeStringField("toStation", row.getToStation().name());
+            int[] seats = row.getSeatNumbers();
+            json.writeFieldName("seatNumbers");
+            if(seats==null){
+                json.writeNull();
+            }else{
+                json.writeArray(seats, 0, seats.length);
+            }
+            json.writeNumberField("passengerId", row.getPassengerId());
+            json.writeStringField("name", row.getName());
+            json.writeNumberField("age", row.getAge());
+            json.writeEndObject();
+            json.writeRaw('\n');
+            written++;
+        }
+        json.flush();
+        return written;
+    }
+}
@@ -1,23 +1,77 @@
 package com.driver.services;
 
 
+import com.driver.ShardedDataSource;
 import com.driver.model.Passenger;
 import com.driver.repository.PassengerRepository;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 @Service
 public class PassengerService {
 
+    private static final Logger log = LoggerFactory.getLogger(PassengerService.class);
+
+    //a shard that is briefly unreachable gets the copy on a later try
+    private static final int COPY_ATTEMPTS = 3;
+
     @Autowired
     PassengerRepository passengerRepository;
 
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Timed("irctc.service")
     public Integer addPassenger(Passenger passenger){
         //Add the passenger Object in the passengerDb and return the passegnerId
         // that has been returned
-        passengerRepository.save(passenger);
+        //Passengers are created on shard 0, which hands out their ids, and copied to the others
+        ShardedDataSource.on(0, () -> passengerRepository.save(passenger));
+        if(!copyToOtherShards(Collections.singletonList(passenger)).isEmpty()){
+            throw new IllegalStateException("Passenger "+passenger.getPassengerId()+" could not be copied to every shard");
+        }
 
         return passenger.getPassengerId();
     }
 
+    //Inserts saved passengers, ids and all, on every shard but 0 so tickets anywhere can refer to them.
+    //A passenger already on a shard is skipped, so a copy that failed half way is simply run again.
+    //Returns the shards that still miss some of the passengers after COPY_ATTEMPTS tries.
+    public List<Integer> copyToOtherShards(List<Passenger> passengers){
+        List<Integer> failed=new ArrayList<>();
+        if(ShardedDataSource.shards()==1||passengers.isEmpty()){
+            return failed;
+        }
+        List<Object[]> rows=new ArrayList<>(passengers.size());
+        for(Passenger passenger: passengers){
+            rows.add(new Object[]{passenger.getPassengerId(),passenger.getName(),passenger.getAge(),passenger.getPassengerId()});
+        }
+        for(int shard=1;shard<ShardedDataSource.shards();shard++){
+            RuntimeException failure=null;
+            for(int attempt=0;attempt<COPY_ATTEMPTS;attempt++){
+                try{
+                    ShardedDataSource.on(shard, () -> jdbcTemplate.batchUpdate("insert into passenger (passenger_id, name, age) " +
+                            "select ?, ?, ? from dual where not exists (select 1 from passenger where passenger_id = ?)", rows));
+                    failure=null;
+                    break;
+                }catch (RuntimeException e){
+                    failure=e;
+                }
+            }
+            if(failure!=null){
+                log.warn("Could not copy {} passengers to shard {}", passengers.size(), shard, failure);
+                failed.add(shard);
+            }
+        }
+        return failed;
+    }
+
 }
@@ -0,0 +1,44 @@
+package com.driver.services;
+
+import com.driver.ReplicaRoutingDataSource;
+import com.driver.ShardedDataSource;
+import com.driver.repository.BoardingAgeCount;
+import com.driver.repository.TicketRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds one {@link TrainPassengerStats} per train. They are rebuilt from a single grouped
+ * query the first time a train is asked for (eg. after a restart) and kept up to date
+ * by bookings and cancellations afterwards.
+ */
+@Component
+public class PassengerStatistics {
+
+    @Autowired
+    TicketRepository ticketRepository;
+
+    private final ConcurrentMap<Integer, TrainPassengerStats> statistics = new ConcurrentHashMap<>();
+
+    public TrainPassengerStats forTrain(int trainId) {
+        return statistics.computeIfAbsent(trainId, this::load);
+    }
+
+    //Drops the train's aggregates when a change couldn't be applied to them, the next ask rebuilds them
+    public void invalidate(int trainId) {
+        statistics.remove(trainId);
+    }
+
+    private TrainPassengerStats load(int trainId) {
+        TrainPassengerStats stats = new TrainPassengerStats();
+        //passengers grouped by (boarding station, age) give both the boarding counts and the age histogram
+        for (BoardingAgeCount count : ShardedDataSource.on(ShardedDataSource.shardOf(trainId), () ->
+                ReplicaRoutingDataSource.onPrimary(() -> ticketRepository.countPassengersByBoardingAndAge(trainId)))) {
+            stats.add(count.getFromStation(), count.getAge(), (int) count.getPassengers());
+        }
+        return stats;
+    }
+}
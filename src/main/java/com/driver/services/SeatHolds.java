@@ -0,0 +1,192 @@
+package com.driver.services;
+
+import com.driver.EntryDto.BookTicketEntryDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Seats held for a booking that hasn't been confirmed yet, eg. while it is being paid for.
+ * A hold has its seats taken in the train's inventory but no ticket row; it ends when it is
+ * confirmed, released or when irctc.hold.duration-seconds have passed. Holds only live in
+ * memory, after a restart their seats are simply free again.
+ *
+ * Expiry runs on a {@link TimingWheel} advanced by one thread every irctc.hold.tick-millis,
+ * so there is no timer per hold and no query looking for expired ones. Whichever of
+ * confirm, release and expiry removes the hold from the map first is the one that ends it.
+ */
+@Component
+public class SeatHolds {
+
+    private static final Logger log = LoggerFactory.getLogger(SeatHolds.class);
+
+    private final long durationNanos;
+
+    private final long tickMillis;
+
+    private final TimingWheel<SeatHold> wheel;
+
+    private final ConcurrentMap<Long, SeatHold> holds = new ConcurrentHashMap<>();
+
+    private final AtomicLong holdIds = new AtomicLong();
+
+    private volatile Consumer<SeatHold> onExpiry = hold -> { };
+
+    private ScheduledExecutorService ticker;
+
+    @Autowired
+    public SeatHolds(@Value("${irctc.hold.duration-seconds:300}") long durationSeconds,
+                     @Value("${irctc.hold.tick-millis:1000}") long tickMillis,
+                     @Value("${irctc.hold.wheel-size:512}") int wheelSize) {
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.tickMillis = tickMillis;
+        this.wheel = new TimingWheel<>(TimeUnit.MILLISECONDS.toNanos(tickMillis), wheelSize, System.nanoTime());
+    }
+
+    //Starts expiring holds, onExpiry gets each expired hold to give its seats back
+    public synchronized void start(Consumer<SeatHold> onExpiry) {
+        this.onExpiry = onExpiry;
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "seat-hold-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> expire(System.nanoTime()), tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    public int size() {
+        return holds.size();
+    }
+
+    //Registers seats the caller has already taken in the train's inventory
+    public SeatHold hold(int trainId, int from, int to, int[] seatNumbers, BookTicketEntryDto booking) {
+        long now = System.nanoTime();
+        SeatHold hold = new SeatHold(holdIds.incrementAndGet(), trainId, from, to, seatNumbers, booking,
+                System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(durationNanos));
+        //on the wheel before it can be found, an end() that gets it from the map always has a node to cancel
+        hold.node = wheel.schedule(hold, now + durationNanos);
+        holds.put(hold.holdId, hold);
+        return hold;
+    }
+
+    public SeatHold get(long holdId) {
+        return holds.get(holdId);
+    }
+
+    //The holds on one train, a scan of all of them for the rare times a train's inventory is rebuilt
+    public List<SeatHold> heldOn(int trainId) {
+        List<SeatHold> held = new ArrayList<>();
+        for (SeatHold hold : holds.values()) {
+            if (hold.trainId == trainId) {
+                held.add(hold);
+            }
+        }
+        return held;
+    }
+
+    //Ends the hold for a confirm or a release, false if it has already ended
+    public boolean end(SeatHold hold) {
+        if (!holds.remove(hold.holdId, hold)) {
+            return false;
+        }
+        wheel.cancel(hold.node);
+        return true;
+    }
+
+    //Ends the holds due by nowNanos and hands them to onExpiry
+    public void expire(long nowNanos) {
+        for (SeatHold hold : wheel.advance(nowNanos)) {
+            if (!holds.remove(hold.holdId, hold)) {
+                continue;
+            }
+            try {
+                onExpiry.accept(hold);
+            } catch (RuntimeException e) {
+                log.error("Could not release the seats of expired hold {}", hold.holdId, e);
+            }
+        }
+    }
+
+    //Seats held on one train, from and to are positions on its route
+    public static final class SeatHold {
+
+        private final long holdId;
+
+        private final int trainId;
+
+        private final int from;
+
+        private final int to;
+
+        private final int[] seatNumbers;
+
+        private final BookTicketEntryDto booking;
+
+        private final long expiresAt;
+
+        private volatile TimingWheel.Node<SeatHold> node;
+
+        SeatHold(long holdId, int trainId, int from, int to, int[] seatNumbers, BookTicketEntryDto booking, long expiresAt) {
+            this.holdId = holdId;
+            this.trainId = trainId;
+            this.from = from;
+            this.to = to;
+            this.seatNumbers = seatNumbers;
+            this.booking = booking;
+            this.expiresAt = expiresAt;
+        }
+
+        public long getHoldId() {
+            return holdId;
+        }
+
+        public int getTrainId() {
+            return trainId;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        public int[] getSeatNumbers() {
+            return seatNumbers;
+        }
+
+        public BookTicketEntryDto getBooking() {
+            return booking;
+        }
+
+        //epoch millis
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
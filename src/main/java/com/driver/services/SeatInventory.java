@@ -0,0 +1,136 @@
+package com.driver.services;
+
+import com.driver.ReplicaRoutingDataSource;
+import com.driver.ShardedDataSource;
+import com.driver.model.Route;
+import com.driver.repository.SeatAssignment;
+import com.driver.repository.TicketRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds one {@link TrainInventory} per train. The inventory of a train is rebuilt from
+ * its booked tickets, or from the {@link BookingJournal} when it is enabled, the first
+ * time the train is seen and kept up to date by the booking path afterwards, so
+ * availability checks don't need to scan the tickets again.
+ */
+@Component
+public class SeatInventory {
+
+    @Autowired
+    TrainCache trainCache;
+
+    @Autowired
+    TicketRepository ticketRepository;
+
+    @Autowired
+    BookingJournal bookingJournal;
+
+    //best fit keeps long free stretches of a seat for long journeys, first fit is the cheaper search
+    @Value("${irctc.seat-map.best-fit:true}")
+    boolean bestFit = true;
+
+    static final String ROUTE_TOO_LONG = "Route is too long to book, at most " + SeatMap.MAX_LEGS + " legs";
+
+    private final ConcurrentMap<Integer, TrainInventory> inventories = new ConcurrentHashMap<>();
+
+    //Throws NoSuchElementException if there is no such train, and IllegalStateException
+    //if its route was saved before routes were capped and doesn't fit the seat map
+    public TrainInventory forTrain(int trainId) {
+        return inventories.computeIfAbsent(trainId, id -> ShardedDataSource.on(ShardedDataSource.shardOf(id), () -> ReplicaRoutingDataSource.onPrimary(() -> {
+            TrainMetadata train = trainCache.get(id);
+            if (train == null) {
+                throw new NoSuchElementException("Train not found");
+            }
+            if (!train.getRoute().isBookable()) {
+                throw new IllegalStateException(ROUTE_TOO_LONG);
+            }
+            //a replayed journal already knows the legs every seat is taken on, no need to query the tickets
+            long[] seatLegs = bookingJournal.isReady() ? bookingJournal.seatLegs(id)
+                    : seatLegs(ticketRepository.findSeatAssignments(id), train.getRoute());
+            return build(id, train.getNoOfSeats(), train.getRoute(), seatLegs, bestFit);
+        })));
+    }
+
+    public void evict(int trainId) {
+        inventories.remove(trainId);
+    }
+
+    static TrainInventory build(int trainId, int capacity, Route route, long[] seatLegs, boolean bestFit) {
+        int legs = route.legs();
+        SeatMap seatMap = new SeatMap(capacity, legs, bestFit);
+        int[] occupancyPerLeg = new int[legs];
+        for (int seat = 1; seat <= seatLegs.length; seat++) {
+            long taken = seatLegs[seat - 1];
+            //seats past the capacity still count as occupied, they just can't be on the map
+            if (seat <= capacity) {
+                seatMap.occupyLegs(seat, taken);
+            }
+            for (long bits = taken; bits != 0; bits &= bits - 1) {
+                int leg = Long.numberOfTrailingZeros(bits);
+                if (leg < legs) {
+                    occupancyPerLeg[leg]++;
+                }
+            }
+        }
+        return new TrainInventory(trainId, capacity, route, occupancyPerLeg, seatMap);
+    }
+
+    //The legs each seat of a train is taken on, indexed by seat number - 1. Tickets booked
+    //before seats were assigned are given the lowest seats still free for their journey.
+    static long[] seatLegs(List<SeatAssignment> tickets, Route route) {
+        long[] seatLegs = new long[0];
+        List<SeatAssignment> unassigned = new ArrayList<>();
+        for (SeatAssignment ticket : tickets) {
+            long legs = legsOf(ticket, route);
+            if (legs == -1) {
+                continue;
+            }
+            if (ticket.getSeatNumbers() == null) {
+                unassigned.add(ticket);
+                continue;
+            }
+            for (int seat : ticket.getSeatNumbers()) {
+                seatLegs = ensureSeats(seatLegs, seat);
+                seatLegs[seat - 1] |= legs;
+            }
+        }
+        for (SeatAssignment ticket : unassigned) {
+            long legs = legsOf(ticket, route);
+            int placed = 0;
+            for (int seat = 1; placed < ticket.getPassengers(); seat++) {
+                seatLegs = ensureSeats(seatLegs, seat);
+                if ((seatLegs[seat - 1] & legs) == 0) {
+                    seatLegs[seat - 1] |= legs;
+                    placed++;
+                }
+            }
+        }
+        return seatLegs;
+    }
+
+    //-1 if the ticket's stations aren't a journey on the route
+    private static long legsOf(SeatAssignment ticket, Route route) {
+        int from = route.positionOf(ticket.getFromStation());
+        int to = route.positionOf(ticket.getToStation());
+        if (from == -1 || to == -1 || to < from) {
+            return -1;
+        }
+        return SeatMap.mask(from, to);
+    }
+
+    private static long[] ensureSeats(long[] seatLegs, int seat) {
+        if (seat <= seatLegs.length) {
+            return seatLegs;
+        }
+        return Arrays.copyOf(seatLegs, Math.max(seat, seatLegs.length * 2));
+    }
+}
@@ -0,0 +1,173 @@
+package com.driver.services;
+
+import com.driver.model.Route;
+
+import java.util.Arrays;
+
+/**
+ * Which legs of the route every seat of a train is booked on: one long per seat, bit i
+ * set when the seat is taken on leg i (from station i to station i+1). A seat fits a
+ * journey [from,to) when its bits in that range are all clear, so a seat freed on part of
+ * the route can be sold again for another part of it.
+ *
+ * Seats are numbered from 1. Searches are a mask test per seat and allocate nothing.
+ * With best fit the seat chosen is the one whose free stretch around the journey is the
+ * shortest, which keeps long free stretches for long journeys.
+ */
+public class SeatMap {
+
+    //routes are capped so the legs of a seat fit in one long
+    public static final int MAX_LEGS = Route.MAX_LEGS;
+
+    private final long[] seats;
+
+    private final int legs;
+
+    private final boolean bestFit;
+
+    public SeatMap(int capacity, int legs, boolean bestFit) {
+        if (legs > MAX_LEGS) {
+            throw new IllegalArgumentException("Route is too long");
+        }
+        this.seats = new long[capacity];
+        this.legs = legs;
+        this.bestFit = bestFit;
+    }
+
+    public int getCapacity() {
+        return seats.length;
+    }
+
+    public boolean isFree(int seat, int from, int to) {
+        return (seats[seat - 1] & mask(from, to)) == 0;
+    }
+
+    //Seats free on every leg of [from,to)
+    public int countFree(int from, int to) {
+        long mask = mask(from, to);
+        int free = 0;
+        for (long seat : seats) {
+            if ((seat & mask) == 0) {
+                free++;
+            }
+        }
+        return free;
+    }
+
+    //Seats free on every leg of [i,j) for every pair of stations i<j, as the upper triangle
+    //row by row. A seat free on leg i stays free up to its next taken leg, so counting where
+    //each seat's free stretch from i ends and summing those counts from the far end gives
+    //the whole row: O(seats) per boarding station instead of O(seats) per pair.
+    public int[] countFreeAll() {
+        int stations = legs + 1;
+        int[] free = new int[stations * (stations - 1) / 2];
+        int[] endingAt = new int[stations];
+        int row = 0;
+        for (int from = 0; from < legs; from++) {
+            Arrays.fill(endingAt, 0);
+            for (long seat : seats) {
+                long ahead = seat >>> from;
+                endingAt[ahead == 0 ? legs : from + Long.numberOfTrailingZeros(ahead)]++;
+            }
+            //free[(from,to)] = seats whose stretch reaches to or beyond
+            int reaching = 0;
+            for (int to = legs; to > from; to--) {
+                reaching += endingAt[to];
+                free[row + to - from - 1] = reaching;
+            }
+            row += legs - from;
+        }
+        return free;
+    }
+
+    //Takes one free seat per element of seatNumbers and writes their numbers into it.
+    //Either all of them are taken or, if there aren't enough, none and false is returned.
+    public boolean allocate(int from, int to, int[] seatNumbers) {
+        long mask = mask(from, to);
+        if (mask == 0) {
+            //a journey without legs needs no seat to itself, any distinct numbers do
+            if (seatNumbers.length > seats.length) {
+                return false;
+            }
+            for (int i = 0; i < seatNumbers.length; i++) {
+                seatNumbers[i] = i + 1;
+            }
+            return true;
+        }
+        int taken = 0;
+        while (taken < seatNumbers.length) {
+            int seat = bestFit ? bestFit(mask, from, to) : firstFit(mask);
+            if (seat == -1) {
+                for (int i = 0; i < taken; i++) {
+                    seats[seatNumbers[i] - 1] &= ~mask;
+                }
+                return false;
+            }
+            seats[seat] |= mask;
+            seatNumbers[taken++] = seat + 1;
+        }
+        return true;
+    }
+
+    //Marks a seat as taken on [from,to), eg. when rebuilding from the booked tickets
+    public void occupy(int seat, int from, int to) {
+        seats[seat - 1] |= mask(from, to);
+    }
+
+    //Marks a seat as taken on every leg set in legs
+    public void occupyLegs(int seat, long legs) {
+        seats[seat - 1] |= legs;
+    }
+
+    public void release(int from, int to, int[] seatNumbers) {
+        long mask = mask(from, to);
+        for (int seat : seatNumbers) {
+            seats[seat - 1] &= ~mask;
+        }
+    }
+
+    private int firstFit(long mask) {
+        for (int i = 0; i < seats.length; i++) {
+            if ((seats[i] & mask) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int bestFit(long mask, int from, int to) {
+        long below = from == 0 ? 0 : -1L >>> (64 - from);
+        long above = to >= 64 ? 0 : -1L << to;
+        int best = -1;
+        int bestSlack = Integer.MAX_VALUE;
+        for (int i = 0; i < seats.length; i++) {
+            long seat = seats[i];
+            if ((seat & mask) != 0) {
+                continue;
+            }
+            //free legs right before the journey, up to the nearest taken one, and right after it
+            long takenBelow = seat & below;
+            int freeBefore = takenBelow == 0 ? from : from - (64 - Long.numberOfLeadingZeros(takenBelow));
+            long takenAbove = seat & above;
+            int freeAfter = (takenAbove == 0 ? legs : Long.numberOfTrailingZeros(takenAbove)) - to;
+            int slack = freeBefore + freeAfter;
+            if (slack < bestSlack) {
+                best = i;
+                bestSlack = slack;
+                if (slack == 0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    //The legs [from,to) as bits
+    public static long mask(int from, int to) {
+        if (from >= to) {
+            return 0;
+        }
+        long upTo = to >= 64 ? -1L : (1L << to) - 1;
+        return upTo & (-1L << from);
+    }
+}
@@ -0,0 +1,128 @@
+package com.driver.services;
+
+import com.driver.model.Route;
+import com.driver.model.Station;
+import com.driver.model.Train;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * For every station, a sorted array of the trains arriving there, each entry packed into
+ * a long as (arrivalMinute << 32 | trainId). A time window is then answered with two
+ * binary searches instead of walking every train's route.
+ *
+ * Arrays are copy-on-write: readers never lock, writers are serialized.
+ */
+@Component
+public class StationArrivalIndex {
+
+    private static final long[] EMPTY = new long[0];
+
+    private volatile long[][] arrivals;
+
+    private volatile boolean loaded;
+
+    public StationArrivalIndex() {
+        long[][] initial = new long[Station.values().length][];
+        Arrays.fill(initial, EMPTY);
+        this.arrivals = initial;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    //Reads the trains and indexes them, once. The read happens under the lock add takes, so a
+    //train saved meanwhile is either read or added once the load is done, never missed.
+    public synchronized void load(Supplier<? extends Iterable<Train>> trains) {
+        if (loaded) {
+            return;
+        }
+        for (Train train : trains.get()) {
+            merge(train);
+        }
+        loaded = true;
+    }
+
+    //Trains added before the index is loaded are left to the load, which reads them with the
+    //rest, so a bulk import doesn't build an index nobody has searched yet. The train has to
+    //be saved already.
+    public synchronized void add(Train train) {
+        if (loaded) {
+            merge(train);
+        }
+    }
+
+    //A train reaches the i-th station of its route i hours after its departure
+    private void merge(Train train) {
+        Route route = train.getRoute();
+        LocalTime departureTime = train.getDepartureTime();
+        int departureTimeInMin = departureTime.getHour() * 60 + departureTime.getMinute();
+
+        long[][] next = arrivals.clone();
+        for (int i = 0; i < route.size(); i++) {
+            int station = route.stationAt(i).ordinal();
+            long entry = pack(departureTimeInMin + i * 60, train.getTrainId());
+            long[] current = next[station];
+            int at = Arrays.binarySearch(current, entry);
+            if (at >= 0) {
+                continue;
+            }
+            at = -at - 1;
+            long[] grown = new long[current.length + 1];
+            System.arraycopy(current, 0, grown, 0, at);
+            grown[at] = entry;
+            System.arraycopy(current, at, grown, at + 1, current.length - at);
+            next[station] = grown;
+        }
+        arrivals = next;
+    }
+
+    //Ids of the trains arriving at the station between the two minutes of the day, both included.
+    //The ids come back ordered by trainId and then by arrival, like a scan over all trains would return them.
+    public List<Integer> trainsBetween(Station station, int startTimeInMin, int endTimeInMin) {
+        List<Integer> trainIds = new ArrayList<>();
+        if (endTimeInMin < startTimeInMin) {
+            return trainIds;
+        }
+        long[] entries = arrivals[station.ordinal()];
+        int from = lowerBound(entries, pack(startTimeInMin, 0));
+        int to = lowerBound(entries, pack(endTimeInMin + 1, 0));
+        if (from >= to) {
+            return trainIds;
+        }
+
+        long[] byTrain = new long[to - from];
+        for (int i = from; i < to; i++) {
+            byTrain[i - from] = ((entries[i] & 0xFFFFFFFFL) << 32) | (entries[i] >>> 32);
+        }
+        Arrays.sort(byTrain);
+        for (long entry : byTrain) {
+            trainIds.add((int) (entry >>> 32));
+        }
+        return trainIds;
+    }
+
+    private static long pack(int arrivalInMin, int trainId) {
+        return ((long) arrivalInMin << 32) | (trainId & 0xFFFFFFFFL);
+    }
+
+    private static int lowerBound(long[] entries, long key) {
+        int lo = 0;
+        int hi = entries.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -1,24 +1,60 @@
 package com.driver.services;
 
-
 import com.driver.EntryDto.BookTicketEntryDto;
 import com.driver.EntryDto.SeatAvailabilityEntryDto;
+import com.driver.ReplicaRoutingDataSource;
+import com.driver.ShardedDataSource;
+import com.driver.ResponseDto.BookingResultDto;
+import com.driver.ResponseDto.SeatHoldDto;
+import com.driver.model.IdempotencyKey;
 import com.driver.model.Passenger;
 import com.driver.model.Station;
 import com.driver.model.Ticket;
-import com.driver.model.Train;
+import com.driver.model.WaitlistEntry;
+import com.driver.repository.BoardingAgeCount;
+import com.driver.repository.IdempotencyKeyRepository;
 import com.driver.repository.PassengerRepository;
 import com.driver.repository.TicketRepository;
 import com.driver.repository.TrainRepository;
+import com.driver.repository.WaitlistRepository;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class TicketService {
 
+    private static final Logger log = LoggerFactory.getLogger(TicketService.class);
+
+    private static final String LESS_TICKETS="Less tickets are available";
+
+    private static final String NOT_SAVED="Booking could not be saved";
+
+    static final String INVALID_SEATS="Invalid number of seats";
+
     @Autowired
     TicketRepository ticketRepository;
 
@@ -28,7 +64,62 @@ public class TicketService {
     @Autowired
     PassengerRepository passengerRepository;
 
+    @Autowired
+    SeatInventory seatInventory;
+
+    @Autowired
+    TrainCache trainCache;
+
+    @Autowired
+    PassengerStatistics passengerStatistics;
+
+    @Autowired
+    BookingLocks bookingLocks;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    BookingMetrics bookingMetrics;
+
+    @Autowired
+    BookingSequencer bookingSequencer;
+
+    @Autowired
+    BookingJournal bookingJournal;
+
+    @Autowired
+    WaitlistRepository waitlistRepository;
+
+    @Autowired
+    Waitlists waitlists;
+
+    @Autowired
+    SeatHolds seatHolds;
 
+    @Autowired
+    FareEngine fareEngine;
+
+    @Autowired
+    IdempotencyCache idempotencyCache;
+
+    @Autowired
+    IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @PostConstruct
+    public void startSequencer(){
+        if(bookingSequencer.isEnabled()){
+            bookingSequencer.start(this::bookTickets);
+        }
+    }
+
+    @PostConstruct
+    public void startHolds(){
+        seatHolds.start(this::expired);
+    }
+
+
+    @Timed("irctc.service")
     public Integer bookTicket(BookTicketEntryDto bookTicketEntryDto)throws Exception{
 
         //Check for validity
@@ -46,62 +137,780 @@ public class TicketService {
 
 
 
-        Train train=trainRepository.findById(bookTicketEntryDto.getTrainId()).get();
-        int bookedSeats=0;
-        List<Ticket>booked=train.getBookedTickets();
-        for(Ticket ticket:booked){
-            bookedSeats+=ticket.getPassengersList().size();
+        //A booking sent with an Idempotency-Key is made at most once, a retry gets the same ticketId
+        if(bookTicketEntryDto.getIdempotencyKey()!=null){
+            return bookOnce(bookTicketEntryDto);
         }
+        return book(bookTicketEntryDto);
+    }
 
-        if(bookedSeats+bookTicketEntryDto.getNoOfSeats()> train.getNoOfSeats()){
-            throw new Exception("Less tickets are available");
+    private Integer book(BookTicketEntryDto bookTicketEntryDto)throws Exception{
+
+        //A single booking is a batch of one: same locking, one bulk load of the train and of
+        //all the passengers, and a single transaction for the ticket and the join table rows.
+        //In sequenced mode it is queued to the train's lane and booked along with whatever
+        //else is waiting for that train.
+        BookingResultDto result;
+        if(bookingSequencer.isEnabled()){
+            result=bookingSequencer.submit(bookTicketEntryDto).join();
+        }else{
+            result=bookTickets(Collections.singletonList(bookTicketEntryDto)).get(0);
+        }
+        if(result.getFailureReason()!=null){
+            throw new Exception(result.getFailureReason());
         }
+        return result.getTicketId();
+    }
+
+    private Integer bookOnce(BookTicketEntryDto bookTicketEntryDto)throws Exception{
 
-        String stations[]=train.getRoute().split(",");
-        List<Passenger>passengerList=new ArrayList<>();
-        List<Integer>ids=bookTicketEntryDto.getPassengerIds();
-        for(int id: ids){
-            passengerList.add(passengerRepository.findById(id).get());
+        String clientKey=bookTicketEntryDto.getIdempotencyKey();
+        if(clientKey.isEmpty()||clientKey.length()>IdempotencyKey.MAX_LENGTH){
+            throw new Exception("Invalid idempotency key");
         }
-        int x=-1,y=-1;
-        for(int i=0;i<stations.length;i++){
-            if(bookTicketEntryDto.getFromStation().toString().equals(stations[i])){
-                x=i;
-                break;
+        //the key is scoped to the train, so a booking that names none fails before claiming it
+        String invalid=invalid(bookTicketEntryDto);
+        if(invalid!=null){
+            throw new Exception(invalid);
+        }
+        String key=IdempotencyKey.of(bookTicketEntryDto.getTrainId(),clientKey);
+        //One probe both looks the key up and claims it, a duplicate finds the first request's
+        //future and waits for its outcome, whether it is still in flight or long done
+        CompletableFuture<Integer> booking=new CompletableFuture<>();
+        CompletableFuture<Integer> earlier=idempotencyCache.claim(key,booking);
+        if(earlier!=null){
+            try{
+                return earlier.join();
+            }catch (CompletionException e){
+                //the first request's own failure, an Error or a missing cause is reported as not saved
+                if(e.getCause() instanceof Exception){
+                    throw (Exception) e.getCause();
+                }
+                throw new Exception(NOT_SAVED,e.getCause());
+            }
+        }
+        try{
+            //not booked recently, but it may have been before a restart or before the entry was evicted
+            //keys are stored with the tickets, on the train's shard
+            Optional<IdempotencyKey> stored=ShardedDataSource.on(shardOf(bookTicketEntryDto),() ->
+                    ReplicaRoutingDataSource.onPrimary(() -> idempotencyKeyRepository.findById(key)));
+            Integer ticketId=stored.isPresent()?stored.get().getTicketId():book(bookTicketEntryDto);
+            booking.complete(ticketId);
+            return ticketId;
+        }catch (Exception e){
+            //another instance committed the same key first, its key row made this one roll back
+            if(NOT_SAVED.equals(e.getMessage())){
+                Optional<IdempotencyKey> raced=ShardedDataSource.on(shardOf(bookTicketEntryDto),() ->
+                        ReplicaRoutingDataSource.onPrimary(() -> idempotencyKeyRepository.findById(key)));
+                if(raced.isPresent()){
+                    booking.complete(raced.get().getTicketId());
+                    return raced.get().getTicketId();
+                }
+            }
+            //failures aren't remembered, the next request with the key tries again
+            idempotencyCache.forget(key,booking);
+            booking.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Timed("irctc.service")
+    public List<BookingResultDto> bookTickets(List<BookTicketEntryDto> bookTicketEntryDtos){
+
+        //Books a whole batch against each train's inventory in one pass and persists all the
+        //tickets in a single transaction, so Hibernate can send them as JDBC batch inserts.
+        //Every item gets its own result: the ticketId, or the reason it couldn't be booked.
+        //With the trains spread over shards, each shard's part of the batch is booked on its own.
+        BookingResultDto[] results=new BookingResultDto[bookTicketEntryDtos.size()];
+        if(ShardedDataSource.shards()==1){
+            bookOnShard(0,bookTicketEntryDtos,results);
+        }else{
+            Map<Integer,List<Integer>> byShard=new TreeMap<>();
+            for(int i=0;i<bookTicketEntryDtos.size();i++){
+                byShard.computeIfAbsent(shardOf(bookTicketEntryDtos.get(i)),shard -> new ArrayList<>()).add(i);
+            }
+            for(Map.Entry<Integer,List<Integer>> shard: byShard.entrySet()){
+                List<BookTicketEntryDto> part=new ArrayList<>();
+                for(int i: shard.getValue()){
+                    part.add(bookTicketEntryDtos.get(i));
+                }
+                BookingResultDto[] partResults=new BookingResultDto[part.size()];
+                bookOnShard(shard.getKey(),part,partResults);
+                for(int i=0;i<partResults.length;i++){
+                    results[shard.getValue().get(i)]=partResults[i];
+                }
+            }
+        }
+        List<BookingResultDto> bookingResults=Arrays.asList(results);
+        bookingMetrics.count(bookingResults);
+        return bookingResults;
+    }
+
+    private void bookOnShard(int shard,List<BookTicketEntryDto> bookTicketEntryDtos,BookingResultDto[] results){
+
+        Set<Integer> trainIds=new HashSet<>();
+        for(BookTicketEntryDto dto: bookTicketEntryDtos){
+            if(dto.getTrainId()!=null){
+                trainIds.add(dto.getTrainId());
+            }
+        }
+
+        List<Allocation> allocations=new ArrayList<>();
+
+        List<ReentrantLock> locks=bookingLocks.forTrains(trainIds);
+        long lockStart=System.nanoTime();
+        for(ReentrantLock lock: locks){
+            lock.lock();
+        }
+        bookingMetrics.record(BookingMetrics.LOCK,lockStart);
+        try{
+            long transactionStart=System.nanoTime();
+            List<Ticket> tickets;
+            try{
+                tickets=transaction(shard,status -> allocate(bookTicketEntryDtos,results,allocations));
+            }catch (RuntimeException e){
+                //nothing was committed, hand the seats back and fail the items that had been allocated
+                for(Allocation allocation: allocations){
+                    allocation.inventory.release(allocation.from,allocation.to,allocation.seatNumbers);
+                    results[allocation.index]=BookingResultDto.failed(NOT_SAVED);
+                }
+                //a constraint one row broke, eg. an idempotency key already taken, rolls the whole
+                //batch back: the items are booked again one at a time so only that one fails. Any
+                //other failure (a lost connection, a timeout) would fail them all again, still
+                //holding every lock, so it isn't retried.
+                if(e instanceof DataIntegrityViolationException&&allocations.size()>1){
+                    for(Allocation allocation: allocations){
+                        BookingResultDto[] alone=new BookingResultDto[1];
+                        bookOnShard(shard,Collections.singletonList(bookTicketEntryDtos.get(allocation.index)),alone);
+                        results[allocation.index]=alone[0];
+                    }
+                }
+                //and the ones it hadn't got to yet
+                for(int i=0;i<results.length;i++){
+                    if(results[i]==null){
+                        results[i]=BookingResultDto.failed(NOT_SAVED);
+                    }
+                }
+                return;
+            }
+            bookingMetrics.record(BookingMetrics.TRANSACTION,transactionStart);
+            //committed: the tickets stand whatever happens from here on
+            for(int i=0;i<allocations.size();i++){
+                Allocation allocation=allocations.get(i);
+                Ticket ticket=tickets.get(i);
+                results[allocation.index]=BookingResultDto.booked(ticket.getTicketId());
+                try{
+                    booked(allocation,ticket);
+                }catch (RuntimeException e){
+                    //what missed the ticket is rebuilt from the database instead
+                    log.error("Could not record committed ticket {}, rebuilding the train's aggregates", ticket.getTicketId(), e);
+                    passengerStatistics.invalidate(allocation.inventory.getTrainId());
+                    bookingJournal.suspend();
+                }
+            }
+        }finally {
+            for(int i=locks.size()-1;i>=0;i--){
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    //Why the booking can't be made whatever the state of the train, or null
+    static String invalid(BookTicketEntryDto dto){
+        if(dto.getTrainId()==null){
+            return "Train not found";
+        }
+        if(dto.getFromStation()==null||dto.getToStation()==null){
+            return "Invalid stations";
+        }
+        if(dto.getNoOfSeats()<1){
+            return INVALID_SEATS;
+        }
+        return null;
+    }
+
+    //A transaction on the shard, which stays there for all of its statements
+    private <T> T transaction(int shard,TransactionCallback<T> work){
+        return ShardedDataSource.on(shard,() -> new TransactionTemplate(transactionManager).execute(work));
+    }
+
+    private static int shardOf(BookTicketEntryDto dto){
+        return dto.getTrainId()==null?0:ShardedDataSource.shardOf(dto.getTrainId());
+    }
+
+    private List<Ticket> allocate(List<BookTicketEntryDto> bookTicketEntryDtos,
+                                  BookingResultDto[] results,List<Allocation> allocations){
+
+        Map<Integer,Passenger> passengers=loadPassengers(bookTicketEntryDtos);
+
+        long allocateStart=System.nanoTime();
+        List<Ticket> tickets=new ArrayList<>();
+        for(int i=0;i<bookTicketEntryDtos.size();i++){
+            BookTicketEntryDto dto=bookTicketEntryDtos.get(i);
+            //a malformed item fails on its own before it gets near the inventory
+            String invalid=invalid(dto);
+            if(invalid!=null){
+                results[i]=BookingResultDto.failed(invalid);
+                continue;
+            }
+            //route and capacity come from the train cache, the train row itself is never read
+            TrainMetadata train=trainCache.get(dto.getTrainId());
+            if(train==null){
+                results[i]=BookingResultDto.failed("Train not found");
+                continue;
+            }
+            //a route saved before routes were capped loads, but has no seat map to book on
+            if(!train.getRoute().isBookable()){
+                results[i]=BookingResultDto.failed(SeatInventory.ROUTE_TOO_LONG);
+                continue;
+            }
+            TrainInventory inventory=seatInventory.forTrain(dto.getTrainId());
+            int x=inventory.positionOf(dto.getFromStation());
+            int y=inventory.positionOf(dto.getToStation());
+            if(!inventory.isValidJourney(x,y)){
+                results[i]=BookingResultDto.failed("Invalid stations");
+                continue;
+            }
+            List<Passenger> passengerList=passengersOf(dto,passengers);
+            if(passengerList==null){
+                results[i]=BookingResultDto.failed("Passenger not found");
+                continue;
+            }
+            //claim the seats right away so later items of the batch see them as taken,
+            //the passenger aggregates are loaded now and updated once the tickets are committed
+            int[] seatNumbers=inventory.occupy(x,y,dto.getNoOfSeats());
+            if(seatNumbers==null){
+                results[i]=BookingResultDto.failed(LESS_TICKETS);
+                continue;
+            }
+            allocations.add(new Allocation(i,inventory,passengerStatistics.forTrain(dto.getTrainId()),x,y,seatNumbers));
+            tickets.add(newTicket(dto,x,y,seatNumbers,passengerList,passengers.get(dto.getBookingPersonId())));
+        }
+
+        bookingMetrics.record(BookingMetrics.ALLOCATE,allocateStart);
+
+        long saveStart=System.nanoTime();
+        List<Ticket> saved=ticketRepository.saveAll(tickets);
+        //the keys commit or roll back with their tickets, the primary key stops a second booking
+        //with the same key from committing
+        List<IdempotencyKey> keys=new ArrayList<>();
+        for(int i=0;i<allocations.size();i++){
+            BookTicketEntryDto dto=bookTicketEntryDtos.get(allocations.get(i).index);
+            if(dto.getIdempotencyKey()!=null){
+                keys.add(new IdempotencyKey(IdempotencyKey.of(dto.getTrainId(),dto.getIdempotencyKey()),saved.get(i).getTicketId()));
+            }
+        }
+        if(!keys.isEmpty()){
+            idempotencyKeyRepository.saveAll(keys);
+        }
+        bookingMetrics.record(BookingMetrics.SAVE,saveStart);
+        return saved;
+    }
+
+    @Timed("irctc.service")
+    public BookingResultDto waitlistTicket(BookTicketEntryDto bookTicketEntryDto){
+
+        //Books the ticket if there are seats, otherwise puts it on the train's waitlist.
+        //Both happen under the train's lock, so a cancellation can't free seats in between
+        //and miss the new entry.
+        Integer trainId=bookTicketEntryDto.getTrainId();
+        if(trainId==null||trainCache.get(trainId)==null){
+            return BookingResultDto.failed("Train not found");
+        }
+        ReentrantLock lock=bookingLocks.forTrain(trainId);
+        lock.lock();
+        try{
+            BookingResultDto result=bookTickets(Collections.singletonList(bookTicketEntryDto)).get(0);
+            TrainInventory inventory=seatInventory.forTrain(trainId);
+            //more seats than the train has would wait forever
+            if(!LESS_TICKETS.equals(result.getFailureReason())||bookTicketEntryDto.getNoOfSeats()>inventory.getCapacity()){
+                return result;
+            }
+            TrainWaitlist waitlist=waitlists.forTrain(trainId);
+            List<Integer> ids=bookTicketEntryDto.getPassengerIds()==null?new ArrayList<>():bookTicketEntryDto.getPassengerIds();
+            int[] passengerIds=new int[ids.size()];
+            for(int i=0;i<passengerIds.length;i++){
+                passengerIds[i]=ids.get(i);
+            }
+            WaitlistEntry waiting=new WaitlistEntry(trainRepository.getOne(trainId),bookTicketEntryDto.getFromStation(),
+                    bookTicketEntryDto.getToStation(),bookTicketEntryDto.getNoOfSeats(),passengerIds,
+                    bookTicketEntryDto.getBookingPersonId());
+            waiting.setTravelClass(bookTicketEntryDto.getTravelClass());
+            waiting.setQuota(bookTicketEntryDto.getQuota());
+            WaitlistEntry entry=transaction(ShardedDataSource.shardOf(trainId),status -> waitlistRepository.save(waiting));
+            waitlist.add(new TrainWaitlist.Waiting(entry.getWaitlistId(),inventory.positionOf(entry.getFromStation()),
+                    inventory.positionOf(entry.getToStation()),entry.getNoOfSeats()));
+            return BookingResultDto.waitlisted(entry.getWaitlistId());
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    public BookingResultDto waitlistStatus(int waitlistId){
+
+        //The ticket a waitlisted booking was promoted to, or its waitlistId while it still waits
+        Optional<WaitlistEntry> entry=ShardedDataSource.on(ShardedDataSource.shardOf(waitlistId),() -> waitlistRepository.findById(waitlistId));
+        if(!entry.isPresent()){
+            return BookingResultDto.failed("Waitlist entry not found");
+        }
+        Integer ticketId=entry.get().getTicketId();
+        return ticketId==null?BookingResultDto.waitlisted(waitlistId):BookingResultDto.booked(ticketId);
+    }
+
+    @Timed("irctc.service")
+    public List<Integer> cancelTicket(int ticketId)throws Exception{
+
+        //Cancels the ticket, hands its seats back to the train's inventory and, in the same
+        //transaction, books the earliest waitlisted journeys on the freed legs that now fit.
+        //Returns the ticketIds the waitlisted bookings were promoted to.
+        //from the primary, a ticket booked a moment ago may not have reached a replica
+        Integer trainId=ShardedDataSource.on(ShardedDataSource.shardOf(ticketId),() ->
+                ReplicaRoutingDataSource.onPrimary(() -> ticketRepository.findTrainIdByTicketId(ticketId)));
+        if(trainId==null){
+            throw new Exception("Ticket not found");
+        }
+        ReentrantLock lock=bookingLocks.forTrain(trainId);
+        lock.lock();
+        try{
+            Cancellation cancellation=new Cancellation(seatInventory.forTrain(trainId),waitlists.forTrain(trainId));
+            List<Ticket> promoted;
+            try{
+                promoted=transaction(ShardedDataSource.shardOf(trainId),status -> cancel(ticketId,cancellation));
+            }catch (RuntimeException e){
+                undo(cancellation);
+                throw new Exception("Cancellation could not be saved");
+            }
+            if(promoted==null){
+                throw new Exception("Ticket not found");
             }
+            Ticket ticket=cancellation.ticket;
+            for(BoardingAgeCount count: cancellation.passengerAges){
+                cancellation.stats.remove(count.getFromStation(),count.getAge(),(int)count.getPassengers());
+            }
+            if(cancellation.released!=null){
+                bookingJournal.cancel(trainId,ticket.getFromStation(),ticket.getToStation(),
+                        cancellation.from,cancellation.to,cancellation.released,ticketId);
+            }
+            return promoted(cancellation,promoted);
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Ticket> cancel(int ticketId,Cancellation cancellation){
+
+        Optional<Ticket> found=ticketRepository.findById(ticketId);
+        if(!found.isPresent()){
+            return null;
         }
-        for(int i=0;i<stations.length;i++){
-            if(bookTicketEntryDto.getToStation().toString().equals(stations[i])){
-                y=i;
+        Ticket ticket=found.get();
+        int trainId=cancellation.inventory.getTrainId();
+        //loaded before the ticket goes, so the aggregates still count it until the commit
+        cancellation.stats=passengerStatistics.forTrain(trainId);
+        cancellation.ticket=ticket;
+        //the ages are enough for the aggregates, the passengers themselves aren't loaded
+        cancellation.passengerAges=ticketRepository.countPassengersByAge(ticketId);
+        int x=cancellation.inventory.positionOf(ticket.getFromStation());
+        int y=cancellation.inventory.positionOf(ticket.getToStation());
+        cancellation.from=x;
+        cancellation.to=y;
+
+        //the ticket owns its join table rows, they go with it in one delete and the passengers stay
+        ticketRepository.delete(ticket);
+
+        if(ticket.getSeatNumbers()!=null){
+            cancellation.inventory.release(x,y,ticket.getSeatNumbers());
+            cancellation.released=ticket.getSeatNumbers();
+        }else{
+            //booked before seats were assigned, which seats it held is only known by rebuilding
+            //the train from the tickets left, and the journal has no record of them either
+            bookingJournal.suspend();
+            ticketRepository.flush();
+            cancellation.inventory=rebuildInventory(trainId);
+            cancellation.rebuilt=true;
+        }
+        return promote(cancellation,x,y);
+    }
+
+    //Books the earliest waitlisted journeys on the freed legs [x,y) that fit now, the only ones
+    //that can have been helped, and returns their tickets
+    private List<Ticket> promote(Cancellation cancellation,int x,int y){
+
+        TrainInventory inventory=cancellation.inventory;
+        List<WaitlistEntry> entries=new ArrayList<>();
+        TrainWaitlist.Waiting waiting;
+        while(x<y&&(waiting=cancellation.waitlist.next(inventory,x,y))!=null){
+            int[] seatNumbers=inventory.occupy(waiting.getFrom(),waiting.getTo(),waiting.getSeats());
+            if(seatNumbers==null){
                 break;
             }
+            cancellation.waitlist.remove(waiting);
+            cancellation.waiting.add(waiting);
+            cancellation.promotions.add(new Allocation(cancellation.promotions.size(),inventory,cancellation.stats,
+                    waiting.getFrom(),waiting.getTo(),seatNumbers));
+        }
+        if(cancellation.promotions.isEmpty()){
+            return Collections.emptyList();
+        }
+
+        Map<Integer,WaitlistEntry> byId=new HashMap<>();
+        List<Integer> waitlistIds=new ArrayList<>();
+        for(TrainWaitlist.Waiting promoted: cancellation.waiting){
+            waitlistIds.add(promoted.getWaitlistId());
+        }
+        for(WaitlistEntry entry: waitlistRepository.findAllById(waitlistIds)){
+            byId.put(entry.getWaitlistId(),entry);
+        }
+        List<BookTicketEntryDto> dtos=new ArrayList<>();
+        for(TrainWaitlist.Waiting promoted: cancellation.waiting){
+            dtos.add(bookingOf(byId.get(promoted.getWaitlistId())));
         }
-        if(x==-1||y==-1||y-x<0){
-            throw new Exception("Invalid stations");
+        Map<Integer,Passenger> passengers=loadPassengers(dtos);
+
+        List<Ticket> tickets=new ArrayList<>();
+        Iterator<Allocation> allocations=cancellation.promotions.iterator();
+        for(int i=0;i<dtos.size();i++){
+            Allocation allocation=allocations.next();
+            WaitlistEntry entry=byId.get(cancellation.waiting.get(i).getWaitlistId());
+            List<Passenger> passengerList=passengersOf(dtos.get(i),passengers);
+            if(passengerList==null){
+                //can't be booked any more, it leaves the waitlist and its seats go back
+                inventory.release(allocation.from,allocation.to,allocation.seatNumbers);
+                allocations.remove();
+                waitlistRepository.delete(entry);
+                continue;
+            }
+            tickets.add(newTicket(dtos.get(i),allocation.from,allocation.to,allocation.seatNumbers,passengerList,
+                    passengers.get(dtos.get(i).getBookingPersonId())));
+            entries.add(entry);
+        }
+        List<Ticket> saved=ticketRepository.saveAll(tickets);
+        for(int i=0;i<saved.size();i++){
+            entries.get(i).setTicketId(saved.get(i).getTicketId());
+        }
+        return saved;
+    }
+
+    //Once the promotions are committed: their aggregates and journal records, and their ticketIds
+    private List<Integer> promoted(Cancellation cancellation,List<Ticket> promoted){
+        List<Integer> ticketIds=new ArrayList<>();
+        for(int i=0;i<promoted.size();i++){
+            booked(cancellation.promotions.get(i),promoted.get(i));
+            ticketIds.add(promoted.get(i).getTicketId());
+        }
+        return ticketIds;
+    }
+
+    //Rebuilds a train's inventory from its tickets, the seats held on it aren't in there so they are taken again
+    private TrainInventory rebuildInventory(int trainId){
+        seatInventory.evict(trainId);
+        TrainInventory inventory=seatInventory.forTrain(trainId);
+        for(SeatHolds.SeatHold hold: seatHolds.heldOn(trainId)){
+            inventory.restore(hold.getFrom(),hold.getTo(),hold.getSeatNumbers());
+        }
+        return inventory;
+    }
+
+    @Timed("irctc.service")
+    public SeatHoldDto holdSeats(BookTicketEntryDto bookTicketEntryDto){
+
+        //Takes the seats in the train's inventory without writing a ticket, they stay taken
+        //until the hold is confirmed, released or expires
+        Integer trainId=bookTicketEntryDto.getTrainId();
+        String invalid=invalid(bookTicketEntryDto);
+        if(invalid!=null){
+            return SeatHoldDto.failed(invalid);
+        }
+        TrainMetadata train=trainCache.get(trainId);
+        if(train==null){
+            return SeatHoldDto.failed("Train not found");
+        }
+        if(!train.getRoute().isBookable()){
+            return SeatHoldDto.failed(SeatInventory.ROUTE_TOO_LONG);
+        }
+        ReentrantLock lock=bookingLocks.forTrain(trainId);
+        lock.lock();
+        try{
+            TrainInventory inventory=seatInventory.forTrain(trainId);
+            int x=inventory.positionOf(bookTicketEntryDto.getFromStation());
+            int y=inventory.positionOf(bookTicketEntryDto.getToStation());
+            if(!inventory.isValidJourney(x,y)){
+                return SeatHoldDto.failed("Invalid stations");
+            }
+            int[] seatNumbers=inventory.occupy(x,y,bookTicketEntryDto.getNoOfSeats());
+            if(seatNumbers==null){
+                return SeatHoldDto.failed(LESS_TICKETS);
+            }
+            SeatHolds.SeatHold hold=seatHolds.hold(trainId,x,y,seatNumbers,bookTicketEntryDto);
+            return SeatHoldDto.held(hold.getHoldId(),seatNumbers,hold.getExpiresAt());
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    @Timed("irctc.service")
+    public BookingResultDto confirmHold(long holdId){
+
+        //Books the held seats, the ticket gets exactly the seats that were held. If it can't
+        //be booked the hold is over and its seats go back as if it had been released.
+        SeatHolds.SeatHold hold=seatHolds.get(holdId);
+        if(hold==null){
+            return BookingResultDto.failed("Hold not found or expired");
+        }
+        ReentrantLock lock=bookingLocks.forTrain(hold.getTrainId());
+        lock.lock();
+        try{
+            if(!seatHolds.end(hold)){
+                return BookingResultDto.failed("Hold not found or expired");
+            }
+            TrainInventory inventory=seatInventory.forTrain(hold.getTrainId());
+            Allocation allocation=new Allocation(0,inventory,passengerStatistics.forTrain(hold.getTrainId()),
+                    hold.getFrom(),hold.getTo(),hold.getSeatNumbers());
+            BookTicketEntryDto dto=hold.getBooking();
+            BookingResultDto result;
+            try{
+                Ticket ticket=transaction(ShardedDataSource.shardOf(hold.getTrainId()),status -> {
+                    Map<Integer,Passenger> passengers=loadPassengers(Collections.singletonList(dto));
+                    List<Passenger> passengerList=passengersOf(dto,passengers);
+                    if(passengerList==null){
+                        return null;
+                    }
+                    Ticket held=newTicket(dto,hold.getFrom(),hold.getTo(),hold.getSeatNumbers(),passengerList,
+                            passengers.get(dto.getBookingPersonId()));
+                    return ticketRepository.saveAll(Collections.singletonList(held)).get(0);
+                });
+                if(ticket==null){
+                    result=BookingResultDto.failed("Passenger not found");
+                }else{
+                    booked(allocation,ticket);
+                    result=BookingResultDto.booked(ticket.getTicketId());
+                }
+            }catch (RuntimeException e){
+                result=BookingResultDto.failed(NOT_SAVED);
+            }
+            if(result.getTicketId()==null){
+                giveBack(hold);
+            }
+            bookingMetrics.count(Collections.singletonList(result));
+            return result;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    @Timed("irctc.service")
+    public boolean releaseHold(long holdId){
+
+        //False if there is no such hold, eg. it was confirmed or has expired
+        SeatHolds.SeatHold hold=seatHolds.get(holdId);
+        if(hold==null){
+            return false;
+        }
+        ReentrantLock lock=bookingLocks.forTrain(hold.getTrainId());
+        lock.lock();
+        try{
+            if(!seatHolds.end(hold)){
+                return false;
+            }
+            giveBack(hold);
+            return true;
+        }finally {
+            lock.unlock();
         }
+    }
+
+    private void expired(SeatHolds.SeatHold hold){
+        ReentrantLock lock=bookingLocks.forTrain(hold.getTrainId());
+        lock.lock();
+        try{
+            giveBack(hold);
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    //The seats of a hold that is over go back to the inventory and on to the waitlist
+    private void giveBack(SeatHolds.SeatHold hold){
+        TrainInventory inventory=seatInventory.forTrain(hold.getTrainId());
+        inventory.release(hold.getFrom(),hold.getTo(),hold.getSeatNumbers());
+        TrainWaitlist waitlist=waitlists.forTrain(hold.getTrainId());
+        if(hold.getFrom()>=hold.getTo()||waitlist.next(inventory,hold.getFrom(),hold.getTo())==null){
+            return;
+        }
+        Cancellation freed=new Cancellation(inventory,waitlist);
+        freed.stats=passengerStatistics.forTrain(hold.getTrainId());
+        try{
+            promoted(freed,transaction(ShardedDataSource.shardOf(hold.getTrainId()),status ->
+                    promote(freed,hold.getFrom(),hold.getTo())));
+        }catch (RuntimeException e){
+            //the seats stay free, the waitlist gets another chance with the next seats freed
+            undo(freed);
+        }
+    }
+
+    //Puts back what a cancellation changed in memory before its transaction failed
+    private void undo(Cancellation cancellation){
+        for(Allocation allocation: cancellation.promotions){
+            allocation.inventory.release(allocation.from,allocation.to,allocation.seatNumbers);
+        }
+        for(TrainWaitlist.Waiting waiting: cancellation.waiting){
+            cancellation.waitlist.add(waiting);
+        }
+        if(cancellation.rebuilt){
+            rebuildInventory(cancellation.inventory.getTrainId());
+        }else if(cancellation.released!=null){
+            cancellation.inventory.restore(cancellation.from,cancellation.to,cancellation.released);
+        }
+    }
+
+    //Passengers of the whole batch in one query. Their bookedTickets aren't loaded: the ticket
+    //owns the join table, adding it to them only queues the add in memory.
+    private Map<Integer,Passenger> loadPassengers(List<BookTicketEntryDto> bookTicketEntryDtos){
+        Set<Integer> passengerIds=new HashSet<>();
+        for(BookTicketEntryDto dto: bookTicketEntryDtos){
+            if(dto.getPassengerIds()!=null){
+                passengerIds.addAll(dto.getPassengerIds());
+            }
+            if(dto.getBookingPersonId()!=null){
+                passengerIds.add(dto.getBookingPersonId());
+            }
+        }
+        long loadStart=System.nanoTime();
+        Map<Integer,Passenger> passengers=new HashMap<>();
+        for(Passenger passenger: passengerRepository.findAllById(passengerIds)){
+            passengers.put(passenger.getPassengerId(),passenger);
+        }
+        bookingMetrics.record(BookingMetrics.LOAD,loadStart);
+        return passengers;
+    }
+
+    //The passengers of a booking with the booking person last, null if any of them doesn't exist
+    private List<Passenger> passengersOf(BookTicketEntryDto dto,Map<Integer,Passenger> passengers){
+        List<Integer> ids=dto.getPassengerIds()==null?new ArrayList<>():dto.getPassengerIds();
+        List<Passenger> passengerList=new ArrayList<>();
+        for(Integer id: ids){
+            if(passengers.containsKey(id)){
+                passengerList.add(passengers.get(id));
+            }
+        }
+        //the booking person has to exist too, but is only on the ticket as its booker: the
+        //passengers are the ones travelling, what the seats, the fare and the statistics count
+        if(passengerList.size()!=ids.size()||!passengers.containsKey(dto.getBookingPersonId())){
+            return null;
+        }
+        return passengerList;
+    }
+
+    private Ticket newTicket(BookTicketEntryDto dto,int x,int y,int[] seatNumbers,List<Passenger> passengerList,Passenger bookingPerson){
         Ticket ticket=new Ticket();
+        ticket.setFromStation(dto.getFromStation());
+        ticket.setToStation(dto.getToStation());
+        ticket.setTotalFare(fareOf(dto,x,y,passengerList));
+        ticket.setSeatNumbers(seatNumbers);
+        ticket.setTrain(trainRepository.getOne(dto.getTrainId()));
+
+        //the ticket's join table rows are inserted with it, the booking person goes in its own column
+        for(Passenger passenger: passengerList){
+            passenger.getBookedTickets().add(ticket);
+        }
         ticket.setPassengersList(passengerList);
-        ticket.setFromStation(bookTicketEntryDto.getFromStation());
-        ticket.setToStation(bookTicketEntryDto.getToStation());
+        ticket.setBookingPerson(bookingPerson);
+        return ticket;
+    }
+
+    //The same fare a quote for the journey gives: one seat per passenger travelling, by their
+    //age, and an adult fare for any seat booked beyond them
+    private int fareOf(BookTicketEntryDto dto,int x,int y,List<Passenger> passengerList){
+        int travelling=dto.getPassengerIds()==null?0:dto.getPassengerIds().size();
+        int[] ages=new int[dto.getNoOfSeats()];
+        for(int i=0;i<ages.length;i++){
+            ages[i]=i<travelling?passengerList.get(i).getAge():FareService.ADULT_AGE;
+        }
+        return fareEngine.fare(dto.getTrainId(),x,y,FareService.travelClassOf(dto.getTravelClass()),
+                FareService.quotaOf(dto.getQuota()),ages);
+    }
+
+    private BookTicketEntryDto bookingOf(WaitlistEntry entry){
+        List<Integer> passengerIds=new ArrayList<>();
+        for(int passengerId: entry.getPassengerIds()){
+            passengerIds.add(passengerId);
+        }
+        BookTicketEntryDto dto=new BookTicketEntryDto(passengerIds,entry.getTrain().getTrainId(),entry.getFromStation(),
+                entry.getToStation(),entry.getNoOfSeats(),entry.getBookingPersonId());
+        dto.setTravelClass(entry.getTravelClass());
+        dto.setQuota(entry.getQuota());
+        return dto;
+    }
+
+    //Once a ticket is committed: the passenger aggregates and the journal
+    private void booked(Allocation allocation,Ticket ticket){
+        allocation.stats.addTicket(ticket.getFromStation(),ticket.getPassengersList());
+        if(bookingJournal.isReady()){
+            List<Integer> passengerIds=new ArrayList<>();
+            for(Passenger passenger: ticket.getPassengersList()){
+                passengerIds.add(passenger.getPassengerId());
+            }
+            bookingJournal.append(allocation.inventory.getTrainId(),ticket.getFromStation(),ticket.getToStation(),
+                    allocation.from,allocation.to,allocation.seatNumbers,ticket.getTicketId(),passengerIds);
+        }
+    }
+
+    //What a cancellation, or the end of a hold, changed: the seats freed and the waitlisted
+    //bookings they went to, so it can be finished after the commit or put back if the transaction fails
+    private static class Cancellation {
 
-        int fair=0;
-        fair=bookTicketEntryDto.getNoOfSeats()*(y-x)*300;
+        private TrainInventory inventory;
 
-        ticket.setTotalFare(fair);
-        ticket.setTrain(train);
+        private final TrainWaitlist waitlist;
 
-        train.getBookedTickets().add(ticket);
-        train.setNoOfSeats(train.getNoOfSeats()-bookTicketEntryDto.getNoOfSeats());
+        private TrainPassengerStats stats;
 
-        Passenger passenger=passengerRepository.findById(bookTicketEntryDto.getBookingPersonId()).get();
-        passenger.getBookedTickets().add(ticket);
+        private Ticket ticket;
 
+        private List<BoardingAgeCount> passengerAges;
 
-        trainRepository.save(train);
+        private int from;
 
-        return ticketRepository.save(ticket).getTicketId();
+        private int to;
 
+        //null until released, and for tickets booked before seats were assigned
+        private int[] released;
+
+        //the train's inventory was rebuilt from the tickets instead
+        private boolean rebuilt;
+
+        private final List<TrainWaitlist.Waiting> waiting=new ArrayList<>();
+
+        private final List<Allocation> promotions=new ArrayList<>();
+
+        Cancellation(TrainInventory inventory, TrainWaitlist waitlist) {
+            this.inventory = inventory;
+            this.waitlist = waitlist;
+        }
     }
 
+    //Seats taken from a train's inventory by one item of a batch
+    private static class Allocation {
+
+        private final int index;
+
+        private final TrainInventory inventory;
 
+        private final TrainPassengerStats stats;
+
+        private final int from;
+
+        private final int to;
+
+        private final int[] seatNumbers;
+
+        Allocation(int index, TrainInventory inventory, TrainPassengerStats stats, int from, int to, int[] seatNumbers) {
+            this.index = index;
+            this.inventory = inventory;
+            this.stats = stats;
+            this.from = from;
+            this.to = to;
+            this.seatNumbers = seatNumbers;
+        }
+    }
 }
@@ -0,0 +1,119 @@
+package com.driver.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel: a ring of slots each covering one tick, an entry due at tick t goes
+ * in slot t mod slots and entries further out than one turn just wait there for later
+ * turns. Scheduling and cancelling are O(1) and an entry costs one small node, so a very
+ * large number of pending deadlines needs neither a timer each nor a sorted structure.
+ * Advancing looks at one slot per elapsed tick.
+ *
+ * Times are System.nanoTime() values passed in by the caller, which keeps it testable.
+ */
+public class TimingWheel<T> {
+
+    private final Node<T>[] slots;
+
+    private final int mask;
+
+    private final long tickNanos;
+
+    private final long startNanos;
+
+    //the next tick to be expired
+    private long tick;
+
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickNanos, int slotCount, long startNanos) {
+        int size = 1;
+        while (size < slotCount) {
+            size <<= 1;
+        }
+        this.slots = new Node[size];
+        for (int i = 0; i < size; i++) {
+            //sentinel heads, so unlinking never has to special-case the ends
+            slots[i] = new Node<>(null, -1);
+            slots[i].prev = slots[i];
+            slots[i].next = slots[i];
+        }
+        this.mask = size - 1;
+        this.tickNanos = tickNanos;
+        this.startNanos = startNanos;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    //The node can be given to cancel; a deadline already past expires on the next tick
+    public synchronized Node<T> schedule(T value, long deadlineNanos) {
+        //rounded up, an entry never expires before its deadline
+        long due = Math.max(tick, -Math.floorDiv(startNanos - deadlineNanos, tickNanos));
+        Node<T> node = new Node<>(value, due);
+        Node<T> head = slots[(int) (due & mask)];
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        size++;
+        return node;
+    }
+
+    //False if the node already expired or was cancelled
+    public synchronized boolean cancel(Node<T> node) {
+        if (node.next == null) {
+            return false;
+        }
+        unlink(node);
+        return true;
+    }
+
+    //Removes and returns the entries due up to nowNanos
+    public synchronized List<T> advance(long nowNanos) {
+        List<T> expired = new ArrayList<>();
+        long now = Math.floorDiv(nowNanos - startNanos, tickNanos);
+        //past a full turn every slot is visited once, the rest of the ticks would revisit them
+        long last = Math.min(now, tick + slots.length - 1);
+        for (; tick <= last; tick++) {
+            Node<T> head = slots[(int) (tick & mask)];
+            for (Node<T> node = head.next; node != head; ) {
+                Node<T> next = node.next;
+                if (node.due <= now) {
+                    unlink(node);
+                    expired.add(node.value);
+                }
+                node = next;
+            }
+        }
+        tick = Math.max(tick, now + 1);
+        return expired;
+    }
+
+    private void unlink(Node<T> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        size--;
+    }
+
+    public static final class Node<T> {
+
+        private final T value;
+
+        private final long due;
+
+        private Node<T> prev;
+
+        private Node<T> next;
+
+        private Node(T value, long due) {
+            this.value = value;
+            this.due = due;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.driver.services;
+
+import com.driver.ReplicaRoutingDataSource;
+import com.driver.ShardedDataSource;
+import com.driver.model.Train;
+import com.driver.repository.TrainRepository;
+import com.driver.repository.TrainSummary;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Read-through cache of {@link TrainMetadata} in front of the TrainRepository, bounded in
+ * size with W-TinyLFU eviction. Trains are only ever written by addTrain, which puts the
+ * new entry directly. Set irctc.train-cache.enabled=false to read from the database on
+ * every call, eg. to compare latencies.
+ */
+@Component
+public class TrainCache {
+
+    @Autowired
+    TrainRepository trainRepository;
+
+    private final boolean enabled;
+
+    private final Cache<Integer, TrainMetadata> cache;
+
+    @Autowired
+    public TrainCache(@Value("${irctc.train-cache.enabled:true}") boolean enabled,
+                      @Value("${irctc.train-cache.maximum-size:10000}") long maximumSize) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //null if there is no such train, misses for unknown trains are not cached
+    public TrainMetadata get(int trainId) {
+        if (!enabled) {
+            return load(trainId);
+        }
+        return cache.get(trainId, this::load);
+    }
+
+    public void put(Train train) {
+        if (enabled) {
+            cache.put(train.getTrainId(), new TrainMetadata(train.getTrainId(), train.getRoute(),
+                    train.getDepartureTime(), train.getNoOfSeats()));
+        }
+    }
+
+    public void invalidate(int trainId) {
+        cache.invalidate(trainId);
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private TrainMetadata load(int trainId) {
+        TrainSummary train = ShardedDataSource.on(ShardedDataSource.shardOf(trainId), () ->
+                ReplicaRoutingDataSource.onPrimary(() -> trainRepository.findSummaryById(trainId))).orElse(null);
+        if (train == null) {
+            return null;
+        }
+        return new TrainMetadata(train.getTrainId(), train.getRoute(), train.getDepartureTime(), train.getNoOfSeats());
+    }
+}
@@ -0,0 +1,134 @@
+package com.driver.services;
+
+import com.driver.model.Route;
+import com.driver.model.Station;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory seat inventory of one train: where each station sits on the route, how many
+ * seats are occupied on every leg of it and which seat is taken on which legs. The leg
+ * counts answer "not enough seats" in O(log legs) before the seat map is searched.
+ *
+ * Every change gives the inventory a new version, unique across trains and rebuilds, so a
+ * version identifies what availability looked like and can serve as an ETag.
+ *
+ * Not thread safe: the leg counts, the seat map and the cached matrix are read and changed
+ * under the train's BookingLocks lock only, reads included. Only the version may be read without it.
+ */
+public class TrainInventory {
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private final int trainId;
+
+    private final int capacity;
+
+    private final Route route;
+
+    private final LegOccupancy occupancy;
+
+    private final SeatMap seatMap;
+
+    private volatile long version = VERSIONS.incrementAndGet();
+
+    //the last matrix computed and the version it was computed at, guarded by the train's lock
+    private int[] matrix;
+
+    private long matrixVersion;
+
+    public TrainInventory(int trainId, int capacity, Route route, int[] occupancyPerLeg, SeatMap seatMap) {
+        this.trainId = trainId;
+        this.capacity = capacity;
+        this.route = route;
+        this.occupancy = new LegOccupancy(occupancyPerLeg);
+        this.seatMap = seatMap;
+    }
+
+    public int getTrainId() {
+        return trainId;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int positionOf(Station station) {
+        return route.positionOf(station);
+    }
+
+    public boolean isValidJourney(int from, int to) {
+        return from != -1 && to != -1 && to >= from;
+    }
+
+    //Seats that are free on every leg of [from,to)
+    public int availableSeats(int from, int to) {
+        int upperBound = capacity - occupancy.max(from, to);
+        if (upperBound <= 0) {
+            return 0;
+        }
+        return Math.min(upperBound, seatMap.countFree(from, to));
+    }
+
+    //Seats available for every pair of stations i<j, the upper triangle row by row: the pair
+    //(i,j) is at i*(2*stations-i-1)/2 + j-i-1. Each row is a sweep keeping the running max
+    //occupancy of the legs so far, so the whole matrix is O(stations²) plus one pass over the
+    //seats per station, and it is only recomputed once the inventory has changed.
+    public int[] availabilityMatrix() {
+        if (matrix != null && matrixVersion == version) {
+            return matrix;
+        }
+        long computedAt = version;
+        int legs = route.legs();
+        int[] occupied = occupancy.perLeg();
+        int[] available = seatMap.countFreeAll();
+        int pair = 0;
+        for (int from = 0; from < legs; from++) {
+            int busiest = 0;
+            for (int to = from + 1; to <= legs; to++, pair++) {
+                busiest = Math.max(busiest, occupied[to - 1]);
+                available[pair] = Math.max(0, Math.min(capacity - busiest, available[pair]));
+            }
+        }
+        matrix = available;
+        matrixVersion = computedAt;
+        return available;
+    }
+
+    //Takes seats for the journey and returns their numbers, or null if there aren't enough
+    public int[] occupy(int from, int to, int seats) {
+        if (capacity - occupancy.max(from, to) < seats) {
+            return null;
+        }
+        int[] seatNumbers = new int[seats];
+        if (!seatMap.allocate(from, to, seatNumbers)) {
+            return null;
+        }
+        occupancy.add(from, to, seats);
+        version = VERSIONS.incrementAndGet();
+        return seatNumbers;
+    }
+
+    public void release(int from, int to, int[] seatNumbers) {
+        occupancy.add(from, to, -seatNumbers.length);
+        seatMap.release(from, to, seatNumbers);
+        version = VERSIONS.incrementAndGet();
+    }
+
+    //Takes back seats that were released, eg. when the cancellation that released them is rolled back
+    public void restore(int from, int to, int[] seatNumbers) {
+        occupancy.add(from, to, seatNumbers.length);
+        for (int seat : seatNumbers) {
+            seatMap.occupy(seat, from, to);
+        }
+        version = VERSIONS.incrementAndGet();
+    }
+}
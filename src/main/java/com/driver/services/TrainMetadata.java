@@ -0,0 +1,43 @@
+package com.driver.services;
+
+import com.driver.model.Route;
+
+import java.time.LocalTime;
+
+/**
+ * Immutable snapshot of the parts of a train that don't change once it is added:
+ * its route, departure time and number of seats.
+ */
+public class TrainMetadata {
+
+    private final int trainId;
+
+    private final Route route;
+
+    private final LocalTime departureTime;
+
+    private final int noOfSeats;
+
+    public TrainMetadata(int trainId, Route route, LocalTime departureTime, int noOfSeats) {
+        this.trainId = trainId;
+        this.route = route;
+        this.departureTime = departureTime;
+        this.noOfSeats = noOfSeats;
+    }
+
+    public int getTrainId() {
+        return trainId;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public LocalTime getDepartureTime() {
+        return departureTime;
+    }
+
+    public int getNoOfSeats() {
+        return noOfSeats;
+    }
+}
@@ -0,0 +1,58 @@
+package com.driver.services;
+
+import com.driver.model.Passenger;
+import com.driver.model.Station;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Running passenger aggregates of one train: how many passengers board at every station
+ * and a histogram of their ages, so the oldest passenger is known without a scan and
+ * still correct after a passenger is removed.
+ */
+public class TrainPassengerStats {
+
+    //indexed by Station.ordinal()
+    private final int[] boarding = new int[Station.values().length];
+
+    //passengers per age, grown on demand
+    private int[] ages = new int[128];
+
+    private int oldestAge = -1;
+
+    public synchronized int boardingAt(Station station) {
+        return boarding[station.ordinal()];
+    }
+
+    //0 when nobody is travelling
+    public synchronized int oldestAge() {
+        return Math.max(oldestAge, 0);
+    }
+
+    public synchronized void add(Station fromStation, int age, int passengers) {
+        boarding[fromStation.ordinal()] += passengers;
+        age = Math.max(age, 0);
+        if (age >= ages.length) {
+            ages = Arrays.copyOf(ages, Math.max(age + 1, ages.length * 2));
+        }
+        ages[age] += passengers;
+        oldestAge = Math.max(oldestAge, age);
+    }
+
+    public synchronized void remove(Station fromStation, int age, int passengers) {
+        boarding[fromStation.ordinal()] -= passengers;
+        age = Math.max(age, 0);
+        ages[age] -= passengers;
+        //walk down to the next age still present, bounded by the histogram size
+        while (oldestAge >= 0 && ages[oldestAge] == 0) {
+            oldestAge--;
+        }
+    }
+
+    public void addTicket(Station fromStation, List<Passenger> passengers) {
+        for (Passenger passenger : passengers) {
+            add(fromStation, passenger.getAge(), 1);
+        }
+    }
+}
@@ -2,18 +2,24 @@ package com.driver.services;
 
 import com.driver.EntryDto.AddTrainEntryDto;
 import com.driver.EntryDto.SeatAvailabilityEntryDto;
-import com.driver.model.Passenger;
+import com.driver.ReplicaRoutingDataSource;
+import com.driver.ShardedDataSource;
+import com.driver.ResponseDto.AvailabilityMatrixDto;
+import com.driver.ResponseDto.TrainCacheStatsDto;
+import com.driver.model.Route;
 import com.driver.model.Station;
-import com.driver.model.Ticket;
 import com.driver.model.Train;
 import com.driver.repository.TrainRepository;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class TrainService {
@@ -21,7 +27,26 @@ public class TrainService {
     @Autowired
     TrainRepository trainRepository;
 
+    @Autowired
+    SeatInventory seatInventory;
+
+    @Autowired
+    StationArrivalIndex stationArrivalIndex;
+
+    @Autowired
+    ConnectionIndex connectionIndex;
+
+    @Autowired
+    TrainCache trainCache;
+
+    @Autowired
+    PassengerStatistics passengerStatistics;
+
+    @Autowired
+    BookingLocks bookingLocks;
+
     List<Train>trains=new ArrayList<>();
+    @Timed("irctc.service")
     public Integer addTrain(AddTrainEntryDto trainEntryDto){
 
         //Add the train to the trainRepository
@@ -31,22 +56,29 @@ public class TrainService {
         Train train = new Train();
         train.setNoOfSeats(trainEntryDto.getNoOfSeats());
 
-        List<Station> list = trainEntryDto.getStationRoute();
-        String route = "";
-
-        for(int i=0;i<list.size();i++){
-            if(i==list.size()-1)
-                route += list.get(i);
-            else
-                route += list.get(i) + ",";
-        }
-        train.setRoute(route);
+        train.setRoute(routeOf(trainEntryDto.getStationRoute()));
 
         train.setDepartureTime(trainEntryDto.getDepartureTime());
         trains.add(train);
-        return trainRepository.save(train).getTrainId();
+        //the id it gets puts it on the shard it is saved to
+        Integer trainId = ShardedDataSource.on(ShardedDataSource.nextShard(), () -> trainRepository.save(train)).getTrainId();
+
+        trainCache.put(train);
+        stationArrivalIndex.add(train);
+        connectionIndex.add(train);
+        return trainId;
+    }
+
+    //Checked before the train is saved: a train whose legs don't fit the seat map could never be booked
+    static Route routeOf(List<Station> stationRoute){
+        if(stationRoute==null){
+            throw new IllegalArgumentException("A route is required");
+        }
+        return Route.of(stationRoute);
     }
 
+    @Transactional(readOnly = true)
+    @Timed("irctc.service")
     public Integer calculateAvailableSeats(SeatAvailabilityEntryDto seatAvailabilityEntryDto){
 
         //Calculate the total seats available
@@ -57,94 +89,83 @@ public class TrainService {
         //even if that seat is booked post the destStation or before the boardingStation
         //Inshort : a train has totalNo of seats and there are tickets from and to different locations
         //We need to find out the available seats between the given 2 stations.
-        Integer availableSeats = 0;
-        Train train = trainRepository.findById(seatAvailabilityEntryDto.getTrainId()).get();
-
-        int totalSeats = train.getNoOfSeats();
-        List<Ticket> BookedTickets = train.getBookedTickets();
-
-        String fromStation = seatAvailabilityEntryDto.getFromStation().toString();
-        String toStation = seatAvailabilityEntryDto.getToStation().toString();
-
-        Integer availableBetStations = 0;
+        //Read under the train's lock, a booking changes the leg counts and the seat map together
+        ReentrantLock lock = bookingLocks.forTrain(seatAvailabilityEntryDto.getTrainId());
+        lock.lock();
+        try{
+            TrainInventory inventory = seatInventory.forTrain(seatAvailabilityEntryDto.getTrainId());
 
-        for(Ticket ticket : BookedTickets){
-            if(ticket.getToStation().toString().equals(fromStation)){
-                availableBetStations+=ticket.getPassengersList().size();
-            }
-            if(ticket.getFromStation().toString().equals(toStation)){
-                availableBetStations+=ticket.getPassengersList().size();
+            int from = inventory.positionOf(seatAvailabilityEntryDto.getFromStation());
+            int to = inventory.positionOf(seatAvailabilityEntryDto.getToStation());
+            if(!inventory.isValidJourney(from, to)){
+                return 0;
             }
-        }
 
-        Integer totalpassengers =0;
-        for(Ticket ticket : BookedTickets){
-            totalpassengers+=ticket.getPassengersList().size();
+            //A seat is free for the journey only if it is free on every leg in [from,to),
+            //so the seats we can offer are the total minus the busiest of those legs
+            Integer availableSeats = inventory.availableSeats(from, to);
+            return availableSeats;
+        }finally{
+            lock.unlock();
         }
+    }
 
+    @Timed("irctc.service")
+    public AvailabilityMatrixDto availabilityMatrix(int trainId){
 
-        Integer SeatssNotavailable = totalpassengers - availableBetStations;
-        availableSeats= totalSeats-SeatssNotavailable;
-
-        return availableSeats;
+        //The available seats for every pair of stations at once, instead of one
+        //calculateAvailableSeats call per pair. Taken under the train's lock so the matrix
+        //and its version match; the inventory keeps it until the next change.
+        //Throws NoSuchElementException if there is no such train
+        ReentrantLock lock = bookingLocks.forTrain(trainId);
+        lock.lock();
+        try{
+            TrainInventory inventory = seatInventory.forTrain(trainId);
+            Route route = inventory.getRoute();
+            List<Station> stations = new ArrayList<>(route.size());
+            for(int i=0;i<route.size();i++){
+                stations.add(route.stationAt(i));
+            }
+            return new AvailabilityMatrixDto(trainId, inventory.getVersion(), stations, inventory.availabilityMatrix());
+        }finally {
+            lock.unlock();
+        }
     }
 
+    @Transactional(readOnly = true)
+    @Timed("irctc.service")
     public Integer calculatePeopleBoardingAtAStation(Integer trainId,Station station) throws Exception{
 
         //We need to find out the number of people who will be boarding a train from a particular station
         //if the trainId is not passing through that station
         //throw new Exception("Train is not passing from this station");
         //  in a happy case we need to find out the number of such people.
-        Train train;
-        Station station1;
-        try{
-            train = trainRepository.findById(trainId).get();
-            if(!train.getRoute().contains(station.toString())){
-                throw new Exception();
-            }
-        }
-        catch (Exception e){
-            throw new Exception("Train is not passing from this station");
-        }
-        Integer count = 0;
-
-        List<Ticket> bookedTickets = train.getBookedTickets();
 
-        for(Ticket ticket : bookedTickets){
-            if(ticket.getFromStation().toString().equals(station.toString())){
-                List<Passenger> passengers = ticket.getPassengersList();
-                for(int i =0;i<passengers.size();i++){
-                    count++;
-                }
-            }
+        //The route comes from the train cache and the count from the running per-train
+        //aggregates, so a warm train needs no query at all
+        TrainMetadata train = trainCache.get(trainId);
+        if(train == null || !train.getRoute().contains(station)){
+            throw new Exception("Train is not passing from this station");
         }
-        return count;
+        return passengerStatistics.forTrain(trainId).boardingAt(station);
     }
 
+    @Transactional(readOnly = true)
+    @Timed("irctc.service")
     public Integer calculateOldestPersonTravelling(Integer trainId){
 
         //Throughout the journey of the train between any 2 stations
         //We need to find out the age of the oldest person that is travelling the train
         //If there are no people travelling in that train you can return 0
-        Integer oldestpesrsonAge=0;
-
-        Train train = trainRepository.findById(trainId).get();
-        List<Ticket> bookedTickets = train.getBookedTickets();
-
-        //If there are no people travelling in that train you can return 0
-        if(bookedTickets.size()==0){
+        if(trainCache.get(trainId) == null){
             return 0;
         }
-
-        for(Ticket ticket : bookedTickets){
-            for(Passenger passenger: ticket.getPassengersList()){
-                oldestpesrsonAge= Math.max(oldestpesrsonAge,passenger.getAge());
-            }
-        }
-
+        Integer oldestpesrsonAge = passengerStatistics.forTrain(trainId).oldestAge();
         return oldestpesrsonAge;
     }
 
+    @Transactional(readOnly = true)
+    @Timed("irctc.service")
     public List<Integer> trainsBetweenAGivenTime(Station station, LocalTime startTime, LocalTime endTime){
 
         //When you are at a particular station you need to find out the number of trains that will pass through a given station
@@ -152,25 +173,20 @@ public class TrainService {
         //You can assume that the date change doesn't need to be done ie the travel will certainly happen with the same date (More details
         //in problem statement)
         //You can also assume the seconds and milli seconds value will be 0 in a LocalTime format.
-        List<Integer> TrainList = new ArrayList<>();
-        List<Train> trains = trainRepository.findAll();
-        for(Train t:trains){
-            String s = t.getRoute();
-            String[] ans = s.split(",");
-            for(int i=0;i<ans.length;i++){
-                if(Objects.equals(ans[i], String.valueOf(station))){
-                    int startTimeInMin = (startTime.getHour() * 60) + startTime.getMinute();
-                    int lastTimeInMin = (endTime.getHour() * 60) + endTime.getMinute();
-
-
-                    int departureTimeInMin = (t.getDepartureTime().getHour() * 60) + t.getDepartureTime().getMinute();
-                    int reachingTimeInMin  = departureTimeInMin + (i * 60);
-                    if(reachingTimeInMin>=startTimeInMin && reachingTimeInMin<=lastTimeInMin)
-                        TrainList.add(t.getTrainId());
-                }
-            }
+        if(!stationArrivalIndex.isLoaded()){
+            //the trains of all the shards, read in parallel
+            stationArrivalIndex.load(() -> ShardedDataSource.fanOutAndMerge(() -> ReplicaRoutingDataSource.onPrimary(trainRepository::findAll)));
         }
+        int startTimeInMin = (startTime.getHour() * 60) + startTime.getMinute();
+        int lastTimeInMin = (endTime.getHour() * 60) + endTime.getMinute();
+        List<Integer> TrainList = stationArrivalIndex.trainsBetween(station, startTimeInMin, lastTimeInMin);
         return TrainList;
     }
 
-}
\ No newline at end of file
+    public TrainCacheStatsDto getTrainCacheStats(){
+        CacheStats stats = trainCache.stats();
+        return new TrainCacheStatsDto(trainCache.isEnabled(), trainCache.size(), stats.hitCount(),
+                stats.missCount(), stats.evictionCount(), stats.hitRate());
+    }
+
+}
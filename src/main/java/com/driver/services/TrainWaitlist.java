@@ -0,0 +1,115 @@
+package com.driver.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory index of the waitlist of one train. Entries are bucketed by the position they
+ * start at, then by the position they end at and the number of seats they want, and each
+ * bucket is kept in waitlist order. Only buckets overlapping the legs a cancellation freed
+ * are looked at, one availability check per bucket, so the cost of a promotion depends on
+ * the number of distinct journeys waiting rather than on the number of entries.
+ *
+ * Not thread safe, it is only used under the train's booking lock.
+ */
+public class TrainWaitlist {
+
+    private final List<TreeMap<Integer, TreeMap<Integer, TreeMap<Integer, Waiting>>>> byStart;
+
+    private int size;
+
+    public TrainWaitlist(int stations) {
+        byStart = new ArrayList<>(stations);
+        for (int i = 0; i < stations; i++) {
+            byStart.add(new TreeMap<>());
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(Waiting waiting) {
+        byStart.get(waiting.from)
+                .computeIfAbsent(waiting.to, to -> new TreeMap<>())
+                .computeIfAbsent(waiting.seats, seats -> new TreeMap<>())
+                .put(waiting.waitlistId, waiting);
+        size++;
+    }
+
+    public void remove(Waiting waiting) {
+        TreeMap<Integer, TreeMap<Integer, Waiting>> bySeats = byStart.get(waiting.from).get(waiting.to);
+        TreeMap<Integer, Waiting> queue = bySeats == null ? null : bySeats.get(waiting.seats);
+        if (queue == null || queue.remove(waiting.waitlistId) == null) {
+            return;
+        }
+        size--;
+        //empty buckets are dropped so they don't cost an availability check
+        if (queue.isEmpty()) {
+            bySeats.remove(waiting.seats);
+            if (bySeats.isEmpty()) {
+                byStart.get(waiting.from).remove(waiting.to);
+            }
+        }
+    }
+
+    //The earliest entry travelling on any of the legs [from,to) that the inventory has seats
+    //for now, null if there is none. Entries elsewhere on the route can't have been helped.
+    public Waiting next(TrainInventory inventory, int from, int to) {
+        Waiting earliest = null;
+        for (int start = 0; start < to && start < byStart.size(); start++) {
+            for (Map.Entry<Integer, TreeMap<Integer, TreeMap<Integer, Waiting>>> bucket
+                    : byStart.get(start).tailMap(Math.max(from, start), false).entrySet()) {
+                TreeMap<Integer, TreeMap<Integer, Waiting>> bySeats = bucket.getValue();
+                int available = inventory.availableSeats(start, bucket.getKey());
+                if (available < bySeats.firstKey()) {
+                    continue;
+                }
+                for (TreeMap<Integer, Waiting> queue : bySeats.headMap(available, true).values()) {
+                    Waiting first = queue.firstEntry().getValue();
+                    if (earliest == null || first.waitlistId < earliest.waitlistId) {
+                        earliest = first;
+                    }
+                }
+            }
+        }
+        return earliest;
+    }
+
+    //A waitlisted journey, from and to are positions on the route
+    public static class Waiting {
+
+        private final int waitlistId;
+
+        private final int from;
+
+        private final int to;
+
+        private final int seats;
+
+        public Waiting(int waitlistId, int from, int to, int seats) {
+            this.waitlistId = waitlistId;
+            this.from = from;
+            this.to = to;
+            this.seats = seats;
+        }
+
+        public int getWaitlistId() {
+            return waitlistId;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        public int getSeats() {
+            return seats;
+        }
+    }
+}
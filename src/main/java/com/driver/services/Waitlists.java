@@ -0,0 +1,50 @@
+package com.driver.services;
+
+import com.driver.ReplicaRoutingDataSource;
+import com.driver.ShardedDataSource;
+import com.driver.model.Route;
+import com.driver.model.WaitlistEntry;
+import com.driver.repository.WaitlistRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds one {@link TrainWaitlist} per train. It is loaded from the entries still waiting
+ * the first time a train is asked for (eg. after a restart) and kept up to date by
+ * waitlisting and by the promotions cancellations make afterwards.
+ */
+@Component
+public class Waitlists {
+
+    @Autowired
+    WaitlistRepository waitlistRepository;
+
+    @Autowired
+    TrainCache trainCache;
+
+    private final ConcurrentMap<Integer, TrainWaitlist> waitlists = new ConcurrentHashMap<>();
+
+    //Throws NoSuchElementException if there is no such train
+    public TrainWaitlist forTrain(int trainId) {
+        return waitlists.computeIfAbsent(trainId, this::load);
+    }
+
+    private TrainWaitlist load(int trainId) {
+        TrainMetadata train = trainCache.get(trainId);
+        if (train == null) {
+            throw new NoSuchElementException("Train not found");
+        }
+        Route route = train.getRoute();
+        TrainWaitlist waitlist = new TrainWaitlist(route.size());
+        for (WaitlistEntry entry : ShardedDataSource.on(ShardedDataSource.shardOf(trainId), () ->
+                ReplicaRoutingDataSource.onPrimary(() -> waitlistRepository.findWaitingByTrainId(trainId)))) {
+            waitlist.add(new TrainWaitlist.Waiting(entry.getWaitlistId(), route.positionOf(entry.getFromStation()),
+                    route.positionOf(entry.getToStation()), entry.getNoOfSeats()));
+        }
+        return waitlist;
+    }
+}
@@ -0,0 +1,384 @@
+package com.driver.test;
+
+import com.driver.EntryDto.AddTrainEntryDto;
+import com.driver.EntryDto.BookTicketEntryDto;
+import com.driver.ResponseDto.BookingResultDto;
+import com.driver.ResponseDto.ImportResultDto;
+import com.driver.model.Passenger;
+import com.driver.model.Station;
+import com.driver.model.Ticket;
+import com.driver.services.BulkImportService;
+import com.driver.services.DataFormat;
+import com.driver.services.IdempotencyCache;
+import com.driver.services.ManifestService;
+import com.driver.services.PassengerService;
+import com.driver.services.SeatMap;
+import com.driver.services.TicketService;
+import com.driver.services.TrainService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CollectionStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Runs the services against an in-memory H2 database and counts the SQL statements Hibernate prepares
+@SpringBootTest
+public class QueryCountTests {
+
+    @Autowired
+    TrainService trainService;
+
+    @Autowired
+    TicketService ticketService;
+
+    @Autowired
+    PassengerService passengerService;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    ManifestService manifestService;
+
+    @Autowired
+    BulkImportService bulkImportService;
+
+    Statistics statistics;
+
+    @BeforeEach
+    public void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    private int newTrain() {
+        return trainService.addTrain(new AddTrainEntryDto(
+                Arrays.asList(Station.DELHI, Station.AGRA, Station.GWALIOR, Station.NAGPUR), LocalTime.of(10, 0), 1000));
+    }
+
+    private List<Integer> newPassengers(int count) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(passengerService.addPassenger(new Passenger(0, "P" + i, 20 + i, new ArrayList<>())));
+        }
+        return ids;
+    }
+
+    private long statementsOf(Runnable call) {
+        statistics.clear();
+        call.run();
+        return statistics.getPrepareStatementCount();
+    }
+
+    private void book(int trainId, List<Integer> passengerIds) {
+        try {
+            ticketService.bookTicket(new BookTicketEntryDto(passengerIds, trainId, Station.DELHI, Station.GWALIOR,
+                    passengerIds.size(), passengerIds.get(0)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void bookingCostDoesNotGrowWithPassengers() {
+        int trainId = newTrain();
+        List<Integer> two = newPassengers(2);
+        List<Integer> ten = newPassengers(10);
+        //the first booking on a train also builds its seat inventory
+        book(trainId, newPassengers(1));
+
+        long withTwo = statementsOf(() -> book(trainId, two));
+        long withTen = statementsOf(() -> book(trainId, ten));
+        assertEquals(withTwo, withTen);
+    }
+
+    @Test
+    public void bookingDoesNotRewriteAPassengersEarlierTickets() {
+        int trainId = newTrain();
+        List<Integer> passengers = newPassengers(2);
+        for (int i = 0; i < 30; i++) {
+            book(trainId, passengers);
+        }
+        String joinRows = "select count(*) from passenger_booked_tickets where passenger_passenger_id in (?, ?)";
+        assertEquals(60, (int) jdbcTemplate.queryForObject(joinRows, Integer.class, passengers.get(0), passengers.get(1)));
+
+        List<Integer> fresh = newPassengers(2);
+        book(trainId, fresh);
+        long freshCost = statementsOf(() -> book(trainId, fresh));
+        //the new ticket's two join table rows are written with it, the 30 tickets before it are
+        //neither loaded nor deleted and inserted again, so it costs what it does for new passengers
+        assertEquals(freshCost, statementsOf(() -> book(trainId, passengers)));
+        CollectionStatistics written = statistics.getCollectionStatistics(Ticket.class.getName() + ".passengersList");
+        assertEquals(1, written.getRecreateCount());
+        assertEquals(0, written.getUpdateCount() + written.getRemoveCount());
+        //the passengers' side is the inverse one, the ticket added to it in memory writes nothing
+        CollectionStatistics history = statistics.getCollectionStatistics(Passenger.class.getName() + ".bookedTickets");
+        assertEquals(0, history.getLoadCount() + history.getFetchCount() + history.getRecreateCount() + history.getRemoveCount());
+        assertEquals(0, statistics.getEntityStatistics(Ticket.class.getName()).getLoadCount());
+        assertEquals(62, (int) jdbcTemplate.queryForObject(joinRows, Integer.class, passengers.get(0), passengers.get(1)));
+    }
+
+    @Test
+    public void reportsCostDoesNotGrowWithTickets() throws Exception {
+        int small = newTrain();
+        int large = newTrain();
+        List<Integer> passengers = newPassengers(3);
+        for (int i = 0; i < 2; i++) {
+            book(small, passengers);
+        }
+        for (int i = 0; i < 40; i++) {
+            book(large, passengers);
+        }
+
+        //the bookings keep the aggregates up to date, the reports don't touch the database
+        assertEquals(0, statementsOf(() -> trainService.calculateOldestPersonTravelling(small)));
+        assertEquals(0, statementsOf(() -> trainService.calculateOldestPersonTravelling(large)));
+        assertEquals(0, statementsOf(() -> boarding(large)));
+
+        assertEquals(120, (int) trainService.calculatePeopleBoardingAtAStation(large, Station.DELHI));
+        assertEquals(22, (int) trainService.calculateOldestPersonTravelling(large));
+        book(large, newPassengers(5));
+        assertEquals(125, (int) trainService.calculatePeopleBoardingAtAStation(large, Station.DELHI));
+        assertEquals(0, (int) trainService.calculateOldestPersonTravelling(newTrain()));
+    }
+
+    @Test
+    public void aggregateQueriesAreBackedByIndexes() {
+        List<String> indexes = jdbcTemplate.queryForList("select index_name from information_schema.indexes", String.class);
+        assertTrue(indexes.contains("IDX_TICKET_TRAIN_FROM_STATION"));
+        assertTrue(indexes.contains("IDX_BOOKED_TICKETS_TICKET"));
+    }
+
+    @Test
+    public void serviceMethodsAreTimed() {
+        int trainId = newTrain();
+        book(trainId, newPassengers(1));
+
+        assertTrue(meterRegistry.get("irctc.service").tag("method", "addTrain").timer().count() >= 1);
+        assertTrue(meterRegistry.get("irctc.service").tag("method", "bookTicket").timer().count() >= 1);
+        assertTrue(meterRegistry.get("irctc.booking.results").tag("outcome", "booked").counter().count() >= 1);
+    }
+
+    @Test
+    public void cancellationCostDoesNotGrowWithTheWaitlist() throws Exception {
+        int[] costs = new int[2];
+        int[] waitlisted = {2, 40};
+        for (int i = 0; i < 2; i++) {
+            List<Integer> passengers = newPassengers(2);
+            int trainId = trainService.addTrain(new AddTrainEntryDto(
+                    Arrays.asList(Station.DELHI, Station.AGRA, Station.GWALIOR, Station.NAGPUR), LocalTime.of(10, 0), 1));
+            int ticketId = ticketService.bookTicket(new BookTicketEntryDto(passengers, trainId, Station.DELHI, Station.NAGPUR, 1, passengers.get(0)));
+            BookingResultDto first = null;
+            for (int j = 0; j < waitlisted[i]; j++) {
+                BookingResultDto result = ticketService.waitlistTicket(new BookTicketEntryDto(passengers.subList(1, 2), trainId,
+                        Station.AGRA, Station.NAGPUR, 1, passengers.get(1)));
+                first = first == null ? result : first;
+            }
+            assertNotNull(first.getWaitlistId());
+
+            //the join table rows and the ticket go, the passengers stay and the first in line gets the seat
+            costs[i] = (int) statementsOf(() -> cancel(ticketId));
+            assertEquals(0, (int) jdbcTemplate.queryForObject(
+                    "select count(*) from passenger_booked_tickets where booked_tickets_ticket_id = ?", Integer.class, ticketId));
+            assertEquals(2, (int) jdbcTemplate.queryForObject(
+                    "select count(*) from passenger where passenger_id in (?, ?)", Integer.class, passengers.get(0), passengers.get(1)));
+            assertNotNull(ticketService.waitlistStatus(first.getWaitlistId()).getTicketId());
+            assertEquals(1, (int) trainService.calculatePeopleBoardingAtAStation(trainId, Station.AGRA));
+        }
+        //a promotion may also have to fetch the next block of ticket ids
+        assertTrue(Math.abs(costs[0] - costs[1]) <= 1, Arrays.toString(costs));
+    }
+
+    @Test
+    public void holdsDoNotTouchTheDatabase() {
+        int trainId = newTrain();
+        List<Integer> passengers = newPassengers(1);
+        book(trainId, passengers);
+        BookTicketEntryDto booking = new BookTicketEntryDto(passengers, trainId, Station.DELHI, Station.NAGPUR, 2, passengers.get(0));
+        //the first release loads the train's waitlist
+        ticketService.releaseHold(ticketService.holdSeats(booking).getHoldId());
+
+        Long[] holdId = new Long[1];
+        assertEquals(0, statementsOf(() -> holdId[0] = ticketService.holdSeats(booking).getHoldId()));
+        assertEquals(0, statementsOf(() -> ticketService.releaseHold(holdId[0])));
+        Long confirmed = ticketService.holdSeats(booking).getHoldId();
+        assertNotNull(ticketService.confirmHold(confirmed).getTicketId());
+    }
+
+    @Test
+    public void retriedBookingsDoNotRebook() throws Exception {
+        int trainId = newTrain();
+        List<Integer> passengers = newPassengers(1);
+        book(trainId, passengers);
+        BookTicketEntryDto booking = new BookTicketEntryDto(passengers, trainId, Station.DELHI, Station.GWALIOR, 1, passengers.get(0));
+        booking.setIdempotencyKey("retry-" + trainId);
+        Integer ticketId = ticketService.bookTicket(booking);
+
+        Integer[] retried = new Integer[1];
+        assertEquals(0, statementsOf(() -> retried[0] = bookQuietly(booking)));
+        assertEquals(ticketId, retried[0]);
+
+        //once the key has left the cache, a single lookup by primary key finds the stored ticket
+        TicketService target = AopTestUtils.getTargetObject(ticketService);
+        Object cache = ReflectionTestUtils.getField(target, "idempotencyCache");
+        ReflectionTestUtils.setField(target, "idempotencyCache", new IdempotencyCache(10, 60));
+        try {
+            assertEquals(1, statementsOf(() -> retried[0] = bookQuietly(booking)));
+            assertEquals(ticketId, retried[0]);
+        } finally {
+            ReflectionTestUtils.setField(target, "idempotencyCache", cache);
+        }
+    }
+
+    private Integer bookQuietly(BookTicketEntryDto booking) {
+        try {
+            return ticketService.bookTicket(booking);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void manifestStreamsAMillionRowsWithoutLoadingEntities() throws Exception {
+        int trainId = newTrain();
+        List<Integer> passengers = newPassengers(4);
+        book(trainId, passengers.subList(0, 1));
+        ByteArrayOutputStream small = new ByteArrayOutputStream();
+        assertEquals(1, manifestService.writeManifest(trainId, DataFormat.NDJSON, small));
+        JsonNode line = new ObjectMapper().readTree(small.toString(StandardCharsets.UTF_8.name()));
+        assertEquals("P0", line.get("name").asText());
+        assertEquals("GWALIOR", line.get("toStation").asText());
+        assertEquals(1, line.get("seatNumbers").size());
+
+        //250k more tickets of 4 passengers each, written straight to the tables. They are left
+        //in place, only this test's train has them.
+        int firstTicketId = 50_000_000;
+        jdbcTemplate.update("insert into ticket (ticket_id, from_station, to_station, seat_numbers, total_fare, train_train_id) " +
+                "select x + ?, 0, 1, '1', 300, ? from system_range(1, 250000)", firstTicketId, trainId);
+        for (int passengerId : passengers) {
+            jdbcTemplate.update("insert into passenger_booked_tickets (passenger_passenger_id, booked_tickets_ticket_id) " +
+                    "select ?, x + ? from system_range(1, 250000)", passengerId, firstTicketId);
+        }
+        long[] lines = new long[1];
+        OutputStream counting = new OutputStream() {
+            @Override
+            public void write(int b) {
+                if (b == '\n') {
+                    lines[0]++;
+                }
+            }
+
+            @Override
+            public void write(byte[] bytes, int off, int len) {
+                for (int i = off; i < off + len; i++) {
+                    write(bytes[i]);
+                }
+            }
+        };
+        long[] rows = new long[1];
+        //one cursor and no entities in the persistence context, however many rows
+        assertEquals(1, statementsOf(() -> rows[0] = manifestService.writeManifest(trainId, DataFormat.CSV, counting)));
+        assertEquals(1_000_001, rows[0]);
+        assertEquals(rows[0] + 1, lines[0]);
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    public void bulkImportsAreBatched() throws Exception {
+        StringBuilder passengers = new StringBuilder("name,age\n");
+        for (int i = 0; i < 5000; i++) {
+            passengers.append("\"Imported, ").append(i).append("\",").append(20 + i % 60).append('\n');
+        }
+        passengers.append("Broken,forty\n");
+        ImportResultDto[] result = new ImportResultDto[1];
+        long statements = statementsOf(() -> result[0] = importing(() -> bulkImportService.importPassengers(
+                new ByteArrayInputStream(passengers.toString().getBytes(StandardCharsets.UTF_8)), DataFormat.CSV)));
+        assertEquals(5000, result[0].getImported());
+        assertEquals(1, result[0].getRejected());
+        assertTrue(result[0].getErrors().get(0).startsWith("line 5002"));
+        assertTrue(result[0].getRowsPerSecond() > 0);
+        //an insert batch and an id block per 50 rows rather than a round trip per row
+        assertTrue(statements <= 2 * 5000 / 50 + 2, "statements: " + statements);
+        assertEquals(5000, (int) jdbcTemplate.queryForObject("select count(*) from passenger where name like 'Imported, %'", Integer.class));
+
+        //imported trains show up in the indexes that are already loaded
+        trainService.trainsBetweenAGivenTime(Station.AGRA, LocalTime.of(0, 0), LocalTime.of(0, 0));
+        String trains = "{\"stationRoute\":[\"DELHI\",\"AGRA\",\"NAGPUR\"],\"departureTime\":\"05:10\",\"noOfSeats\":777}\n"
+                + "{\"stationRoute\":[\"DELHI\",\"NOWHERE\"],\"departureTime\":\"05:10\",\"noOfSeats\":777}\n"
+                + "{\"stationRoute\":[\"PUNE\",\"AGRA\"],\"departureTime\":\"04:10\",\"noOfSeats\":777}\n";
+        ImportResultDto imported = bulkImportService.importTrains(new ByteArrayInputStream(trains.getBytes(StandardCharsets.UTF_8)), DataFormat.NDJSON);
+        assertEquals(2, imported.getImported());
+        assertEquals(1, imported.getRejected());
+        List<Integer> trainIds = jdbcTemplate.queryForList("select train_id from trains where no_of_seats = 777 order by train_id", Integer.class);
+        assertEquals(trainIds, trainService.trainsBetweenAGivenTime(Station.AGRA, LocalTime.of(5, 10), LocalTime.of(6, 10)));
+
+        //a route with more legs than the seat map holds is rejected like at /train/add
+        StringBuilder longRoute = new StringBuilder();
+        for (int i = 0; i <= SeatMap.MAX_LEGS + 1; i++) {
+            longRoute.append(i % 2 == 0 ? "MUMBAI " : "PUNE ");
+        }
+        ImportResultDto csv = bulkImportService.importTrains(new ByteArrayInputStream(
+                ("stationRoute,departureTime,noOfSeats\n\"MUMBAI,PUNE\",09:00,12\nMUMBAI CHENNAI,09:30,12\n"
+                        + longRoute.toString().trim() + ",10:00,12\n").getBytes(StandardCharsets.UTF_8)), DataFormat.CSV);
+        assertEquals(2, csv.getImported());
+        assertEquals(1, csv.getRejected());
+        assertTrue(csv.getErrors().get(0).contains("Route is too long"), csv.getErrors().get(0));
+    }
+
+    private interface Import {
+
+        ImportResultDto run() throws IOException;
+    }
+
+    private ImportResultDto importing(Import call) {
+        try {
+            return call.run();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void cancel(int ticketId) {
+        try {
+            ticketService.cancelTicket(ticketId);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void boarding(int trainId) {
+        try {
+            trainService.calculatePeopleBoardingAtAStation(trainId, Station.DELHI);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.driver.test;
+
+import com.driver.EntryDto.AddTrainEntryDto;
+import com.driver.ReplicaRoutingDataSource;
+import com.driver.model.Station;
+import com.driver.services.TrainService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//Two in-memory H2 databases stand in for the primary and a replica, replication is copying the primary's script over
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1;MODE=MySQL",
+        "irctc.datasource.replica.urls=" + ReplicaRoutingTests.REPLICA_URL,
+        "irctc.datasource.replica.max-lag-millis=60000",
+        "irctc.datasource.replica.heartbeat-millis=3600000"})
+public class ReplicaRoutingTests {
+
+    static final String REPLICA_URL = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1;MODE=MySQL";
+
+    @Autowired
+    ReplicaRoutingDataSource routingDataSource;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    TrainService trainService;
+
+    JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+
+    private String databaseOf(boolean readOnly) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(readOnly);
+        return transaction.execute(status -> jdbcTemplate.queryForObject("select database()", String.class));
+    }
+
+    private String databaseOfPinnedRead() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        return transaction.execute(status -> ReplicaRoutingDataSource.onPrimary(() ->
+                jdbcTemplate.queryForObject("select database()", String.class)));
+    }
+
+    private void replicate() {
+        replica.execute("drop all objects");
+        for (String statement : jdbcTemplate.queryForList("script", String.class)) {
+            replica.execute(statement);
+        }
+    }
+
+    @Test
+    public void readOnlyTransactionsGoToReplicasThatKeepUp() {
+        //nothing replicated yet, so there is no heartbeat to trust
+        routingDataSource.checkReplicas();
+        assertEquals(0, routingDataSource.usableReplicas());
+        assertEquals("PRIMARY", databaseOf(true));
+
+        int trainId = trainService.addTrain(new AddTrainEntryDto(Arrays.asList(Station.DELHI, Station.AGRA), LocalTime.of(10, 0), 10));
+        replicate();
+        routingDataSource.checkReplicas();
+        assertEquals(1, routingDataSource.usableReplicas());
+        assertEquals("REPLICA", databaseOf(true));
+        assertEquals("PRIMARY", databaseOf(false));
+        assertEquals("PRIMARY", databaseOfPinnedRead());
+
+        //state that is loaded once and then kept up to date comes from the primary, a train
+        //the replica hasn't got yet is still found
+        int missing = trainService.addTrain(new AddTrainEntryDto(Arrays.asList(Station.DELHI, Station.AGRA), LocalTime.of(10, 30), 10));
+        assertEquals(Arrays.asList(trainId, missing), trainService.trainsBetweenAGivenTime(Station.DELHI, LocalTime.of(10, 0), LocalTime.of(11, 0)));
+
+        //too far behind, back to the primary
+        replica.update("update replica_heartbeat set beat = ?", System.currentTimeMillis() - 120000);
+        routingDataSource.checkReplicas();
+        assertEquals(0, routingDataSource.usableReplicas());
+        assertEquals("PRIMARY", databaseOf(true));
+    }
+}
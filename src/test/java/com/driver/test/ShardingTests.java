@@ -0,0 +1,130 @@
+package com.driver.test;
+
+import com.driver.EntryDto.AddTrainEntryDto;
+import com.driver.EntryDto.BookTicketEntryDto;
+import com.driver.EntryDto.SeatAvailabilityEntryDto;
+import com.driver.ResponseDto.BookingResultDto;
+import com.driver.ResponseDto.ImportResultDto;
+import com.driver.ShardedDataSource;
+import com.driver.model.Passenger;
+import com.driver.model.Station;
+import com.driver.services.BulkImportService;
+import com.driver.services.DataFormat;
+import com.driver.services.PassengerService;
+import com.driver.services.TicketService;
+import com.driver.services.TrainService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//Three in-memory H2 databases as shards, each checked directly. The shard count is static,
+//so the context is closed afterwards and the other tests get their single database back.
+@SpringBootTest(properties = "irctc.shard.urls=jdbc:h2:mem:shard0;DB_CLOSE_DELAY=-1;MODE=MySQL,"
+        + "jdbc:h2:mem:shard1;DB_CLOSE_DELAY=-1;MODE=MySQL,jdbc:h2:mem:shard2;DB_CLOSE_DELAY=-1;MODE=MySQL")
+@DirtiesContext
+public class ShardingTests {
+
+    @Autowired
+    TrainService trainService;
+
+    @Autowired
+    TicketService ticketService;
+
+    @Autowired
+    PassengerService passengerService;
+
+    @Autowired
+    BulkImportService bulkImportService;
+
+    private JdbcTemplate shard(int shard) {
+        return new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:shard" + shard + ";DB_CLOSE_DELAY=-1;MODE=MySQL", "sa", ""));
+    }
+
+    private int count(int shard, String sql, Object... args) {
+        return shard(shard).queryForObject(sql, Integer.class, args);
+    }
+
+    @Test
+    public void trainsAndTheirTicketsAreSpreadOverTheShards() throws Exception {
+        assertEquals(3, ShardedDataSource.shards());
+        int passengerId = passengerService.addPassenger(new Passenger(0, "Asha", 30, new ArrayList<>()));
+        //every shard has the passenger, with the same id
+        for (int shard = 0; shard < 3; shard++) {
+            assertEquals(1, count(shard, "select count(*) from passenger where passenger_id = ?", passengerId));
+        }
+
+        List<Integer> trainIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            trainIds.add(trainService.addTrain(new AddTrainEntryDto(Arrays.asList(Station.DELHI, Station.AGRA), LocalTime.of(10, i), 10)));
+        }
+        //one train on each shard, each on the shard its id points to
+        for (int trainId : trainIds) {
+            assertEquals(1, count(ShardedDataSource.shardOf(trainId), "select count(*) from trains where train_id = ?", trainId));
+        }
+        assertEquals(3, trainIds.stream().map(ShardedDataSource::shardOf).distinct().count());
+        //a search sees the trains of every shard
+        List<Integer> found = trainService.trainsBetweenAGivenTime(Station.DELHI, LocalTime.of(10, 0), LocalTime.of(10, 30));
+        Collections.sort(found);
+        List<Integer> sorted = new ArrayList<>(trainIds);
+        Collections.sort(sorted);
+        assertEquals(sorted, found);
+
+        //one batch spanning all the shards, every ticket lands with its train
+        List<BookTicketEntryDto> batch = new ArrayList<>();
+        for (int trainId : trainIds) {
+            batch.add(new BookTicketEntryDto(Collections.singletonList(passengerId), trainId, Station.DELHI, Station.AGRA, 1, passengerId));
+        }
+        List<BookingResultDto> results = ticketService.bookTickets(batch);
+        for (int i = 0; i < trainIds.size(); i++) {
+            Integer ticketId = results.get(i).getTicketId();
+            assertNotNull(ticketId, results.get(i).getFailureReason());
+            int shard = ShardedDataSource.shardOf(trainIds.get(i));
+            assertEquals(shard, ShardedDataSource.shardOf(ticketId));
+            assertEquals(1, count(shard, "select count(*) from ticket where ticket_id = ? and train_train_id = ?", ticketId, trainIds.get(i)));
+        }
+
+        int ticketId = results.get(1).getTicketId();
+        ticketService.cancelTicket(ticketId);
+        assertEquals(0, count(ShardedDataSource.shardOf(ticketId), "select count(*) from ticket where ticket_id = ?", ticketId));
+        assertEquals(10, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(trainIds.get(1), Station.DELHI, Station.AGRA)));
+    }
+
+    @Test
+    public void passengerCopiesCanBeRetriedAndPartialOnesAreReported() throws Exception {
+        Passenger passenger = new Passenger(0, "Ravi", 40, new ArrayList<>());
+        passengerService.addPassenger(passenger);
+        //copying again skips the rows already there
+        assertTrue(passengerService.copyToOtherShards(Collections.singletonList(passenger)).isEmpty());
+        for (int shard = 0; shard < 3; shard++) {
+            assertEquals(1, count(shard, "select count(*) from passenger where passenger_id = ?", passenger.getPassengerId()));
+        }
+
+        //shard 2 turns the rows away every time, they are on shards 0 and 1 only
+        shard(2).execute("alter table passenger add constraint young_only check (age < 100)");
+        try {
+            ImportResultDto result = bulkImportService.importPassengers(new ByteArrayInputStream(
+                    "{\"name\":\"Old\",\"age\":120}\n{\"name\":\"Young\",\"age\":20}\n".getBytes(StandardCharsets.UTF_8)), DataFormat.NDJSON);
+            assertEquals(2, result.getImported());
+            assertEquals(2, result.getNotCopied());
+            assertTrue(result.getErrors().get(0).endsWith("not copied to shards [2]"), result.getErrors().get(0));
+            assertEquals(2, count(1, "select count(*) from passenger where name in ('Old', 'Young')"));
+        } finally {
+            shard(2).execute("alter table passenger drop constraint young_only");
+        }
+    }
+}
@@ -2,21 +2,71 @@ package com.driver.test;
 
 import com.driver.EntryDto.AddTrainEntryDto;
 import com.driver.EntryDto.BookTicketEntryDto;
+import com.driver.EntryDto.FareQuoteEntryDto;
 import com.driver.EntryDto.SeatAvailabilityEntryDto;
+import com.driver.ResponseDto.AvailabilityMatrixDto;
+import com.driver.ResponseDto.BookingResultDto;
+import com.driver.ResponseDto.FareQuoteDto;
+import com.driver.ResponseDto.JourneyDto;
+import com.driver.ResponseDto.JourneyLegDto;
+import com.driver.ResponseDto.SeatHoldDto;
 import com.driver.model.*;
 import com.driver.repository.*;
+import com.driver.services.BookingJournal;
+import com.driver.services.BookingLocks;
+import com.driver.services.AdmissionControl;
+import com.driver.services.BookingMetrics;
+import com.driver.services.BookingSequencer;
+import com.driver.services.ConnectionIndex;
+import com.driver.services.FareRules;
+import com.driver.services.FareService;
+import com.driver.services.FareTables;
+import com.driver.services.IdempotencyCache;
+import com.driver.services.JourneyService;
+import com.driver.services.LegOccupancy;
 import com.driver.services.PassengerService;
+import com.driver.services.PassengerStatistics;
+import com.driver.services.SeatHolds;
+import com.driver.services.SeatInventory;
+import com.driver.services.SeatMap;
+import com.driver.services.StationArrivalIndex;
+import com.driver.services.TimingWheel;
+import com.driver.services.TrainCache;
 import com.driver.services.TicketService;
+import com.driver.services.TrainInventory;
+import com.driver.services.TrainPassengerStats;
 import com.driver.services.TrainService;
+import com.driver.services.TrainWaitlist;
+import com.driver.services.Waitlists;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -24,5 +74,1548 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 public class TestCases {
 
-}
+    @Mock
+    TrainRepository trainRepository;
+
+    @Mock
+    TicketRepository ticketRepository;
+
+    @Mock
+    PassengerRepository passengerRepository;
+
+    @Mock
+    WaitlistRepository waitlistRepository;
+
+    @Mock
+    IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Spy
+    SeatInventory seatInventory = new SeatInventory();
+
+    @Spy
+    BookingLocks bookingLocks = new BookingLocks();
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    @Spy
+    StationArrivalIndex stationArrivalIndex = new StationArrivalIndex();
+
+    @Spy
+    TrainCache trainCache = new TrainCache(true, 1000);
+
+    @Spy
+    PassengerStatistics passengerStatistics = new PassengerStatistics();
+
+    @Spy
+    BookingMetrics bookingMetrics = new BookingMetrics(new SimpleMeterRegistry());
+
+    @Spy
+    BookingSequencer bookingSequencer = new BookingSequencer("locked", 1, 16, 8);
+
+    @Spy
+    BookingJournal bookingJournal = new BookingJournal(false, "journal", 16, 300);
+
+    @Spy
+    Waitlists waitlists = new Waitlists();
+
+    @Spy
+    SeatHolds seatHolds = new SeatHolds(300, 1000, 512);
+
+    @Spy
+    ConnectionIndex connectionIndex = new ConnectionIndex();
+
+    @Spy
+    FareTables fareTables = new FareTables();
+
+    @Spy
+    IdempotencyCache idempotencyCache = new IdempotencyCache(1000, 60);
+
+    @TempDir
+    Path journalDirectory;
+
+    @InjectMocks
+    TrainService trainService;
+
+    @InjectMocks
+    TicketService ticketService;
+
+    @InjectMocks
+    JourneyService journeyService;
+
+    @InjectMocks
+    FareService fareService;
+
+    Map<Integer, Train> trains = new ConcurrentHashMap<>();
+
+    Map<Integer, Passenger> passengers = new ConcurrentHashMap<>();
+
+    AtomicInteger ticketIds = new AtomicInteger(100);
+
+    Map<Integer, WaitlistEntry> waitlist = new ConcurrentHashMap<>();
+
+    AtomicInteger waitlistIds = new AtomicInteger(1);
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(trainCache, "trainRepository", trainRepository);
+        ReflectionTestUtils.setField(seatInventory, "trainCache", trainCache);
+        ReflectionTestUtils.setField(passengerStatistics, "ticketRepository", ticketRepository);
+        ReflectionTestUtils.setField(seatInventory, "ticketRepository", ticketRepository);
+        ReflectionTestUtils.setField(seatInventory, "bookingJournal", bookingJournal);
+        ReflectionTestUtils.setField(waitlists, "waitlistRepository", waitlistRepository);
+        ReflectionTestUtils.setField(waitlists, "trainCache", trainCache);
+        ReflectionTestUtils.setField(fareTables, "trainCache", trainCache);
+        ReflectionTestUtils.setField(fareTables, "fareRules", FareRules.flat(300));
+
+        lenient().when(trainRepository.findById(anyInt()))
+                .thenAnswer(invocation -> Optional.ofNullable(trains.get(invocation.<Integer>getArgument(0))));
+        lenient().when(ticketRepository.countPassengersByBoardingAndAge(anyInt())).thenAnswer(invocation -> {
+            List<BoardingAgeCount> counts = new ArrayList<>();
+            for (Ticket ticket : trains.get(invocation.<Integer>getArgument(0)).getBookedTickets()) {
+                for (Passenger passenger : ticket.getPassengersList()) {
+                    counts.add(boardingAgeCount(ticket.getFromStation(), passenger.getAge()));
+                }
+            }
+            return counts;
+        });
+        lenient().when(trainRepository.getOne(anyInt())).thenAnswer(invocation -> trains.get(invocation.<Integer>getArgument(0)));
+        lenient().when(passengerRepository.findAllById(any())).thenAnswer(invocation -> {
+            List<Passenger> found = new ArrayList<>();
+            for (Integer passengerId : invocation.<Iterable<Integer>>getArgument(0)) {
+                if (passengers.containsKey(passengerId)) {
+                    found.add(passengers.get(passengerId));
+                }
+            }
+            return found;
+        });
+        lenient().when(trainRepository.findSummaryById(anyInt())).thenAnswer(invocation -> {
+            Train train = trains.get(invocation.<Integer>getArgument(0));
+            return Optional.ofNullable(train == null ? null : summary(train));
+        });
+        lenient().when(ticketRepository.findSeatAssignments(anyInt())).thenAnswer(invocation -> {
+            Train train = trains.get(invocation.<Integer>getArgument(0));
+            List<SeatAssignment> assignments = new ArrayList<>();
+            for (Ticket ticket : train.getBookedTickets()) {
+                assignments.add(seatAssignment(train, ticket.getFromStation(), ticket.getToStation(),
+                        ticket.getSeatNumbers(), ticket.getPassengersList().size()));
+            }
+            return assignments;
+        });
+        lenient().when(ticketRepository.saveAll(any())).thenAnswer(invocation -> {
+            List<Ticket> tickets = invocation.getArgument(0);
+            for (Ticket ticket : tickets) {
+                ticket.setTicketId(ticketIds.getAndIncrement());
+                ticket.getTrain().getBookedTickets().add(ticket);
+            }
+            return tickets;
+        });
+        lenient().when(ticketRepository.findById(anyInt())).thenAnswer(invocation -> {
+            for (Train train : trains.values()) {
+                for (Ticket ticket : train.getBookedTickets()) {
+                    if (ticket.getTicketId() == invocation.<Integer>getArgument(0)) {
+                        return Optional.of(ticket);
+                    }
+                }
+            }
+            return Optional.empty();
+        });
+        lenient().when(ticketRepository.findTrainIdByTicketId(anyInt())).thenAnswer(invocation ->
+                ticketRepository.findById(invocation.getArgument(0)).map(ticket -> ticket.getTrain().getTrainId()).orElse(null));
+        lenient().when(ticketRepository.countPassengersByAge(anyInt())).thenAnswer(invocation -> {
+            List<BoardingAgeCount> counts = new ArrayList<>();
+            for (Ticket ticket : ticketRepository.findById(invocation.getArgument(0)).map(Collections::singletonList)
+                    .orElse(Collections.<Ticket>emptyList())) {
+                for (Passenger passenger : ticket.getPassengersList()) {
+                    counts.add(boardingAgeCount(ticket.getFromStation(), passenger.getAge()));
+                }
+            }
+            return counts;
+        });
+        lenient().doAnswer(invocation -> {
+            Ticket ticket = invocation.getArgument(0);
+            return ticket.getTrain().getBookedTickets().remove(ticket);
+        }).when(ticketRepository).delete(any());
+        lenient().when(waitlistRepository.save(any())).thenAnswer(invocation -> {
+            WaitlistEntry entry = invocation.getArgument(0);
+            entry.setWaitlistId(waitlistIds.getAndIncrement());
+            waitlist.put(entry.getWaitlistId(), entry);
+            return entry;
+        });
+        lenient().when(waitlistRepository.findById(anyInt()))
+                .thenAnswer(invocation -> Optional.ofNullable(waitlist.get(invocation.<Integer>getArgument(0))));
+        lenient().when(waitlistRepository.findAllById(any())).thenAnswer(invocation -> {
+            List<WaitlistEntry> found = new ArrayList<>();
+            for (Integer waitlistId : invocation.<Iterable<Integer>>getArgument(0)) {
+                found.add(waitlist.get(waitlistId));
+            }
+            return found;
+        });
+    }
+
+    private TrainSummary summary(Train train) {
+        return new TrainSummary() {
+            public int getTrainId() { return train.getTrainId(); }
+            public Route getRoute() { return train.getRoute(); }
+            public LocalTime getDepartureTime() { return train.getDepartureTime(); }
+            public int getNoOfSeats() { return train.getNoOfSeats(); }
+        };
+    }
+
+    private SeatAssignment seatAssignment(Train train, Station from, Station to, int[] seatNumbers, int passengers) {
+        return new SeatAssignment() {
+            public int getTrainId() { return train.getTrainId(); }
+            public Route getRoute() { return train.getRoute(); }
+            public Station getFromStation() { return from; }
+            public Station getToStation() { return to; }
+            public int[] getSeatNumbers() { return seatNumbers; }
+            public int getPassengers() { return passengers; }
+        };
+    }
+
+    private BoardingAgeCount boardingAgeCount(Station from, int age) {
+        return new BoardingAgeCount() {
+            public Station getFromStation() { return from; }
+            public int getAge() { return age; }
+            public long getPassengers() { return 1; }
+        };
+    }
+
+    private Train train(int trainId, String route, int noOfSeats) {
+        Train train = new Train(trainId, Route.parse(route), new ArrayList<>(), LocalTime.of(10, 0), noOfSeats);
+        trains.put(trainId, train);
+        return train;
+    }
+
+    private Passenger passenger(int passengerId, int age) {
+        Passenger passenger = new Passenger(passengerId, "P" + passengerId, age, new ArrayList<>());
+        passengers.put(passengerId, passenger);
+        return passenger;
+    }
+
+    private Ticket ticket(Train train, Station from, Station to, Passenger... passengers) {
+        Ticket ticket = new Ticket(0, new ArrayList<>(Arrays.asList(passengers)), train, from, to, 0);
+        train.getBookedTickets().add(ticket);
+        return ticket;
+    }
+
+    @Test
+    public void routeRoundTripsThroughTheConverter() {
+        Route route = Route.of(Arrays.asList(Station.JAMMU, Station.DELHI, Station.AGRA, Station.KANYAKUMARI));
+        RouteConverter converter = new RouteConverter();
+
+        assertEquals("JAMMU,DELHI,AGRA,KANYAKUMARI", converter.convertToDatabaseColumn(route));
+        assertEquals(route, converter.convertToEntityAttribute("JAMMU,DELHI,AGRA,KANYAKUMARI"));
+        assertEquals(3, route.legs());
+        assertEquals(2, route.positionOf(Station.AGRA));
+        assertEquals(Station.KANYAKUMARI, route.stationAt(3));
+        assertFalse(route.contains(Station.KANPUR));
+    }
+
+    @Test
+    public void legOccupancyMatchesBruteForce() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            int legs = 1 + random.nextInt(20);
+            int[] expected = new int[legs];
+            LegOccupancy occupancy = new LegOccupancy(legs);
+            for (int op = 0; op < 50; op++) {
+                int from = random.nextInt(legs);
+                int to = from + 1 + random.nextInt(legs - from);
+                if (random.nextBoolean()) {
+                    int seats = random.nextInt(5);
+                    occupancy.add(from, to, seats);
+                    for (int i = from; i < to; i++) {
+                        expected[i] += seats;
+                    }
+                } else {
+                    int max = 0;
+                    for (int i = from; i < to; i++) {
+                        max = Math.max(max, expected[i]);
+                    }
+                    assertEquals(max, occupancy.max(from, to));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void availableSeatsOnlyCountOverlappingTickets() {
+        //Route A B C D with 2 seats and tickets A-C and B-D: one seat is free on A-B and C-D, none on B-C
+        Train train = train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 2);
+        ticket(train, Station.DELHI, Station.GWALIOR, passenger(1, 30));
+        ticket(train, Station.AGRA, Station.NAGPUR, passenger(2, 40));
+
+        assertEquals(1, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.AGRA)));
+        assertEquals(0, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.AGRA, Station.GWALIOR)));
+        assertEquals(1, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.GWALIOR, Station.NAGPUR)));
+        assertEquals(0, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+    }
+
+    @Test
+    public void bookingReusesSeatsFreedOnOtherLegs() throws Exception {
+        Train train = train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 1);
+        passenger(1, 30);
+        passenger(2, 40);
+
+        ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, 1, 1));
+        ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(2), 1, Station.AGRA, Station.NAGPUR, 1, 2));
+
+        Exception e = assertThrows(Exception.class, () ->
+                ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(1), 1, Station.GWALIOR, Station.NAGPUR, 1, 1)));
+        assertEquals("Less tickets are available", e.getMessage());
+        assertEquals(2, train.getBookedTickets().size());
+        assertEquals(1, train.getNoOfSeats());
+    }
+
+    @Test
+    public void bookingRejectsStationsOffTheRoute() {
+        train(1, "DELHI,AGRA,GWALIOR", 5);
+        Exception e = assertThrows(Exception.class, () ->
+                ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(1), 1, Station.GWALIOR, Station.DELHI, 1, 1)));
+        assertEquals("Invalid stations", e.getMessage());
+    }
+
+    private void stressBooking(int threads, int bookingsPerThread, int firstTrainId, int trainCount, AtomicInteger booked) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < bookingsPerThread; i++) {
+                    int trainId = firstTrainId + (thread + i) % trainCount;
+                    try {
+                        ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(1), trainId, Station.DELHI, Station.NAGPUR, 1, 1));
+                        booked.incrementAndGet();
+                    } catch (Exception e) {
+                        assertEquals("Less tickets are available", e.getMessage());
+                    }
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void concurrentBookingsNeverOverbook() throws Exception {
+        //more attempts than seats in both runs, so every seat is fought over
+        int threads = 16;
+        int bookingsPerThread = 10;
+        passenger(1, 30);
+
+        //one hot train: every thread contends on the same stripe
+        Train hot = train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 100);
+        AtomicInteger booked = new AtomicInteger();
+        stressBooking(threads, bookingsPerThread, 1, 1, booked);
+        assertEquals(100, booked.get());
+        assertEquals(100, hot.getBookedTickets().size());
+        assertEquals(0, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+
+        //many trains: bookings spread over the stripes
+        int trainCount = 8;
+        for (int trainId = 2; trainId <= trainCount + 1; trainId++) {
+            train(trainId, "DELHI,AGRA,GWALIOR,NAGPUR", 10);
+        }
+        AtomicInteger spreadBooked = new AtomicInteger();
+        stressBooking(threads, bookingsPerThread, 2, trainCount, spreadBooked);
+        for (int trainId = 2; trainId <= trainCount + 1; trainId++) {
+            assertEquals(0, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(trainId, Station.DELHI, Station.NAGPUR)));
+        }
+        assertEquals(trainCount * 10, spreadBooked.get());
+    }
+
+    @Test
+    public void sequencedBookingsNeverOverbook() throws Exception {
+        BookingSequencer sequencer = new BookingSequencer("sequenced", 4, 1024, 32);
+        ReflectionTestUtils.setField(ticketService, "bookingSequencer", sequencer);
+        sequencer.start(ticketService::bookTickets);
+        try {
+            passenger(1, 30);
+            Train hot = train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 300);
+            AtomicInteger booked = new AtomicInteger();
+            stressBooking(50, 20, 1, 1, booked);
+
+            assertEquals(300, booked.get());
+            assertEquals(300, hot.getBookedTickets().size());
+            assertEquals(0, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+        } finally {
+            sequencer.stop();
+        }
+    }
+
+    @Test
+    public void fullMailboxFailsFast() throws Exception {
+        BookingSequencer sequencer = new BookingSequencer("sequenced", 1, 2, 1);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        sequencer.start(batch -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return Collections.nCopies(batch.size(), BookingResultDto.booked(1));
+        });
+        try {
+            BookTicketEntryDto dto = new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, 1, 1);
+            CompletableFuture<BookingResultDto> first = sequencer.submit(dto);
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            //the lane is busy with the first booking, two more fill its mailbox
+            CompletableFuture<BookingResultDto> second = sequencer.submit(dto);
+            CompletableFuture<BookingResultDto> third = sequencer.submit(dto);
+            assertEquals(BookingSequencer.QUEUE_FULL, sequencer.submit(dto).get().getFailureReason());
+
+            release.countDown();
+            for (CompletableFuture<BookingResultDto> result : Arrays.asList(first, second, third)) {
+                assertEquals(Integer.valueOf(1), result.get(10, TimeUnit.SECONDS).getTicketId());
+            }
+        } finally {
+            sequencer.stop();
+        }
+    }
+
+    private BookingJournal journal(long ticketsInDatabase, long ticketIdSumInDatabase) throws Exception {
+        BookingJournal journal = new BookingJournal(true, journalDirectory.toString(), 4, 300);
+        ReflectionTestUtils.setField(journal, "ticketRepository", ticketRepository);
+        journal.open(ticketsInDatabase, ticketIdSumInDatabase);
+        return journal;
+    }
+
+    @Test
+    public void journalReplaysBookingsAcrossSegmentsAndSnapshots() throws Exception {
+        BookingJournal journal = journal(0, 0);
+        ReflectionTestUtils.setField(seatInventory, "bookingJournal", journal);
+        ReflectionTestUtils.setField(ticketService, "bookingJournal", journal);
+        train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 100);
+        List<Integer> many = new ArrayList<>();
+        for (int passengerId = 1; passengerId <= 30; passengerId++) {
+            passenger(passengerId, 20 + passengerId);
+            many.add(passengerId);
+        }
+        //30 passenger ids take three records, the four record segments roll over several times
+        ticketService.bookTicket(new BookTicketEntryDto(many, 1, Station.DELHI, Station.NAGPUR, 30, 1));
+        for (int i = 0; i < 5; i++) {
+            ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(1, 2), 1, Station.AGRA, Station.GWALIOR, 2, 1));
+        }
+        journal.snapshot();
+        ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(3), 1, Station.GWALIOR, Station.NAGPUR, 1, 3));
+        assertEquals(60, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+
+        //a restart: the inventory comes back from the snapshot and the segment after it, not from the tickets
+        //tickets 100 to 106
+        BookingJournal replayed = journal(7, 721);
+        SeatInventory restarted = new SeatInventory();
+        ReflectionTestUtils.setField(restarted, "trainCache", trainCache);
+        ReflectionTestUtils.setField(restarted, "ticketRepository", ticketRepository);
+        ReflectionTestUtils.setField(restarted, "bookingJournal", replayed);
+        assertEquals(60, restarted.forTrain(1).availableSeats(0, 3));
+        assertEquals(70, restarted.forTrain(1).availableSeats(0, 1));
+        assertEquals(69, restarted.forTrain(1).availableSeats(2, 3));
+        verify(ticketRepository, never()).findSeatAssignments(anyInt());
+        assertTrue(Files.list(journalDirectory).count() < 8);
+    }
+
+    @Test
+    public void journalIsRebasedWhenTicketsAreMissing() throws Exception {
+        Train train = train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 10);
+        BookingJournal journal = journal(0, 0);
+        journal.append(1, Station.DELHI, Station.AGRA, 0, 1, new int[]{1, 2}, 100, Arrays.asList(1, 2));
+
+        //one more ticket was committed but never made it to the journal, it was booked before
+        //seats were assigned and gets the lowest seats free for its journey
+        when(ticketRepository.findAllSeatAssignments()).thenReturn(Arrays.asList(
+                seatAssignment(train, Station.DELHI, Station.AGRA, new int[]{1, 2}, 2),
+                seatAssignment(train, Station.AGRA, Station.GWALIOR, null, 3)));
+        BookingJournal rebased = journal(2, 201);
+        assertArrayEquals(new long[]{0b11, 0b11, 0b10}, Arrays.copyOf(rebased.seatLegs(1), 3));
+        verify(ticketRepository, times(1)).findAllSeatAssignments();
+
+        //the rebase wrote a snapshot, the next start replays it without asking the database again
+        rebased.append(1, Station.DELHI, Station.GWALIOR, 0, 2, new int[]{4}, 102, Arrays.asList(3));
+        assertArrayEquals(new long[]{0b11, 0b11, 0b10, 0b11, 0}, Arrays.copyOf(journal(3, 303).seatLegs(1), 5));
+        verify(ticketRepository, times(1)).findAllSeatAssignments();
+    }
+
+    @Test
+    public void journalReplaysCancellations() throws Exception {
+        train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 10);
+        BookingJournal journal = journal(0, 0);
+        journal.append(1, Station.DELHI, Station.NAGPUR, 0, 3, new int[]{1, 2}, 100, Arrays.asList(1, 2));
+        journal.append(1, Station.AGRA, Station.GWALIOR, 1, 2, new int[]{3}, 101, Arrays.asList(3));
+        journal.cancel(1, Station.DELHI, Station.NAGPUR, 0, 3, new int[]{1, 2}, 100);
+
+        //one ticket is left, so the replay is trusted and the cancelled seats are free again
+        assertArrayEquals(new long[]{0, 0, 0b10}, Arrays.copyOf(journal(1, 101).seatLegs(1), 3));
+        verify(ticketRepository, never()).findAllSeatAssignments();
+    }
+
+    @Test
+    public void journalIsRebasedWhenItHoldsOtherTicketsThanTheDatabase() throws Exception {
+        Train train = train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 10);
+        BookingJournal journal = journal(0, 0);
+        journal.append(1, Station.DELHI, Station.AGRA, 0, 1, new int[]{1}, 100, Arrays.asList(1));
+        journal.append(1, Station.AGRA, Station.GWALIOR, 1, 2, new int[]{2}, 101, Arrays.asList(2));
+
+        //ticket 100 was cancelled and 102 booked without either reaching the journal: two
+        //tickets on both sides, only the ids tell them apart
+        when(ticketRepository.findAllSeatAssignments()).thenReturn(Arrays.asList(
+                seatAssignment(train, Station.AGRA, Station.GWALIOR, new int[]{2}, 1),
+                seatAssignment(train, Station.GWALIOR, Station.NAGPUR, new int[]{1}, 1)));
+        BookingJournal rebased = journal(2, 203);
+        assertArrayEquals(new long[]{0b100, 0b10}, Arrays.copyOf(rebased.seatLegs(1), 2));
+        verify(ticketRepository, times(1)).findAllSeatAssignments();
+    }
+
+    @Test
+    public void seatMapMatchesBruteForce() {
+        Random random = new Random(3);
+        for (boolean bestFit : new boolean[]{false, true}) {
+            int capacity = 20;
+            int legs = 12;
+            SeatMap seatMap = new SeatMap(capacity, legs, bestFit);
+            boolean[][] taken = new boolean[capacity + 1][legs];
+            List<int[]> booked = new ArrayList<>();
+            for (int step = 0; step < 3000; step++) {
+                if (!booked.isEmpty() && random.nextInt(3) == 0) {
+                    int[] booking = booked.remove(random.nextInt(booked.size()));
+                    int[] seatNumbers = Arrays.copyOfRange(booking, 2, booking.length);
+                    seatMap.release(booking[0], booking[1], seatNumbers);
+                    for (int seat : seatNumbers) {
+                        for (int leg = booking[0]; leg < booking[1]; leg++) {
+                            taken[seat][leg] = false;
+                        }
+                    }
+                    continue;
+                }
+                int from = random.nextInt(legs);
+                int to = from + 1 + random.nextInt(legs - from);
+                int free = 0;
+                for (int seat = 1; seat <= capacity; seat++) {
+                    boolean fits = true;
+                    for (int leg = from; leg < to; leg++) {
+                        fits &= !taken[seat][leg];
+                    }
+                    free += fits ? 1 : 0;
+                }
+                assertEquals(free, seatMap.countFree(from, to));
+                int[] seatNumbers = new int[1 + random.nextInt(3)];
+                assertEquals(free >= seatNumbers.length, seatMap.allocate(from, to, seatNumbers));
+                if (free < seatNumbers.length) {
+                    continue;
+                }
+                for (int seat : seatNumbers) {
+                    for (int leg = from; leg < to; leg++) {
+                        assertFalse(taken[seat][leg]);
+                        taken[seat][leg] = true;
+                    }
+                }
+                int[] booking = new int[seatNumbers.length + 2];
+                booking[0] = from;
+                booking[1] = to;
+                System.arraycopy(seatNumbers, 0, booking, 2, seatNumbers.length);
+                booked.add(booking);
+            }
+        }
+    }
+
+    @Test
+    public void bestFitKeepsLongStretchesFree() {
+        //seat 2 is taken on the second half of the route, a first half journey fits it exactly
+        for (boolean bestFit : new boolean[]{false, true}) {
+            SeatMap seatMap = new SeatMap(2, 4, bestFit);
+            seatMap.occupy(2, 2, 4);
+            int[] firstHalf = new int[1];
+            assertTrue(seatMap.allocate(0, 2, firstHalf));
+            assertEquals(bestFit ? 2 : 1, firstHalf[0]);
+            //only best fit still has a seat free for the whole route
+            assertEquals(bestFit, seatMap.allocate(0, 4, new int[1]));
+        }
+    }
+
+    @Test
+    public void bookedTicketsGetSeatsThatAreReusedMidRoute() throws Exception {
+        Train train = train(1, "JAMMU,DELHI,AGRA,NAGPUR,CHENNAI,KANYAKUMARI", 1);
+        passenger(1, 30);
+        passenger(2, 40);
+
+        ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(1), 1, Station.JAMMU, Station.AGRA, 1, 1));
+        ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(2), 1, Station.AGRA, Station.KANYAKUMARI, 1, 2));
+        assertArrayEquals(new int[]{1}, train.getBookedTickets().get(0).getSeatNumbers());
+        assertArrayEquals(new int[]{1}, train.getBookedTickets().get(1).getSeatNumbers());
+
+        //after a restart the seat map is rebuilt from the seat numbers on the tickets
+        seatInventory.evict(1);
+        assertEquals(0, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+        assertThrows(Exception.class, () ->
+                ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.NAGPUR, 1, 1)));
+    }
+
+    //The original full scan over every train, kept as the reference for the arrival index
+    private List<Integer> scanTrainsBetween(List<Train> trains, Station station, LocalTime startTime, LocalTime endTime) {
+        List<Integer> trainIds = new ArrayList<>();
+        int startTimeInMin = startTime.getHour() * 60 + startTime.getMinute();
+        int lastTimeInMin = endTime.getHour() * 60 + endTime.getMinute();
+        for (Train t : trains) {
+            String[] stations = t.getRoute().toString().split(",");
+            for (int i = 0; i < stations.length; i++) {
+                if (stations[i].equals(station.toString())) {
+                    int reachingTimeInMin = t.getDepartureTime().getHour() * 60 + t.getDepartureTime().getMinute() + i * 60;
+                    if (reachingTimeInMin >= startTimeInMin && reachingTimeInMin <= lastTimeInMin) {
+                        trainIds.add(t.getTrainId());
+                    }
+                }
+            }
+        }
+        return trainIds;
+    }
+
+    private AddTrainEntryDto randomTrain(Random random) {
+        Station[] stations = Station.values();
+        List<Station> route = new ArrayList<>();
+        int length = 2 + random.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            route.add(stations[random.nextInt(stations.length)]);
+        }
+        return new AddTrainEntryDto(route, LocalTime.of(random.nextInt(24), random.nextInt(4) * 15), 10);
+    }
+
+    @Test
+    public void arrivalIndexMatchesFullScan() {
+        Random random = new Random(7);
+        List<Train> trains = new ArrayList<>();
+        for (int trainId = 1; trainId <= 100; trainId++) {
+            AddTrainEntryDto dto = randomTrain(random);
+            trains.add(new Train(trainId, Route.of(dto.getStationRoute()), new ArrayList<>(), dto.getDepartureTime(), 10));
+        }
+        //what is saved at the time of the read, like the table
+        when(trainRepository.findAll()).thenAnswer(invocation -> new ArrayList<>(trains));
+        when(trainRepository.save(any(Train.class))).thenAnswer(invocation -> {
+            Train train = invocation.getArgument(0);
+            train.setTrainId(trains.size() + 1);
+            trains.add(train);
+            return train;
+        });
+
+        for (int round = 0; round < 500; round++) {
+            if (round % 5 == 0) {
+                trainService.addTrain(randomTrain(random));
+            }
+            Station station = Station.values()[random.nextInt(Station.values().length)];
+            LocalTime start = LocalTime.of(random.nextInt(24), random.nextInt(60));
+            LocalTime end = start.plusMinutes(random.nextInt(600));
+            if (end.isBefore(start)) {
+                end = LocalTime.MAX.withSecond(0).withNano(0);
+            }
+            assertEquals(scanTrainsBetween(trains, station, start, end), trainService.trainsBetweenAGivenTime(station, start, end));
+        }
+        verify(trainRepository, times(1)).findAll();
+    }
+
+    @Test
+    public void batchBookingReportsEveryItem() {
+        Train train = train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 2);
+        Passenger first = passenger(1, 30);
+        Passenger second = passenger(2, 40);
+
+        List<BookingResultDto> results = ticketService.bookTickets(Arrays.asList(
+                new BookTicketEntryDto(Arrays.asList(1, 2), 1, Station.DELHI, Station.GWALIOR, 2, 1),
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.AGRA, Station.NAGPUR, 1, 1),
+                new BookTicketEntryDto(Arrays.asList(2), 1, Station.GWALIOR, Station.NAGPUR, 1, 2),
+                new BookTicketEntryDto(Arrays.asList(2), 1, Station.NAGPUR, Station.DELHI, 1, 2),
+                new BookTicketEntryDto(Arrays.asList(2), 9, Station.DELHI, Station.AGRA, 1, 2)));
+
+        assertEquals(Integer.valueOf(100), results.get(0).getTicketId());
+        assertEquals("Less tickets are available", results.get(1).getFailureReason());
+        assertEquals(Integer.valueOf(101), results.get(2).getTicketId());
+        assertEquals("Invalid stations", results.get(3).getFailureReason());
+        assertEquals("Train not found", results.get(4).getFailureReason());
+        assertEquals(1, first.getBookedTickets().size());
+        assertEquals(2, second.getBookedTickets().size());
+        verify(ticketRepository, times(1)).saveAll(any());
+    }
+
+    @Test
+    public void malformedItemsFailOnTheirOwn() {
+        train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 2);
+        Passenger first = passenger(1, 30);
 
+        List<BookingResultDto> results = ticketService.bookTickets(Arrays.asList(
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, 1, 1),
+                new BookTicketEntryDto(Arrays.asList(1), 1, null, Station.AGRA, 1, 1),
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, null, 1, 1),
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, -1, 1),
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, 0, 1),
+                new BookTicketEntryDto(Arrays.asList(1), null, Station.DELHI, Station.AGRA, 1, 1),
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.AGRA, Station.NAGPUR, 1, 1)));
+
+        assertEquals(Integer.valueOf(100), results.get(0).getTicketId());
+        assertEquals("Invalid stations", results.get(1).getFailureReason());
+        assertEquals("Invalid stations", results.get(2).getFailureReason());
+        assertEquals("Invalid number of seats", results.get(3).getFailureReason());
+        assertEquals("Invalid number of seats", results.get(4).getFailureReason());
+        assertEquals("Train not found", results.get(5).getFailureReason());
+        assertEquals(Integer.valueOf(101), results.get(6).getTicketId());
+        assertEquals(2, first.getBookedTickets().size());
+        assertEquals(2, bookingMetrics.failedCount("Invalid stations"));
+        assertEquals(2, bookingMetrics.failedCount("Invalid number of seats"));
+        assertEquals("Invalid number of seats", ticketService.holdSeats(
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, -1, 1)).getFailureReason());
+    }
+
+    @Test
+    public void aRowThatCannotBeSavedOnlyFailsItsOwnItem() {
+        train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 2);
+        train(2, "DELHI,AGRA,GWALIOR,NAGPUR", 2);
+        passenger(1, 30);
+        //the key row of one item breaks the transaction, like a key another booking already took
+        doAnswer(invocation -> {
+            for (IdempotencyKey key : invocation.<Iterable<IdempotencyKey>>getArgument(0)) {
+                if (key.getIdempotencyKey().equals(IdempotencyKey.of(2, "taken"))) {
+                    throw new DataIntegrityViolationException("duplicate key");
+                }
+            }
+            return invocation.getArgument(0);
+        }).when(idempotencyKeyRepository).saveAll(any());
+        BookTicketEntryDto taken = new BookTicketEntryDto(Arrays.asList(1), 2, Station.DELHI, Station.AGRA, 1, 1);
+        taken.setIdempotencyKey("taken");
+
+        List<BookingResultDto> results = ticketService.bookTickets(Arrays.asList(
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, 1, 1),
+                taken,
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.AGRA, Station.NAGPUR, 1, 1)));
+
+        assertNotNull(results.get(0).getTicketId());
+        assertEquals("Booking could not be saved", results.get(1).getFailureReason());
+        assertNotNull(results.get(2).getTicketId());
+        assertEquals(1, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+        assertEquals(2, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(2, Station.DELHI, Station.NAGPUR)));
+    }
+
+    @Test
+    public void aBookerWhoIsNotTravellingIsNotCounted() throws Exception {
+        Train train = train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 5);
+        passenger(1, 30);
+        passenger(2, 80);
+
+        //passenger 2 books for passenger 1 only
+        ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, 1, 2));
+        Ticket ticket = train.getBookedTickets().get(0);
+        assertEquals(Collections.singletonList(1), ticket.getPassengersList().stream().map(Passenger::getPassengerId).collect(Collectors.toList()));
+        assertEquals(2, ticket.getBookingPerson().getPassengerId());
+        assertEquals(1, (int) trainService.calculatePeopleBoardingAtAStation(1, Station.DELHI));
+        assertEquals(30, (int) trainService.calculateOldestPersonTravelling(1));
+        assertEquals(4, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+
+        //a booker who doesn't exist still fails the booking
+        Exception e = assertThrows(Exception.class, () ->
+                ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, 1, 99)));
+        assertEquals("Passenger not found", e.getMessage());
+    }
+
+    @Test
+    public void aBatchThatFailsForAnotherReasonIsNotRetriedItemByItem() {
+        train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 2);
+        passenger(1, 30);
+        doThrow(new QueryTimeoutException("timed out")).when(ticketRepository).saveAll(any());
+
+        List<BookingResultDto> results = ticketService.bookTickets(Arrays.asList(
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, 1, 1),
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.AGRA, Station.NAGPUR, 1, 1)));
+
+        assertEquals("Booking could not be saved", results.get(0).getFailureReason());
+        assertEquals("Booking could not be saved", results.get(1).getFailureReason());
+        verify(ticketRepository, times(1)).saveAll(any());
+        assertEquals(2, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+    }
+
+    @Test
+    public void aFailureAfterTheCommitKeepsTheBookedSeats() throws Exception {
+        train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 2);
+        passenger(1, 30);
+        //the tickets are committed, then recording one of them fails
+        doReturn(true).when(bookingJournal).isReady();
+        doThrow(new IllegalStateException("journal full")).when(bookingJournal)
+                .append(anyInt(), any(), any(), anyInt(), anyInt(), any(), anyInt(), any());
+
+        List<BookingResultDto> results = ticketService.bookTickets(Arrays.asList(
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, 1, 1),
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.AGRA, Station.NAGPUR, 1, 1)));
+
+        assertNotNull(results.get(0).getTicketId());
+        assertNotNull(results.get(1).getTicketId());
+        verify(ticketRepository, times(1)).saveAll(any());
+        assertEquals(2, trains.get(1).getBookedTickets().size());
+        //the seats stay taken, nothing is booked a second time
+        assertEquals(1, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+        verify(bookingJournal, atLeastOnce()).suspend();
+        verify(passengerStatistics, atLeastOnce()).invalidate(1);
+    }
+
+    @Test
+    public void failedBatchGivesTheSeatsBack() {
+        Train train = train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 2);
+        Passenger first = passenger(1, 30);
+        doThrow(new IllegalStateException("connection lost")).when(ticketRepository).saveAll(any());
+
+        List<BookingResultDto> results = ticketService.bookTickets(Arrays.asList(
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.GWALIOR, 1, 1),
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.AGRA, Station.NAGPUR, 1, 1)));
+
+        assertEquals("Booking could not be saved", results.get(0).getFailureReason());
+        assertEquals("Booking could not be saved", results.get(1).getFailureReason());
+        assertEquals(2, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+    }
+
+    @Test
+    public void bookingMetricsCountOutcomesAndTimePhases() {
+        train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 1);
+        passenger(1, 30);
+
+        ticketService.bookTickets(Arrays.asList(
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.GWALIOR, 1, 1),
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.AGRA, Station.NAGPUR, 1, 1),
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.NAGPUR, Station.AGRA, 1, 1)));
+        assertThrows(Exception.class, () -> ticketService.bookTicket(
+                new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.AGRA, 1, 1)));
+
+        assertEquals(1, bookingMetrics.bookedCount());
+        assertEquals(2, bookingMetrics.failedCount("Less tickets are available"));
+        assertEquals(1, bookingMetrics.failedCount("Invalid stations"));
+        assertEquals(0, bookingMetrics.failedCount("Train not found"));
+        for (String phase : Arrays.asList(BookingMetrics.LOCK, BookingMetrics.LOAD, BookingMetrics.ALLOCATE,
+                BookingMetrics.SAVE, BookingMetrics.TRANSACTION)) {
+            assertEquals(2, bookingMetrics.phaseCount(phase));
+        }
+    }
+
+    @Test
+    public void trainCacheReadsThroughAndIsFilledByAddTrain() {
+        train(1, "DELHI,AGRA,GWALIOR", 5);
+        when(trainRepository.save(any(Train.class))).thenAnswer(invocation -> {
+            Train train = invocation.getArgument(0);
+            train.setTrainId(2);
+            return train;
+        });
+
+        assertEquals(5, trainCache.get(1).getNoOfSeats());
+        assertEquals(5, trainCache.get(1).getNoOfSeats());
+        assertNull(trainCache.get(3));
+        trainService.addTrain(new AddTrainEntryDto(Arrays.asList(Station.DELHI, Station.AGRA), LocalTime.of(8, 0), 7));
+        assertEquals(7, trainCache.get(2).getNoOfSeats());
+
+        verify(trainRepository, times(1)).findSummaryById(1);
+        verify(trainRepository, never()).findSummaryById(2);
+        assertEquals(2, trainCache.stats().hitCount());
+        assertEquals(2, trainCache.stats().missCount());
+    }
+
+    @Test
+    public void trainsWhoseRouteDoesNotFitTheSeatMapAreNotSaved() {
+        List<Station> route = new ArrayList<>();
+        for (int i = 0; i <= SeatMap.MAX_LEGS + 1; i++) {
+            route.add(Station.values()[i % Station.values().length]);
+        }
+        assertThrows(IllegalArgumentException.class, () ->
+                trainService.addTrain(new AddTrainEntryDto(route, LocalTime.of(8, 0), 7)));
+        verify(trainRepository, never()).save(any(Train.class));
+    }
+
+    @Test
+    public void legacyTrainsWithALongRouteLoadButAreNotBookable() {
+        Station[] stations = Station.values();
+        StringBuilder column = new StringBuilder();
+        for (int i = 0; i <= SeatMap.MAX_LEGS + 1; i++) {
+            column.append(i > 0 ? "," : "").append(stations[i % stations.length].name());
+        }
+        Route route = new RouteConverter().convertToEntityAttribute(column.toString());
+        assertEquals(SeatMap.MAX_LEGS + 1, route.legs());
+        assertFalse(route.isBookable());
+
+        train(1, column.toString(), 5);
+        passenger(1, 30);
+        BookTicketEntryDto dto = new BookTicketEntryDto(Arrays.asList(1), 1, stations[0], stations[1], 1, 1);
+        assertTrue(ticketService.bookTickets(Collections.singletonList(dto)).get(0).getFailureReason().contains("Route is too long"));
+        assertTrue(ticketService.holdSeats(dto).getFailureReason().contains("Route is too long"));
+        assertThrows(IllegalStateException.class, () ->
+                trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, stations[0], stations[1])));
+    }
+
+    @Test
+    public void trainCacheIsBoundedAndCanBeSwitchedOff() throws InterruptedException {
+        for (int trainId = 1; trainId <= 50; trainId++) {
+            train(trainId, "DELHI,AGRA", 5);
+        }
+        TrainCache small = new TrainCache(true, 10);
+        ReflectionTestUtils.setField(small, "trainRepository", trainRepository);
+        for (int trainId = 1; trainId <= 50; trainId++) {
+            small.get(trainId);
+        }
+        //eviction runs asynchronously, give it a moment
+        for (int i = 0; i < 100 && small.size() > 10; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(small.size() <= 10);
+        assertTrue(small.stats().evictionCount() >= 40);
+
+        TrainCache off = new TrainCache(false, 10);
+        ReflectionTestUtils.setField(off, "trainRepository", trainRepository);
+        off.get(1);
+        off.get(1);
+        verify(trainRepository, times(3)).findSummaryById(1);
+    }
+
+    @Test
+    public void passengerStatisticsFollowBookings() throws Exception {
+        Train train = train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 10);
+        ticket(train, Station.DELHI, Station.AGRA, passenger(1, 70), passenger(2, 30));
+        passenger(3, 85);
+        passenger(4, 20);
+
+        //rebuilt from the database on first access
+        assertEquals(2, trainService.calculatePeopleBoardingAtAStation(1, Station.DELHI));
+        assertEquals(70, trainService.calculateOldestPersonTravelling(1));
+
+        ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(3, 4), 1, Station.AGRA, Station.NAGPUR, 2, 3));
+        assertEquals(2, trainService.calculatePeopleBoardingAtAStation(1, Station.AGRA));
+        assertEquals(85, trainService.calculateOldestPersonTravelling(1));
+        assertEquals(0, trainService.calculatePeopleBoardingAtAStation(1, Station.NAGPUR));
+        assertThrows(Exception.class, () -> trainService.calculatePeopleBoardingAtAStation(1, Station.KOLKATA));
+        assertEquals(0, trainService.calculateOldestPersonTravelling(99));
+        verify(ticketRepository, times(1)).countPassengersByBoardingAndAge(1);
+    }
+
+    @Test
+    public void oldestAgeSurvivesRemovals() {
+        TrainPassengerStats stats = new TrainPassengerStats();
+        stats.add(Station.DELHI, 60, 1);
+        stats.add(Station.DELHI, 200, 1);
+        stats.add(Station.AGRA, 60, 1);
+        assertEquals(200, stats.oldestAge());
+
+        stats.remove(Station.DELHI, 200, 1);
+        assertEquals(60, stats.oldestAge());
+        stats.remove(Station.DELHI, 60, 1);
+        assertEquals(60, stats.oldestAge());
+        assertEquals(0, stats.boardingAt(Station.DELHI));
+        stats.remove(Station.AGRA, 60, 1);
+        assertEquals(0, stats.oldestAge());
+    }
+
+    @Test
+    public void cancellationPromotesTheEarliestWaitlistedJourneysThatFit() throws Exception {
+        train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 2);
+        for (int passengerId = 1; passengerId <= 5; passengerId++) {
+            passenger(passengerId, 20 + passengerId);
+        }
+        int full = ticketService.bookTicket(new BookTicketEntryDto(Arrays.asList(1, 2), 1, Station.DELHI, Station.NAGPUR, 2, 1));
+
+        BookingResultDto first = ticketService.waitlistTicket(new BookTicketEntryDto(Arrays.asList(3, 4), 1, Station.AGRA, Station.NAGPUR, 2, 3));
+        BookingResultDto second = ticketService.waitlistTicket(new BookTicketEntryDto(Arrays.asList(5), 1, Station.DELHI, Station.AGRA, 1, 5));
+        BookingResultDto third = ticketService.waitlistTicket(new BookTicketEntryDto(Arrays.asList(1), 1, Station.GWALIOR, Station.NAGPUR, 1, 1));
+        assertNotNull(first.getWaitlistId());
+        assertNull(first.getTicketId());
+        assertEquals("Less tickets are available",
+                ticketService.waitlistTicket(new BookTicketEntryDto(Arrays.asList(1, 2, 3), 1, Station.AGRA, Station.NAGPUR, 3, 1)).getFailureReason());
+
+        //the first two fit in the freed seats, the third wants a leg the first one just took
+        List<Integer> promoted = ticketService.cancelTicket(full);
+        assertEquals(2, promoted.size());
+        assertEquals(promoted.get(0), ticketService.waitlistStatus(first.getWaitlistId()).getTicketId());
+        assertEquals(promoted.get(1), ticketService.waitlistStatus(second.getWaitlistId()).getTicketId());
+        assertEquals(third.getWaitlistId(), ticketService.waitlistStatus(third.getWaitlistId()).getWaitlistId());
+        assertEquals(1, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.AGRA)));
+        assertEquals(0, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.GWALIOR, Station.NAGPUR)));
+        assertEquals(1, (int) trainService.calculatePeopleBoardingAtAStation(1, Station.DELHI));
+        assertEquals(25, (int) trainService.calculateOldestPersonTravelling(1));
+
+        //cancelling the first promotion frees the leg the third one was waiting for
+        int nextTicketId = ticketIds.get();
+        assertEquals(Collections.singletonList(nextTicketId), ticketService.cancelTicket(promoted.get(0)));
+        assertEquals(nextTicketId, (int) ticketService.waitlistStatus(third.getWaitlistId()).getTicketId());
+        assertEquals(1, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.GWALIOR, Station.NAGPUR)));
+        assertThrows(Exception.class, () -> ticketService.cancelTicket(full));
+    }
+
+    @Test
+    public void waitlistMatchesBruteForce() {
+        Random random = new Random(11);
+        Route route = Route.parse("JAMMU,JALANDHAR,LUDHIANA,DELHI,KANPUR,AGRA,MATHURA,GWALIOR");
+        int stations = route.size();
+        for (int round = 0; round < 50; round++) {
+            int capacity = 1 + random.nextInt(6);
+            TrainInventory inventory = new TrainInventory(1, capacity, route,
+                    new int[stations - 1], new SeatMap(capacity, stations - 1, true));
+            for (int i = 0; i < 10; i++) {
+                int from = random.nextInt(stations - 1);
+                inventory.occupy(from, from + 1 + random.nextInt(stations - 1 - from), 1 + random.nextInt(2));
+            }
+            TrainWaitlist trainWaitlist = new TrainWaitlist(stations);
+            List<TrainWaitlist.Waiting> entries = new ArrayList<>();
+            for (int waitlistId = 1; waitlistId <= 200; waitlistId++) {
+                int from = random.nextInt(stations - 1);
+                TrainWaitlist.Waiting waiting = new TrainWaitlist.Waiting(waitlistId, from,
+                        from + 1 + random.nextInt(stations - 1 - from), 1 + random.nextInt(capacity));
+                trainWaitlist.add(waiting);
+                entries.add(waiting);
+            }
+            for (int step = 0; step < 20; step++) {
+                int from = random.nextInt(stations - 1);
+                int to = from + 1 + random.nextInt(stations - 1 - from);
+                TrainWaitlist.Waiting expected = null;
+                for (TrainWaitlist.Waiting waiting : entries) {
+                    if (waiting.getFrom() < to && waiting.getTo() > from
+                            && inventory.availableSeats(waiting.getFrom(), waiting.getTo()) >= waiting.getSeats()) {
+                        expected = waiting;
+                        break;
+                    }
+                }
+                TrainWaitlist.Waiting next = trainWaitlist.next(inventory, from, to);
+                assertSame(expected, next);
+                if (next != null) {
+                    trainWaitlist.remove(next);
+                    entries.remove(next);
+                }
+            }
+            assertEquals(entries.size(), trainWaitlist.size());
+        }
+    }
+
+    @Test
+    public void timingWheelExpiresEntriesOnTheirTickAndNeverEarly() {
+        Random random = new Random(5);
+        long tick = 10;
+        TimingWheel<Long> wheel = new TimingWheel<>(tick, 8, 0);
+        //key -> the tick it is due on: the first tick boundary at or after its deadline, and
+        //never a tick the wheel has already expired
+        Map<Long, Long> due = new HashMap<>();
+        Map<Long, TimingWheel.Node<Long>> pending = new HashMap<>();
+        long now = 0;
+        long nextTick = 0;
+        for (int step = 0; step < 5000; step++) {
+            int op = random.nextInt(4);
+            if (op < 2) {
+                //deadlines up to several turns of the wheel ahead, some already past
+                long deadline = now - 20 + random.nextInt(1000);
+                long key = deadline * 10000 + step;
+                pending.put(key, wheel.schedule(key, deadline));
+                due.put(key, Math.max(nextTick, -Math.floorDiv(-deadline, tick)));
+            } else if (op == 2 && !pending.isEmpty()) {
+                Long key = new ArrayList<>(pending.keySet()).get(random.nextInt(pending.size()));
+                assertTrue(wheel.cancel(pending.remove(key)));
+            } else {
+                now += random.nextInt(60);
+                Set<Long> expected = new HashSet<>();
+                for (Long key : pending.keySet()) {
+                    if (due.get(key) <= Math.floorDiv(now, tick)) {
+                        expected.add(key);
+                    }
+                }
+                List<Long> expired = wheel.advance(now);
+                assertEquals(expected, new HashSet<>(expired));
+                assertEquals(expected.size(), expired.size());
+                pending.keySet().removeAll(expected);
+                for (Long key : expected) {
+                    assertTrue(Math.floorDiv(key, 10000) <= now);
+                }
+                nextTick = Math.max(nextTick, Math.floorDiv(now, tick) + 1);
+            }
+            assertEquals(pending.size(), wheel.size());
+        }
+    }
+
+    @Test
+    public void heldSeatsStayTakenUntilConfirmedReleasedOrExpired() throws Exception {
+        train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 2);
+        for (int passengerId = 1; passengerId <= 3; passengerId++) {
+            passenger(passengerId, 30 + passengerId);
+        }
+        ticketService.startHolds();
+        try {
+            SeatHoldDto first = ticketService.holdSeats(new BookTicketEntryDto(Arrays.asList(1), 1, Station.DELHI, Station.NAGPUR, 1, 1));
+            SeatHoldDto second = ticketService.holdSeats(new BookTicketEntryDto(Arrays.asList(2), 1, Station.DELHI, Station.NAGPUR, 1, 2));
+            assertEquals("Less tickets are available",
+                    ticketService.holdSeats(new BookTicketEntryDto(Arrays.asList(3), 1, Station.AGRA, Station.GWALIOR, 1, 3)).getFailureReason());
+            assertEquals(0, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+            //holding doesn't write a ticket
+            assertTrue(trains.get(1).getBookedTickets().isEmpty());
+
+            //the confirmed ticket gets the seat that was held
+            BookingResultDto confirmed = ticketService.confirmHold(first.getHoldId());
+            assertNotNull(confirmed.getTicketId());
+            assertArrayEquals(first.getSeatNumbers(), trains.get(1).getBookedTickets().get(0).getSeatNumbers());
+            assertEquals(1, (int) trainService.calculatePeopleBoardingAtAStation(1, Station.DELHI));
+            assertNotNull(ticketService.confirmHold(first.getHoldId()).getFailureReason());
+
+            assertTrue(ticketService.releaseHold(second.getHoldId()));
+            assertFalse(ticketService.releaseHold(second.getHoldId()));
+            assertEquals(1, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.NAGPUR)));
+
+            //an expired hold gives its seat back, which goes on to the waitlist
+            SeatHoldDto third = ticketService.holdSeats(new BookTicketEntryDto(Arrays.asList(2), 1, Station.DELHI, Station.NAGPUR, 1, 2));
+            BookingResultDto waiting = ticketService.waitlistTicket(new BookTicketEntryDto(Arrays.asList(3), 1, Station.AGRA, Station.GWALIOR, 1, 3));
+            assertNotNull(waiting.getWaitlistId());
+            seatHolds.expire(System.nanoTime() + TimeUnit.MINUTES.toNanos(6));
+            assertEquals(0, seatHolds.size());
+            assertNotNull(ticketService.waitlistStatus(waiting.getWaitlistId()).getTicketId());
+            assertEquals("Hold not found or expired", ticketService.confirmHold(third.getHoldId()).getFailureReason());
+            assertEquals(1, trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.AGRA)));
+        } finally {
+            seatHolds.stop();
+        }
+    }
+
+    @Test
+    public void aHoldCanBeEndedAsSoonAsItCanBeFound() throws Exception {
+        SeatHolds holds = new SeatHolds(300, 1000, 512);
+        int count = 20000;
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            //ends every hold the moment it shows up, while the holds are still being made
+            Future<Integer> ended = pool.submit(() -> {
+                int done = 0;
+                for (long holdId = 1; holdId <= count; ) {
+                    SeatHolds.SeatHold hold = holds.get(holdId);
+                    if (hold != null) {
+                        assertTrue(holds.end(hold));
+                        done++;
+                        holdId++;
+                    }
+                }
+                return done;
+            });
+            for (int i = 0; i < count; i++) {
+                holds.hold(1, 0, 1, new int[]{1}, null);
+            }
+            assertEquals(count, (int) ended.get(10, TimeUnit.SECONDS));
+            assertEquals(0, holds.size());
+            //nothing was left on the wheel to expire
+            holds.start(hold -> fail("hold " + hold.getHoldId() + " expired after it ended"));
+            holds.expire(System.nanoTime() + TimeUnit.MINUTES.toNanos(6));
+        } finally {
+            holds.stop();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void availabilityMatrixMatchesPairwiseQueries() {
+        Random random = new Random(17);
+        Station[] stations = Arrays.copyOf(Station.values(), 9);
+        StringBuilder route = new StringBuilder();
+        for (Station station : stations) {
+            route.append(route.length() == 0 ? "" : ",").append(station);
+        }
+        train(1, route.toString(), 6);
+        passenger(1, 40);
+        List<Long> held = new ArrayList<>();
+        long version = -1;
+        for (int step = 0; step < 300; step++) {
+            boolean changed = true;
+            if (held.isEmpty() || random.nextInt(3) > 0) {
+                int from = random.nextInt(stations.length - 1);
+                int to = from + 1 + random.nextInt(stations.length - 1 - from);
+                Long holdId = ticketService.holdSeats(new BookTicketEntryDto(Arrays.asList(1), 1, stations[from], stations[to],
+                        1 + random.nextInt(3), 1)).getHoldId();
+                if (holdId != null) {
+                    held.add(holdId);
+                }
+                changed = holdId != null;
+            } else {
+                assertTrue(ticketService.releaseHold(held.remove(random.nextInt(held.size()))));
+            }
+            AvailabilityMatrixDto matrix = trainService.availabilityMatrix(1);
+            for (int from = 0; from < stations.length; from++) {
+                for (int to = from + 1; to < stations.length; to++) {
+                    assertEquals((int) trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, stations[from], stations[to])),
+                            matrix.availableBetween(from, to));
+                }
+            }
+            //unchanged inventory, same version and the same matrix without recomputing it
+            AvailabilityMatrixDto again = trainService.availabilityMatrix(1);
+            assertEquals(matrix.getVersion(), again.getVersion());
+            assertSame(matrix.getAvailable(), again.getAvailable());
+            assertEquals(changed, version != matrix.getVersion());
+            version = matrix.getVersion();
+        }
+    }
+
+    @Test
+    public void availabilityIsReadUnderTheTrainsLock() throws Exception {
+        train(1, "DELHI,AGRA,GWALIOR", 10);
+        when(trainRepository.findAll()).thenReturn(new ArrayList<>(trains.values()));
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        ReentrantLock lock = bookingLocks.forTrain(1);
+        lock.lock();
+        try {
+            //a booking of train 1 is half way through, its seat map and leg counts can't be read yet
+            Future<Integer> seats = pool.submit(() ->
+                    trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(1, Station.DELHI, Station.GWALIOR)));
+            Future<List<JourneyDto>> journeys = pool.submit(() ->
+                    journeyService.earliestJourneys(Station.DELHI, Station.GWALIOR, LocalTime.MIN, 1));
+            Thread.sleep(100);
+            assertFalse(seats.isDone());
+            assertFalse(journeys.isDone());
+            lock.unlock();
+            assertEquals(10, (int) seats.get(10, TimeUnit.SECONDS));
+            assertFalse(journeys.get(10, TimeUnit.SECONDS).isEmpty());
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void aTrainSavedWhileTheIndexesLoadIsNotMissed() throws Exception {
+        Train loaded = train(1, "DELHI,AGRA", 5);
+        Train saved = train(2, "DELHI,AGRA", 5);
+        //the loads read only train 1, train 2 is added by an import that committed during the read
+        Thread[] importer = new Thread[2];
+        stationArrivalIndex.load(() -> {
+            importer[0] = new Thread(() -> stationArrivalIndex.add(saved));
+            importer[0].start();
+            return Collections.singletonList(loaded);
+        });
+        connectionIndex.load(() -> {
+            importer[1] = new Thread(() -> connectionIndex.add(saved));
+            importer[1].start();
+            return Collections.singletonList(loaded);
+        });
+        importer[0].join(10000);
+        importer[1].join(10000);
+        assertEquals(Arrays.asList(1, 2), stationArrivalIndex.trainsBetween(Station.AGRA, 0, 24 * 60));
+        assertEquals(2, connectionIndex.snapshot().getTrainIds().length);
+    }
+
+    @Test
+    public void journeySearchMatchesBruteForce() {
+        Random random = new Random(23);
+        Station[] stations = Station.values();
+        for (int trainId = 1; trainId <= 60; trainId++) {
+            List<Station> shuffled = new ArrayList<>(Arrays.asList(stations));
+            Collections.shuffle(shuffled, random);
+            StringBuilder route = new StringBuilder();
+            for (Station station : shuffled.subList(0, 3 + random.nextInt(4))) {
+                route.append(route.length() == 0 ? "" : ",").append(station);
+            }
+            Train train = train(trainId, route.toString(), 2);
+            train.setDepartureTime(LocalTime.of(random.nextInt(12), 15 * random.nextInt(4)));
+        }
+        passenger(1, 40);
+        for (int i = 0; i < 80; i++) {
+            Train train = trains.get(1 + random.nextInt(60));
+            int from = random.nextInt(train.getRoute().size() - 1);
+            int to = from + 1 + random.nextInt(train.getRoute().size() - 1 - from);
+            ticketService.holdSeats(new BookTicketEntryDto(Arrays.asList(1), train.getTrainId(),
+                    train.getRoute().stationAt(from), train.getRoute().stationAt(to), 1, 1));
+        }
+        when(trainRepository.findAll()).thenReturn(new ArrayList<>(trains.values()));
+
+        for (int query = 0; query < 300; query++) {
+            Station from = stations[random.nextInt(stations.length)];
+            Station to = stations[random.nextInt(stations.length)];
+            int after = 60 * random.nextInt(14);
+            int seats = random.nextInt(3);
+            List<JourneyDto> journeys = journeyService.earliestJourneys(from, to, LocalTime.MIN.plusMinutes(after), seats);
+
+            int direct = Integer.MAX_VALUE;
+            int changed = Integer.MAX_VALUE;
+            for (Train first : trains.values()) {
+                int board = first.getRoute().positionOf(from);
+                if (board == -1 || minuteAt(first, board) < after || from == to) {
+                    continue;
+                }
+                for (int alight = board + 1; alight < first.getRoute().size(); alight++) {
+                    if (!fits(first, board, alight, seats)) {
+                        break;
+                    }
+                    if (first.getRoute().stationAt(alight) == to) {
+                        direct = Math.min(direct, minuteAt(first, alight));
+                    }
+                    for (Train second : trains.values()) {
+                        int change = second.getRoute().positionOf(first.getRoute().stationAt(alight));
+                        int end = second.getRoute().positionOf(to);
+                        if (second != first && change != -1 && end > change
+                                && minuteAt(second, change) >= minuteAt(first, alight) && fits(second, change, end, seats)) {
+                            changed = Math.min(changed, minuteAt(second, end));
+                        }
+                    }
+                }
+            }
+
+            List<Integer> expected = new ArrayList<>();
+            if (changed < direct) {
+                expected.add(changed);
+            }
+            if (direct != Integer.MAX_VALUE) {
+                expected.add(direct);
+            }
+            List<Integer> arrivals = new ArrayList<>();
+            for (JourneyDto journey : journeys) {
+                arrivals.add(journey.getArrivalTime().toSecondOfDay() / 60);
+                List<JourneyLegDto> legs = journey.getLegs();
+                assertEquals(from, legs.get(0).getFromStation());
+                assertEquals(to, legs.get(legs.size() - 1).getToStation());
+                assertTrue(legs.get(0).getDepartureTime().toSecondOfDay() / 60 >= after);
+                if (legs.size() == 2) {
+                    assertEquals(legs.get(0).getToStation(), legs.get(1).getFromStation());
+                    assertFalse(legs.get(1).getDepartureTime().isBefore(legs.get(0).getArrivalTime()));
+                }
+            }
+            assertEquals(expected, arrivals);
+        }
+    }
+
+    private int minuteAt(Train train, int position) {
+        return train.getDepartureTime().getHour() * 60 + train.getDepartureTime().getMinute() + 60 * position;
+    }
+
+    private boolean fits(Train train, int from, int to, int seats) {
+        return seats == 0 || trainService.calculateAvailableSeats(new SeatAvailabilityEntryDto(train.getTrainId(),
+                train.getRoute().stationAt(from), train.getRoute().stationAt(to))) >= seats;
+    }
+
+    @Test
+    public void chargedFaresMatchQuotes() throws Exception {
+        //legs past the 4th at half price, sleeper 150%, tatkal 30% extra, children under 12 half and seniors from 60 at 60%
+        ReflectionTestUtils.setField(fareTables, "fareRules", new FareRules(300, 4, 50, "SLEEPER:150", "TATKAL:30", 12, 50, 60, 60));
+        train(1, "JAMMU,JALANDHAR,LUDHIANA,DELHI,KANPUR,AGRA", 5);
+        passenger(1, 8);
+        passenger(2, 30);
+        passenger(3, 65);
+
+        BookTicketEntryDto booking = new BookTicketEntryDto(Arrays.asList(1, 2, 3), 1, Station.JAMMU, Station.AGRA, 3, 2);
+        booking.setTravelClass(TravelClass.SLEEPER);
+        booking.setQuota(Quota.TATKAL);
+        ticketService.bookTicket(booking);
+
+        List<FareQuoteDto> quotes = fareService.quoteBatch(Arrays.asList(
+                new FareQuoteEntryDto(1, Station.JAMMU, Station.AGRA, Arrays.asList(8, 30, 65), 3, TravelClass.SLEEPER, Quota.TATKAL),
+                new FareQuoteEntryDto(1, Station.JAMMU, Station.AGRA, null, 1, TravelClass.SLEEPER, Quota.TATKAL),
+                new FareQuoteEntryDto(1, Station.LUDHIANA, Station.KANPUR, null, 2, null, null),
+                new FareQuoteEntryDto(1, Station.AGRA, Station.JAMMU, null, 1, null, null),
+                new FareQuoteEntryDto(2, Station.JAMMU, Station.AGRA, null, 1, null, null)));
+        //5 legs: 4*300 + 150 = 1350, *1.5*1.3 = 2632.5 for an adult, half of it for the child and 60% for the senior
+        assertEquals(2633 + 1316 + 1580, (int) quotes.get(0).getFare());
+        assertEquals(trains.get(1).getBookedTickets().get(0).getTotalFare(), (int) quotes.get(0).getFare());
+        assertEquals(2633, (int) quotes.get(1).getFare());
+        //unscaled below the taper: the old 300 per leg and seat
+        assertEquals(2 * 2 * 300, (int) quotes.get(2).getFare());
+        assertEquals("Invalid stations", quotes.get(3).getFailureReason());
+        assertEquals("Train not found", quotes.get(4).getFailureReason());
+
+        //malformed items fail on their own and the good one in between is still quoted
+        List<FareQuoteDto> mixed = fareService.quoteBatch(Arrays.asList(
+                new FareQuoteEntryDto(1, null, Station.AGRA, null, 1, null, null),
+                new FareQuoteEntryDto(1, Station.JAMMU, Station.AGRA, null, -1, null, null),
+                new FareQuoteEntryDto(1, Station.JAMMU, Station.AGRA, null, 1, TravelClass.SLEEPER, Quota.TATKAL),
+                new FareQuoteEntryDto(1, Station.JAMMU, Station.AGRA, Arrays.asList(30, null), 2, null, null),
+                new FareQuoteEntryDto(1, Station.JAMMU, Station.AGRA, null, Integer.MAX_VALUE, null, null),
+                new FareQuoteEntryDto(null, Station.JAMMU, Station.AGRA, null, 1, null, null)));
+        assertEquals("Invalid stations", mixed.get(0).getFailureReason());
+        assertEquals("Invalid number of seats", mixed.get(1).getFailureReason());
+        assertEquals(2633, (int) mixed.get(2).getFare());
+        assertEquals("Invalid ages", mixed.get(3).getFailureReason());
+        assertEquals("Invalid number of seats", mixed.get(4).getFailureReason());
+        assertEquals("Train not found", mixed.get(5).getFailureReason());
+        assertThrows(IllegalArgumentException.class, () -> new FareRules(300, 4, 50, "SLEPER:150", "", 12, 50, 60, 60));
+    }
+
+    @Test
+    public void duplicateBookingsWithAnIdempotencyKeyBookOnce() throws Exception {
+        int threads = 50;
+        Train train = train(1, "DELHI,AGRA,GWALIOR,NAGPUR", 5);
+        passenger(1, 30);
+
+        //concurrent duplicates wait for the first one and all get its ticket
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> ticketIds = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            ticketIds.add(pool.submit(() -> {
+                start.await();
+                return ticketService.bookTicket(keyed("first", 1));
+            }));
+        }
+        start.countDown();
+        Set<Integer> distinct = new HashSet<>();
+        for (Future<Integer> ticketId : ticketIds) {
+            distinct.add(ticketId.get(1, TimeUnit.MINUTES));
+        }
+        pool.shutdown();
+        assertEquals(1, distinct.size());
+        assertEquals(1, train.getBookedTickets().size());
+        verify(idempotencyKeyRepository, times(1)).saveAll(any());
+
+        //failures aren't remembered, a retry with the same key books again
+        Exception e = assertThrows(Exception.class, () -> ticketService.bookTicket(keyed("second", 5)));
+        assertEquals("Less tickets are available", e.getMessage());
+        int second = ticketService.bookTicket(keyed("second", 4));
+        assertEquals(second, (int) ticketService.bookTicket(keyed("second", 4)));
+        assertEquals(2, train.getBookedTickets().size());
+
+        //keys evicted from the cache are found in the table
+        when(idempotencyKeyRepository.findById("1:evicted")).thenReturn(Optional.of(new IdempotencyKey("1:evicted", 7)));
+        assertEquals(7, (int) ticketService.bookTicket(keyed("evicted", 1)));
+        assertEquals(2, train.getBookedTickets().size());
+        assertThrows(Exception.class, () -> ticketService.bookTicket(keyed("", 1)));
+
+        //a key is the client's for one train, on another train (and maybe another shard) it books again
+        train(2, "DELHI,AGRA,GWALIOR,NAGPUR", 5);
+        BookTicketEntryDto otherTrain = keyed("first", 1);
+        otherTrain.setTrainId(2);
+        int onOtherTrain = ticketService.bookTicket(otherTrain);
+        assertFalse(distinct.contains(onOtherTrain));
+        assertEquals(onOtherTrain, (int) ticketService.bookTicket(otherTrain));
+        assertEquals(1, trains.get(2).getBookedTickets().size());
+    }
+
+    @Test
+    public void idempotencyEntriesInFlightAreNotEvicted() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(2, 60);
+        List<CompletableFuture<Integer>> inFlight = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<Integer> booking = new CompletableFuture<>();
+            assertNull(cache.claim("in-flight-" + i, booking));
+            inFlight.add(booking);
+        }
+        //finished bookings push the cache over its size, only they are evicted
+        for (int i = 0; i < 100; i++) {
+            CompletableFuture<Integer> booking = new CompletableFuture<>();
+            assertNull(cache.claim("done-" + i, booking));
+            booking.complete(i);
+        }
+        for (long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10); cache.size() > 7 && System.nanoTime() < deadline; ) {
+            Thread.sleep(10);
+        }
+        assertEquals(7, cache.size());
+        for (int i = 0; i < 5; i++) {
+            assertSame(inFlight.get(i), cache.claim("in-flight-" + i, new CompletableFuture<>()));
+        }
+
+        //once done they count towards the maximum like the rest
+        for (CompletableFuture<Integer> booking : inFlight) {
+            booking.complete(1);
+        }
+        for (long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10); cache.size() > 2 && System.nanoTime() < deadline; ) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void aDuplicateOfABookingThatDiedWithAnErrorIsNotSaved() {
+        CompletableFuture<Integer> first = new CompletableFuture<>();
+        assertNull(idempotencyCache.claim(IdempotencyKey.of(1, "died"), first));
+        StackOverflowError error = new StackOverflowError();
+        first.completeExceptionally(error);
+
+        Exception e = assertThrows(Exception.class, () -> ticketService.bookTicket(keyed("died", 1)));
+        assertEquals("Booking could not be saved", e.getMessage());
+        assertSame(error, e.getCause());
+    }
+
+    @Test
+    public void admissionControlShedsLoadOverTheLimitsAndAdaptsToLatency() {
+        AdmissionControl admission = new AdmissionControl(new SimpleMeterRegistry(), 2, 4, 2, 8, 100, 1);
+        long second = TimeUnit.SECONDS.toNanos(1);
+
+        //two at a time on a train, four in all
+        AdmissionControl.Permit first = admission.admit(1);
+        AdmissionControl.Permit again = admission.admit(1);
+        assertNull(admission.admit(1));
+        AdmissionControl.Permit other = admission.admit(2);
+        //a batch needs room on all its trains, the ones it got are given back
+        assertNull(admission.admit(Arrays.asList(2, 1)));
+        AdmissionControl.Permit last = admission.admit(2);
+        assertNull(admission.admit(3));
+        assertEquals(4, admission.getInFlight());
+        assertEquals(4, admission.admittedCount());
+        assertEquals(3, admission.rejectedCount());
+
+        //fast requests under load raise the limit, releasing twice counts once
+        for (AdmissionControl.Permit permit : Arrays.asList(first, again, other, last)) {
+            permit.release(permit.getAdmittedNanos() + TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        last.release();
+        assertEquals(0, admission.getInFlight());
+        double raised = admission.getLimit();
+        assertTrue(raised > 4 && raised < 5);
+        assertNotNull(admission.admit(1));
+
+        //a slow one cuts it, once per target latency however many are slow at the same time
+        AdmissionControl.Permit slow = admission.admit(3);
+        AdmissionControl.Permit alsoSlow = admission.admit(3);
+        slow.release(slow.getAdmittedNanos() + second);
+        alsoSlow.release(slow.getAdmittedNanos() + second);
+        assertEquals(raised * 0.9, admission.getLimit(), 1e-9);
+        for (int i = 2; i < 20; i++) {
+            AdmissionControl.Permit permit = admission.admit(3);
+            permit.release(permit.getAdmittedNanos() + i * second);
+        }
+        assertEquals(2, admission.getLimit(), 1e-9);
+        assertEquals(1, admission.getRetryAfterSeconds());
+    }
+
+    @Test
+    public void aBatchCountsOncePerItem() {
+        AdmissionControl admission = new AdmissionControl(new SimpleMeterRegistry(), 4, 8, 2, 8, 100, 1);
+
+        //three items on train 1 and one without a train hold four places globally, three on train 1
+        AdmissionControl.Permit batch = admission.admit(Arrays.asList(1, 1, null, 1));
+        assertEquals(4, admission.getInFlight());
+        assertNotNull(admission.admit(1));
+        assertNull(admission.admit(1));
+        assertNotNull(admission.admit(Arrays.asList(2, 2, 2)));
+        //the batch fits the room left exactly, the next request waits
+        assertEquals(8, admission.getInFlight());
+        assertNull(admission.admit(3));
+
+        batch.release(batch.getAdmittedNanos());
+        assertEquals(4, admission.getInFlight());
+        AdmissionControl.Permit again = admission.admit(Arrays.asList(1, 1, 1));
+        assertNotNull(again);
+        again.release(again.getAdmittedNanos());
+        assertEquals(4, admission.getInFlight());
+    }
+
+    @Test
+    public void aBatchLargerThanTheRoomLeftIsRejected() {
+        AdmissionControl admission = new AdmissionControl(new SimpleMeterRegistry(), 4, 8, 2, 8, 100, 1);
+        AdmissionControl.Permit first = admission.admit(Arrays.asList(1, 1));
+
+        //seven items with six places left globally, three with two left on train 1
+        assertNull(admission.admit(Arrays.asList(2, 2, 2, 3, 3, 3, 4)));
+        assertNull(admission.admit(Arrays.asList(1, 1, 1)));
+        assertEquals(2, admission.getInFlight());
+        assertEquals(2, admission.rejectedCount());
+        AdmissionControl.Permit fits = admission.admit(Arrays.asList(2, 2, 3, 3, 4, 4));
+        assertEquals(8, admission.getInFlight());
+        fits.release(fits.getAdmittedNanos());
+        first.release(first.getAdmittedNanos());
+
+        //with nothing else in flight a batch over the limit still runs, on its own
+        AdmissionControl.Permit alone = admission.admit(Arrays.asList(1, 1, 1, 1, 1, 2, 2, 2, 2, 2));
+        assertNotNull(alone);
+        assertEquals(10, admission.getInFlight());
+        assertNull(admission.admit(3));
+        alone.release(alone.getAdmittedNanos());
+        assertEquals(0, admission.getInFlight());
+    }
+
+    private BookTicketEntryDto keyed(String idempotencyKey, int noOfSeats) {
+        List<Integer> passengerIds = new ArrayList<>();
+        for (int i = 0; i < noOfSeats; i++) {
+            passengerIds.add(1);
+        }
+        BookTicketEntryDto booking = new BookTicketEntryDto(passengerIds, 1, Station.DELHI, Station.NAGPUR, noOfSeats, 1);
+        booking.setIdempotencyKey(idempotencyKey);
+        return booking;
+    }
+}